@@ -0,0 +1,91 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.artemis.BaseSystem
+import com.artemis.World
+import com.artemis.WorldConfigurationBuilder
+import com.badlogic.gdx.math.Vector2
+import com.badlogic.gdx.utils.GdxNativesLoader
+import com.ore.infinium.ChunkedBlockStorage
+import com.ore.infinium.LoadedViewport
+import com.ore.infinium.OreWorld
+import com.ore.infinium.SkyHeightmap
+import com.ore.infinium.WorldGenerator
+import com.ore.infinium.systems.server.LiquidSimulationSystem
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * headless TestTiny worlds for the benchmarks. no client, no server,
+ * just the blocks and whichever systems a benchmark needs.
+ */
+object BenchmarkWorlds {
+    val worldSize = OreWorld.WorldSize.TestTiny
+
+    /**
+     * an all air world, TestTiny unless it's about world size. the liquid system is always there, world gen needs it
+     */
+    fun create(size: OreWorld.WorldSize = worldSize,
+               layout: ChunkedBlockStorage.Layout = ChunkedBlockStorage.Layout.Interleaved,
+               systems: (OreWorld) -> List<BaseSystem> = { emptyList() }): OreWorld {
+        GdxNativesLoader.load()
+
+        val world = OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                             worldSize = size, blockLayout = layout)
+
+        val allSystems = listOf(LiquidSimulationSystem(world)) + systems(world)
+        world.artemisWorld = World(WorldConfigurationBuilder().with(*allSystems.toTypedArray()).build())
+
+        return world
+    }
+
+    /**
+     * the noise terrain and walls, like world gen makes them. no lakes or volcanoes,
+     * so it doesn't take long
+     */
+    fun generateTerrain(world: OreWorld) {
+        world.blocks.unshareAll()
+
+        val generator = WorldGenerator(world)
+        generator.generateBlockTypes(worldSize, WorldGenerator.DEFAULT_SEED, ForkJoinPool.commonPool())
+        generator.generateWallTypes(0, worldSize.width, ForkJoinPool.commonPool())
+
+        world.skyHeightmap = SkyHeightmap(world).apply { rebuild(0, worldSize.width - 1) }
+
+        world.blocks.compact()
+    }
+
+    /**
+     * the blocks a player would have loaded, standing on the ground in the middle
+     * of the world. like the viewport's, x..width and y..height are inclusive
+     */
+    fun surfaceRegion(world: OreWorld): LoadedViewport.PlayerViewportBlockRegion {
+        val x = worldSize.width * 0.5f
+        val viewport = LoadedViewport()
+        viewport.centerOn(Vector2(x, world.findSolidGround(x)), world)
+
+        return viewport.blockRegionInViewport()
+    }
+}
@@ -0,0 +1,104 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.LoadedViewport
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * the OreWorld block accessors, over a loaded viewport of generated terrain,
+ * in the row by row order the systems go through them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class BlockAccessBenchmark {
+    private lateinit var world: OreWorld
+    private lateinit var region: LoadedViewport.PlayerViewportBlockRegion
+
+    @Setup
+    fun setup() {
+        world = BenchmarkWorlds.create()
+        BenchmarkWorlds.generateTerrain(world)
+        region = BenchmarkWorlds.surfaceRegion(world)
+    }
+
+    @Benchmark
+    fun blockType(): Int {
+        var sum = 0
+        for (y in region.y..region.height) {
+            for (x in region.x..region.width) {
+                sum += world.blockType(x, y)
+            }
+        }
+
+        return sum
+    }
+
+    @Benchmark
+    fun isBlockSolid(): Int {
+        var solid = 0
+        for (y in region.y..region.height) {
+            for (x in region.x..region.width) {
+                if (world.isBlockSolid(x, y)) {
+                    ++solid
+                }
+            }
+        }
+
+        return solid
+    }
+
+    @Benchmark
+    fun blockLightLevel(): Int {
+        var sum = 0
+        for (y in region.y..region.height) {
+            for (x in region.x..region.width) {
+                sum += world.blockLightLevel(x, y)
+            }
+        }
+
+        return sum
+    }
+
+    /**
+     * alternates between two patterns every call, so every write changes the block
+     */
+    @Benchmark
+    fun setBlockType(): Int {
+        val odd = world.blockType(region.x, region.y) == OreBlock.BlockType.Dirt.oreValue
+        for (y in region.y..region.height) {
+            for (x in region.x..region.width) {
+                val dirt = ((x - region.x + y - region.y) and 1 == 0) != odd
+                world.setBlockType(x, y, if (dirt) OreBlock.BlockType.Dirt else OreBlock.BlockType.Stone)
+            }
+        }
+
+        return world.blockType(region.x, region.y).toInt()
+    }
+}
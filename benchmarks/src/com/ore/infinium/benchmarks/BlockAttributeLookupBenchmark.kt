@@ -0,0 +1,78 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.OreBlock
+import org.openjdk.jmh.annotations.*
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * the solid/liquid checks done per tile, through the blockAttributes hash map
+ * versus the flattened block property table, over random block types
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class BlockAttributeLookupBenchmark {
+    companion object {
+        const val LOOKUPS = 1 shl 16
+    }
+
+    private lateinit var types: ByteArray
+
+    @Setup
+    fun setup() {
+        val random = Random(1234L)
+        val blockTypes = OreBlock.BlockType.values()
+        types = ByteArray(LOOKUPS) { blockTypes[random.nextInt(blockTypes.size)].oreValue }
+    }
+
+    @Benchmark
+    fun attributeMap(): Int {
+        var count = 0
+        for (type in types) {
+            val attributes = OreBlock.blockAttributes[type]!!
+            if (attributes.collision == OreBlock.BlockAttributes.Collision.True ||
+                    attributes.category == OreBlock.BlockAttributes.BlockCategory.Liquid) {
+                ++count
+            }
+        }
+
+        return count
+    }
+
+    @Benchmark
+    fun propertyTable(): Int {
+        var count = 0
+        for (type in types) {
+            if (OreBlock.isSolid(type) || OreBlock.isLiquid(type)) {
+                ++count
+            }
+        }
+
+        return count
+    }
+}
@@ -0,0 +1,139 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.ChunkedBlockStorage
+import com.ore.infinium.LoadedViewport
+import com.ore.infinium.OreWorld
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * the interleaved and planar block layouts, on the access patterns the liquid,
+ * lighting, tile transition and tile render systems (and world saving) use,
+ * over a loaded viewport of generated terrain
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class BlockStorageLayoutBenchmark {
+    @Param("Interleaved", "Planar")
+    @JvmField
+    var layout = ""
+
+    private lateinit var world: OreWorld
+    private lateinit var region: LoadedViewport.PlayerViewportBlockRegion
+
+    @Setup
+    fun setup() {
+        world = BenchmarkWorlds.create(layout = ChunkedBlockStorage.Layout.valueOf(layout))
+        BenchmarkWorlds.generateTerrain(world)
+        region = BenchmarkWorlds.surfaceRegion(world)
+    }
+
+    /**
+     * LiquidSimulationSystem.processLiquidRange, bottom to top row scans
+     */
+    @Benchmark
+    fun liquidScan(): Int {
+        var count = 0
+        for (y in region.height downTo region.y) {
+            for (x in region.x..region.width) {
+                if (world.isWater(x, y)) {
+                    ++count
+                }
+            }
+        }
+
+        return count
+    }
+
+    /**
+     * TileLightingSystem, reading light levels over a region
+     */
+    @Benchmark
+    fun lightingScan(): Int {
+        var sum = 0
+        for (x in region.x..region.width) {
+            for (y in region.y..region.height) {
+                sum += world.blockLightLevel(x, y)
+            }
+        }
+
+        return sum
+    }
+
+    /**
+     * TileTransitionSystem, type of every neighbour of every tile
+     */
+    @Benchmark
+    fun transitionScan(): Int {
+        var sum = 0
+        for (x in region.x..region.width) {
+            for (y in region.y..region.height) {
+                sum += world.blockTypeSafely(x - 1, y - 1) + world.blockTypeSafely(x, y - 1) +
+                        world.blockTypeSafely(x + 1, y - 1) + world.blockTypeSafely(x - 1, y) +
+                        world.blockTypeSafely(x, y) + world.blockTypeSafely(x + 1, y) +
+                        world.blockTypeSafely(x - 1, y + 1) + world.blockTypeSafely(x, y + 1) +
+                        world.blockTypeSafely(x + 1, y + 1)
+            }
+        }
+
+        return sum
+    }
+
+    /**
+     * TileRenderSystem, several fields of every visible tile
+     */
+    @Benchmark
+    fun renderScan(): Int {
+        var sum = 0
+        for (x in region.x..region.width) {
+            for (y in region.y..region.height) {
+                sum += world.blockType(x, y) + world.blockMeshType(x, y) + world.blockWallType(x, y) +
+                        world.blockLightLevel(x, y)
+            }
+        }
+
+        return sum
+    }
+
+    /**
+     * WorldIO, every saved field of every block in the world
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    fun saveScan(): Int {
+        var sum = 0
+        for (x in 0 until BenchmarkWorlds.worldSize.width) {
+            for (y in 0 until BenchmarkWorlds.worldSize.height) {
+                sum += world.blockType(x, y) + world.blockWallType(x, y) + world.blockFlags(x, y) +
+                        world.blockLightLevel(x, y)
+            }
+        }
+
+        return sum
+    }
+}
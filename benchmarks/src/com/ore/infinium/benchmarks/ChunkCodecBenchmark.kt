@@ -0,0 +1,125 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.ChunkCodec
+import com.ore.infinium.ChunkedBlockStorage
+import com.ore.infinium.RegionFile
+import com.ore.infinium.WorldGenerator
+import kotlinx.coroutines.experimental.channels.Channel
+import kotlinx.coroutines.experimental.runBlocking
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import java.util.zip.Deflater
+
+/**
+ * the chunk codec encoding every chunk of a world generated from a fixed seed
+ * (lakes and volcanoes too), against plain deflate of the same chunks, and
+ * decoding them again. the encoders return how many bytes they wrote
+ *
+ * the size of a block region on the network is in NetworkSerializationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ChunkCodecBenchmark {
+    //the first one is WorldGenerator.DEFAULT_SEED
+    @Param("4210630674902044763", "5528222012793640519", "-12798241782634058")
+    @JvmField
+    var seed = 0L
+
+    private lateinit var blocks: ChunkedBlockStorage
+    private lateinit var encoded: Array<ByteArray>
+
+    private val raw = ByteArray(RegionFile.RAW_CHUNK_SIZE)
+    private val deflateOutput = ByteArray(RegionFile.RAW_CHUNK_SIZE * 2)
+
+    @Setup
+    fun setup() {
+        val world = BenchmarkWorlds.create()
+        runBlocking {
+            WorldGenerator(world).generateWorld(BenchmarkWorlds.worldSize, Channel<String>(Channel.UNLIMITED), seed)
+        }
+
+        blocks = world.blocks
+        encoded = RegionFile.encodeChunks(blocks.chunkCount) { index, dest ->
+            RegionFile.snapshotChunk(blocks, index, dest)
+        }
+    }
+
+    /**
+     * @return encoded bytes
+     */
+    @Benchmark
+    fun deflateOnly(): Long {
+        val deflater = Deflater(Deflater.BEST_SPEED)
+
+        var total = 0L
+        for (chunkIndex in 0 until blocks.chunkCount) {
+            RegionFile.snapshotChunk(blocks, chunkIndex, raw)
+            deflater.reset()
+            deflater.setInput(raw)
+            deflater.finish()
+            while (!deflater.finished()) {
+                total += deflater.deflate(deflateOutput)
+            }
+        }
+
+        deflater.end()
+        return total
+    }
+
+    @Benchmark
+    fun paletteRle() = encodeParallel(deflate = false)
+
+    @Benchmark
+    fun paletteRleDeflate() = encodeParallel(deflate = true)
+
+    /**
+     * palette/rle + deflate, single threaded like loading
+     */
+    @Benchmark
+    fun decode(): Byte {
+        ChunkCodec(deflate = true).use { codec ->
+            for (blob in encoded) {
+                codec.decode(blob, 0, blob.size, raw, raw.size, ChunkedBlockStorage.CHUNK_AREA)
+            }
+        }
+
+        return raw[0]
+    }
+
+    /**
+     * @return encoded bytes
+     */
+    private fun encodeParallel(deflate: Boolean): Long {
+        val encodedChunks = ChunkCodec.encodeParallel(blocks.chunkCount, RegionFile.RAW_CHUNK_SIZE,
+                                                      ChunkedBlockStorage.CHUNK_AREA, deflate) { index, dest ->
+            RegionFile.snapshotChunk(blocks, index, dest)
+        }
+
+        return encodedChunks.sumBy { it.size }.toLong()
+    }
+}
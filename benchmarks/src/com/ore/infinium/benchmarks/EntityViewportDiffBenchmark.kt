@@ -0,0 +1,61 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.systems.server.ServerNetworkEntitySystem
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * ServerNetworkEntitySystem working out which entities to spawn and destroy on a
+ * client, when its viewport moves: a tenth of the entities it knows about
+ * left the viewport, and as many new ones came in. every tenth entity is a player.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class EntityViewportDiffBenchmark {
+    @Param("100", "1000")
+    @JvmField
+    var entityCount = 0
+
+    private lateinit var knownEntities: List<Int>
+    private lateinit var entitiesInRegion: List<Int>
+
+    @Setup
+    fun setup() {
+        val turnover = entityCount / 10
+        knownEntities = (0 until entityCount).toMutableList()
+        //like the spatial query, in no particular order
+        entitiesInRegion = (turnover until entityCount + turnover).reversed().toMutableList()
+    }
+
+    @Benchmark
+    fun diffViewport(): Int {
+        val diff = ServerNetworkEntitySystem.diffViewport(knownEntities, entitiesInRegion) { it % 10 == 0 }
+
+        return diff.entitiesToSpawn.size + diff.entitiesToDestroy.size
+    }
+}
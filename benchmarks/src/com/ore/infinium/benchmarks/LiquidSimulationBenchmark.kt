@@ -0,0 +1,136 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import com.ore.infinium.systems.server.LiquidSimulationSystem
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * LiquidSimulationSystem.processLiquidRange over a viewport sized basin, on a few canned
+ * scenarios. the sim changes the blocks it runs on, so every invocation puts the scenario
+ * back first and then runs TICKS ticks. putting it back is a plain copy, cheap next to those.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class LiquidSimulationBenchmark {
+    companion object {
+        const val TICKS = 20
+
+        const val LEFT = 100
+        const val TOP = 100
+        const val RIGHT = LEFT + 119
+        const val BOTTOM = TOP + 99
+    }
+
+    /**
+     * settled: a still, half full basin. only scanning, nothing moves
+     * waterfall: a full ledge emptying into the basin through a gap
+     * flood: a block of water dropped in the middle, falling and spreading out
+     */
+    @Param("settled", "waterfall", "flood")
+    @JvmField
+    var scenario = ""
+
+    private lateinit var world: OreWorld
+    private lateinit var liquidSystem: LiquidSimulationSystem
+    private lateinit var snapshot: ByteArray
+
+    @Setup
+    fun setup() {
+        world = BenchmarkWorlds.create()
+        liquidSystem = world.artemisWorld.getSystem(LiquidSimulationSystem::class.java)
+
+        buildBasin()
+        when (scenario) {
+            "settled" -> fillWater(LEFT + 1, RIGHT - 1, (TOP + BOTTOM) / 2, BOTTOM - 1)
+            "waterfall" -> {
+                //ledge along the left wall, with a gap at its far end
+                fillStone(LEFT + 1, LEFT + 40, TOP + 40, TOP + 40)
+                fillWater(LEFT + 1, LEFT + 37, TOP + 20, TOP + 39)
+            }
+            "flood" -> fillWater(LEFT + 50, LEFT + 69, TOP + 5, TOP + 24)
+            else -> error("unknown liquid scenario $scenario")
+        }
+
+        snapshot = ByteArray((RIGHT - LEFT + 1) * (BOTTOM - TOP + 1) * world.blocks.fieldCount)
+        copyRegion(toSnapshot = true)
+    }
+
+    @Benchmark
+    fun processLiquidRange(): Byte {
+        copyRegion(toSnapshot = false)
+
+        repeat(TICKS) {
+            liquidSystem.processLiquidRange(LEFT, RIGHT, TOP, BOTTOM)
+        }
+
+        return world.liquidLevel((LEFT + RIGHT) / 2, BOTTOM - 1)
+    }
+
+    /**
+     * stone floor and walls around the region, air inside
+     */
+    private fun buildBasin() {
+        fillStone(LEFT, RIGHT, BOTTOM, BOTTOM)
+        fillStone(LEFT, LEFT, TOP, BOTTOM)
+        fillStone(RIGHT, RIGHT, TOP, BOTTOM)
+    }
+
+    private fun fillStone(left: Int, right: Int, top: Int, bottom: Int) {
+        for (y in top..bottom) {
+            for (x in left..right) {
+                world.setBlockType(x, y, OreBlock.BlockType.Stone)
+            }
+        }
+    }
+
+    private fun fillWater(left: Int, right: Int, top: Int, bottom: Int) {
+        for (y in top..bottom) {
+            for (x in left..right) {
+                world.setLiquidLevelWaterNotEmpty(x, y, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
+            }
+        }
+    }
+
+    private fun copyRegion(toSnapshot: Boolean) {
+        var index = 0
+        for (y in TOP..BOTTOM) {
+            for (x in LEFT..RIGHT) {
+                for (field in 0 until world.blocks.fieldCount) {
+                    if (toSnapshot) {
+                        snapshot[index] = world.blocks[x, y, field]
+                    } else {
+                        world.blocks[x, y, field] = snapshot[index]
+                    }
+                    ++index
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import com.ore.infinium.LoadedViewport
+import com.ore.infinium.Network
+import com.ore.infinium.OreWorld
+import com.ore.infinium.components.AirComponent
+import com.ore.infinium.components.HealthComponent
+import com.ore.infinium.components.ItemComponent
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * kryo serialization of the biggest packets, the way kryonet writes them
+ * (class and object). a block region of a loaded viewport of generated
+ * terrain (with the light levels, or without them like with --clientLighting),
+ * and a batch of entity spawns.
+ *
+ * per thread, kryo and the block region serializer aren't thread safe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class NetworkSerializationBenchmark {
+    companion object {
+        const val SPAWN_COUNT = 64
+    }
+
+    @Param("true", "false")
+    var includesLight = true
+
+    private val kryo = Kryo()
+    private val output = Output(1 shl 20)
+    private val input = Input()
+
+    private lateinit var blockRegion: Network.Shared.BlockRegion
+    private lateinit var spawnMultiple: Network.Server.EntitySpawnMultiple
+
+    private lateinit var serializedBlockRegion: ByteArray
+    private lateinit var serializedSpawnMultiple: ByteArray
+
+    @Setup
+    fun setup() {
+        Network.register(kryo)
+
+        val world = BenchmarkWorlds.create()
+        BenchmarkWorlds.generateTerrain(world)
+        blockRegion = createBlockRegion(world, BenchmarkWorlds.surfaceRegion(world))
+        spawnMultiple = createSpawnMultiple()
+
+        serializedBlockRegion = serialize(blockRegion)
+        serializedSpawnMultiple = serialize(spawnMultiple)
+    }
+
+    @Benchmark
+    fun writeBlockRegion() = serializedSize(blockRegion)
+
+    @Benchmark
+    fun readBlockRegion() = deserialize(serializedBlockRegion)
+
+    @Benchmark
+    fun writeEntitySpawnMultiple() = serializedSize(spawnMultiple)
+
+    @Benchmark
+    fun readEntitySpawnMultiple() = deserialize(serializedSpawnMultiple)
+
+    private fun serializedSize(packet: Any): Int {
+        output.clear()
+        kryo.writeClassAndObject(output, packet)
+
+        return output.position()
+    }
+
+    private fun serialize(packet: Any): ByteArray {
+        serializedSize(packet)
+        return output.toBytes()
+    }
+
+    private fun deserialize(bytes: ByteArray): Any {
+        input.buffer = bytes
+        return kryo.readClassAndObject(input)
+    }
+
+    /**
+     * the same fields ServerNetworkSystem.sendPlayerBlockRegion sends
+     */
+    private fun createBlockRegion(world: OreWorld,
+                                  region: LoadedViewport.PlayerViewportBlockRegion): Network.Shared.BlockRegion {
+        val blockRegion = Network.Shared.BlockRegion(region.x, region.y, region.width, region.height)
+        val count = (region.width - region.x + 1) * (region.height - region.y + 1)
+
+        blockRegion.includesLight = includesLight
+        blockRegion.skyHeights = IntArray(region.width - region.x + 1) { column ->
+            world.skyHeightmap!!.skyHeight(region.x + column)
+        }
+
+        val fieldCount = blockRegion.fieldCount
+        blockRegion.blocks = ByteArray(count * fieldCount)
+        var blockIndex = 0
+        for (y in region.y..region.height) {
+            for (x in region.x..region.width) {
+                val offset = blockIndex * fieldCount
+                blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE] = world.blockType(x, y)
+                blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE] =
+                        world.blockWallType(x, y)
+                blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS] = world.blockFlags(x, y)
+                if (includesLight) {
+                    blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_LIGHT_LEVEL] =
+                            world.blockLightLevel(x, y)
+                }
+                ++blockIndex
+            }
+        }
+
+        return blockRegion
+    }
+
+    /**
+     * item-like entities, with a few components each, like dropped items or placed blocks
+     */
+    private fun createSpawnMultiple() = Network.Server.EntitySpawnMultiple().apply {
+        for (id in 0 until SPAWN_COUNT) {
+            entitySpawn.add(Network.Server.EntitySpawn().apply {
+                this.id = id
+                pos.set(id * 2f, 100f)
+                size.set(1f, 1f)
+                textureName = "stone"
+
+                components = mutableListOf(HealthComponent(), AirComponent(), ItemComponent().apply {
+                    stackSize = id
+                    maxStackSize = 64
+                    name = "Stone"
+                })
+            })
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.NoiseProgram
+import com.ore.infinium.OreWorld
+import com.ore.infinium.WorldGenerator
+import com.sudoplay.joise.module.Module
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * the world gen noise of one thread's share of Large (a column of tiles, surface
+ * down to the bottom), through the joise graph point by point, and through the
+ * compiled program a row at a time
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class NoiseProgramBenchmark {
+    private val worldSize = OreWorld.WorldSize.Large
+    private val tileSize = WorldGenerator.WORLDGEN_TILE_SIZE
+
+    private lateinit var module: Module
+    private lateinit var evaluator: NoiseProgram.Evaluator
+    private lateinit var columns: DoubleArray
+
+    @Setup
+    fun setup() {
+        val world = BenchmarkWorlds.create(worldSize)
+        val graph = WorldGenerator(world).generateNoiseGraph(worldSize, WorldGenerator.DEFAULT_SEED)
+        module = graph.toModule()
+        evaluator = NoiseProgram.compile(graph, lanes = tileSize).Evaluator()
+
+        val xRatio = worldSize.width.toDouble() / worldSize.height.toDouble()
+        columns = DoubleArray(tileSize) { i -> i.toDouble() / worldSize.width.toDouble() * xRatio }
+    }
+
+    @Benchmark
+    fun joise(): Double {
+        var sum = 0.0
+        for (y in 0 until worldSize.height) {
+            for (i in 0 until tileSize) {
+                sum += module.get(columns[i], y.toDouble() / worldSize.height.toDouble())
+            }
+        }
+
+        return sum
+    }
+
+    @Benchmark
+    fun compiled(): Double {
+        var sum = 0.0
+        for (y in 0 until worldSize.height) {
+            if (y % tileSize == 0) {
+                evaluator.startTile(columns, tileSize)
+            }
+
+            val row = evaluator.evaluateRow(y.toDouble() / worldSize.height.toDouble())
+            for (i in 0 until tileSize) {
+                sum += row[i]
+            }
+        }
+
+        return sum
+    }
+}
@@ -0,0 +1,104 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.LoadedViewport
+import com.ore.infinium.OreWorld
+import com.ore.infinium.systems.server.TileLightingSystem
+import org.openjdk.jmh.annotations.*
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * the TileLightingSystem flood fill, lighting up a loaded viewport of generated
+ * terrain from a number of lights placed in its open tiles. the fill only ever
+ * brightens, so every invocation first darkens the area it can reach (light
+ * loses at least 1 per tile, so no further than its level around the viewport).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TileLightingBenchmark {
+    @Param("1", "16")
+    @JvmField
+    var lightCount = 0
+
+    private lateinit var world: OreWorld
+    private lateinit var lightingSystem: TileLightingSystem
+    private lateinit var region: LoadedViewport.PlayerViewportBlockRegion
+
+    private lateinit var lightXs: IntArray
+    private lateinit var lightYs: IntArray
+
+    @Setup
+    fun setup() {
+        world = BenchmarkWorlds.create { world -> listOf(TileLightingSystem(world)) }
+        lightingSystem = world.artemisWorld.getSystem(TileLightingSystem::class.java)
+
+        BenchmarkWorlds.generateTerrain(world)
+        region = BenchmarkWorlds.surfaceRegion(world)
+
+        //same spots every run, open ones so the light can spread
+        val random = Random(1)
+        val xs = ArrayList<Int>()
+        val ys = ArrayList<Int>()
+        while (xs.size < lightCount) {
+            val x = region.x + random.nextInt(region.width - region.x + 1)
+            val y = region.y + random.nextInt(region.height - region.y + 1)
+            if (!world.isBlockSolid(x, y)) {
+                xs.add(x)
+                ys.add(y)
+            }
+        }
+
+        lightXs = xs.toIntArray()
+        lightYs = ys.toIntArray()
+    }
+
+    @Benchmark
+    fun floodFill(): Byte {
+        darkenReachableArea()
+
+        for (i in lightXs.indices) {
+            lightingSystem.updateTileLighting(lightXs[i], lightYs[i], TileLightingSystem.MAX_TILE_LIGHT_LEVEL)
+        }
+
+        return world.blockLightLevel(lightXs[0], lightYs[0])
+    }
+
+    private fun darkenReachableArea() {
+        val reach = TileLightingSystem.MAX_TILE_LIGHT_LEVEL + 1
+        val left = world.blockXSafe(region.x - reach)
+        val right = world.blockXSafe(region.width + reach)
+        val top = world.blockYSafe(region.y - reach)
+        val bottom = world.blockYSafe(region.height + reach)
+
+        for (y in top..bottom) {
+            for (x in left..right) {
+                world.setBlockLightLevel(x, y, 0)
+            }
+        }
+    }
+}
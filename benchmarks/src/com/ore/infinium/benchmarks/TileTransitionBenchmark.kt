@@ -0,0 +1,62 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.badlogic.gdx.graphics.OrthographicCamera
+import com.ore.infinium.LoadedViewport
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import com.ore.infinium.systems.client.TileTransitionSystem
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * TileTransitionSystem working out the mesh types of a loaded viewport of
+ * generated terrain, like the client does every interval
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TileTransitionBenchmark {
+    private lateinit var world: OreWorld
+    private lateinit var transitionSystem: TileTransitionSystem
+    private lateinit var region: LoadedViewport.PlayerViewportBlockRegion
+
+    @Setup
+    fun setup() {
+        world = BenchmarkWorlds.create { world -> listOf(TileTransitionSystem(OrthographicCamera(), world)) }
+        transitionSystem = world.artemisWorld.getSystem(TileTransitionSystem::class.java)
+
+        BenchmarkWorlds.generateTerrain(world)
+        region = BenchmarkWorlds.surfaceRegion(world)
+    }
+
+    @Benchmark
+    fun transitionRegion(): Byte {
+        transitionSystem.transitionRegion(region)
+
+        return world.blocks[region.x, region.height, OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE]
+    }
+}
@@ -0,0 +1,183 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.beust.jcommander.JCommander
+import com.ore.infinium.OreSettings
+import com.ore.infinium.OreWorld
+import com.ore.infinium.WorldGenerator
+import kotlinx.coroutines.experimental.channels.Channel
+import kotlinx.coroutines.experimental.runBlocking
+import mu.KLogging
+import java.lang.management.ManagementFactory
+import java.util.*
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * headless world gen timings, outside of jmh, since they're per pass:
+ * gradle benchmarks:benchmarkWorldGen -Pargs="--benchmarkWorldSize Large --benchmarkThreads 1,4,0"
+ */
+fun main(args: Array<String>) {
+    JCommander().apply {
+        addObject(OreSettings)
+        setCaseSensitiveOptions(false)
+        parse(*args)
+    }
+
+    WorldGenBenchmark.runFromSettings()
+}
+
+/**
+ * runs the whole world generator headless (no client, no server, no image), on
+ * a pool of a given size, and measures every pass of it: wall time and bytes
+ * allocated, by any thread. hashes the generated blocks at the end, so runs
+ * can be compared for determinism, the parallel passes must not depend on
+ * the thread count or scheduling.
+ */
+class WorldGenBenchmark(val worldSize: OreWorld.WorldSize, val seed: Long = WorldGenerator.DEFAULT_SEED) {
+    companion object : KLogging() {
+        /**
+         * allocation counting is a hotspot extension, other jvms may not have it
+         */
+        private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+        /**
+         * bytes allocated by every live thread so far, by thread id
+         */
+        private fun allocatedBytesByThread(): Map<Long, Long> {
+            val bean = threadBean
+            if (bean == null || !bean.isThreadAllocatedMemorySupported || !bean.isThreadAllocatedMemoryEnabled) {
+                return emptyMap()
+            }
+
+            val ids = bean.allThreadIds
+            val allocated = bean.getThreadAllocatedBytes(ids)
+
+            return ids.indices.filter { allocated[it] >= 0 }.associate { ids[it] to allocated[it] }
+        }
+
+        /**
+         * runs the benchmark as configured in OreSettings, and logs the results
+         */
+        fun runFromSettings() {
+            val benchmark = WorldGenBenchmark(OreSettings.benchmarkWorldSize, OreSettings.worldSeed)
+            val hashes = HashSet<Long>()
+            val threadCounts = OreSettings.benchmarkThreads.split(',').map { it.trim().toInt() }
+            for (threads in threadCounts) {
+                val poolThreads = if (threads > 0) threads else Runtime.getRuntime().availableProcessors()
+                for (run in 1..OreSettings.benchmarkRuns) {
+                    val result = benchmark.run(poolThreads)
+                    hashes.add(result.blocksHash)
+                    logger.info { result.format() }
+                }
+            }
+
+            if (hashes.size == 1) {
+                logger.info { "deterministic, every run hashed the same" }
+            } else {
+                logger.error { "NOT deterministic, runs hashed to ${hashes.size} different values" }
+            }
+        }
+    }
+
+    /**
+     * @param allocatedBytes by all threads during the pass, -1 when the jvm can't tell
+     */
+    class PassResult(val name: String, val ms: Long, val allocatedBytes: Long) {
+        /**
+         * megabytes allocated per second of the pass
+         */
+        val allocationRate get() = if (ms > 0) allocatedBytes / 1048576.0 / (ms / 1000.0) else 0.0
+    }
+
+    class RunResult(val worldSize: OreWorld.WorldSize,
+                    val seed: Long,
+                    val threads: Int,
+                    val passes: List<PassResult>,
+                    val blocksHash: Long) {
+        val totalMs = passes.fold(0L) { total, pass -> total + pass.ms }
+
+        fun format() = buildString {
+            append("world gen of $worldSize, seed $seed, on $threads threads: $totalMs ms, ")
+            append("blocks hash %016x\n".format(blocksHash))
+            for (pass in passes) {
+                if (pass.allocatedBytes < 0) {
+                    append("  %-40s %8d ms\n".format(pass.name, pass.ms))
+                } else {
+                    append("  %-40s %8d ms %10.1f MB %10.1f MB/s\n".format(pass.name, pass.ms,
+                                                                         pass.allocatedBytes / 1048576.0,
+                                                                         pass.allocationRate))
+                }
+            }
+        }
+    }
+
+    private class PassRecorder : WorldGenerator.PassListener {
+        val passes = ArrayList<PassResult>()
+        private var allocatedBefore = emptyMap<Long, Long>()
+
+        override fun passStarted(name: String) {
+            allocatedBefore = allocatedBytesByThread()
+        }
+
+        override fun passFinished(name: String, ms: Long) {
+            val allocatedAfter = allocatedBytesByThread()
+            if (allocatedAfter.isEmpty()) {
+                passes.add(PassResult(name, ms, -1L))
+                return
+            }
+
+            //threads started during the pass weren't in before, all of theirs counts
+            var allocated = 0L
+            for ((id, bytes) in allocatedAfter) {
+                allocated += bytes - (allocatedBefore[id] ?: 0L)
+            }
+
+            passes.add(PassResult(name, ms, allocated))
+        }
+    }
+
+    /**
+     * generates a fresh world on a pool of threads workers
+     */
+    fun run(threads: Int): RunResult {
+        val world = BenchmarkWorlds.create(worldSize)
+
+        val recorder = PassRecorder()
+        val generator = WorldGenerator(world)
+        generator.passListener = recorder
+
+        val pool = ForkJoinPool(threads)
+        try {
+            runBlocking {
+                generator.generateWorld(worldSize, Channel<String>(Channel.UNLIMITED), seed, pool, headless = true)
+            }
+        } finally {
+            pool.shutdown()
+        }
+
+        return RunResult(worldSize, seed, threads, recorder.passes, world.blocks.contentHash())
+    }
+}
@@ -0,0 +1,77 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.benchmarks
+
+import com.ore.infinium.OreWorld
+import com.ore.infinium.WorldGenerator
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+
+/**
+ * how the world gen noise pass scales with the number of threads, on the bigger
+ * world sizes. threads 0 is every core. one pass is seconds, so each measurement
+ * is a single one, into a fresh world. Huge is left out, it needs a couple GB of heap
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+open class WorldGenScalingBenchmark {
+    @Param("Medium", "Large")
+    @JvmField
+    var worldSize = ""
+
+    @Param("1", "2", "4", "0")
+    @JvmField
+    var threads = 0
+
+    private lateinit var size: OreWorld.WorldSize
+    private lateinit var pool: ForkJoinPool
+    private lateinit var world: OreWorld
+
+    @Setup(Level.Trial)
+    fun setupTrial() {
+        size = OreWorld.WorldSize.valueOf(worldSize)
+        pool = ForkJoinPool(if (threads == 0) Runtime.getRuntime().availableProcessors() else threads)
+    }
+
+    @Setup(Level.Iteration)
+    fun setupIteration() {
+        world = BenchmarkWorlds.create(size)
+        world.blocks.unshareAll()
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        pool.shutdown()
+    }
+
+    @Benchmark
+    fun noisePass(): Int {
+        return WorldGenerator(world).generateBlockTypes(size, WorldGenerator.DEFAULT_SEED, pool)
+    }
+}
@@ -0,0 +1,179 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import com.ore.infinium.ChunkedBlockStorage.Companion.CHUNK_MASK
+import com.ore.infinium.ChunkedBlockStorage.Companion.CHUNK_SHIFT
+import com.ore.infinium.ChunkedBlockStorage.Companion.CHUNK_SIZE
+import java.util.*
+
+/**
+ * A set of block positions, stored as one bitset per chunk (same chunk
+ * layout and indexing as [ChunkedBlockStorage]), where each long is one
+ * row of a chunk.
+ *
+ * Chunk bitsets are only allocated once a cell in them gets added, and
+ * are kept around (zeroed) on [clear], since the same areas tend to
+ * become active again.
+ */
+class ActiveCellSet(val width: Int, val height: Int) {
+    val chunkCountX = (width + CHUNK_MASK) shr CHUNK_SHIFT
+    val chunkCountY = (height + CHUNK_MASK) shr CHUNK_SHIFT
+
+    private val chunkBits = arrayOfNulls<LongArray>(chunkCountX * chunkCountY)
+
+    /**
+     * chunks that have at least one cell set
+     */
+    private val activeChunks = BitSet(chunkBits.size)
+
+    /**
+     * amount of cells in the set
+     */
+    var size = 0
+        private set
+
+    fun isEmpty() = size == 0
+
+    fun chunkIndex(x: Int, y: Int) = (x shr CHUNK_SHIFT) * chunkCountY + (y shr CHUNK_SHIFT)
+
+    /**
+     * @return true if it wasn't in the set yet
+     */
+    fun add(x: Int, y: Int): Boolean {
+        val chunkIndex = chunkIndex(x, y)
+        val bits = chunkBits[chunkIndex] ?: LongArray(CHUNK_SIZE).apply { chunkBits[chunkIndex] = this }
+
+        val row = y and CHUNK_MASK
+        val mask = 1L shl (x and CHUNK_MASK)
+        if (bits[row] and mask != 0L) {
+            return false
+        }
+
+        bits[row] = bits[row] or mask
+        activeChunks.set(chunkIndex)
+        ++size
+        return true
+    }
+
+    fun contains(x: Int, y: Int): Boolean {
+        val bits = chunkBits[chunkIndex(x, y)] ?: return false
+        return bits[y and CHUNK_MASK] and (1L shl (x and CHUNK_MASK)) != 0L
+    }
+
+    fun clear() {
+        var chunkIndex = activeChunks.nextSetBit(0)
+        while (chunkIndex != -1) {
+            Arrays.fill(chunkBits[chunkIndex], 0L)
+            chunkIndex = activeChunks.nextSetBit(chunkIndex + 1)
+        }
+
+        activeChunks.clear()
+        size = 0
+    }
+
+    /**
+     * moves every cell that is in a chunk not set in [keepChunks] over into [dest],
+     * which must be the same size as this set
+     */
+    fun moveChunksNotIn(keepChunks: BitSet, dest: ActiveCellSet) {
+        require(dest.chunkCountX == chunkCountX && dest.chunkCountY == chunkCountY)
+
+        var chunkIndex = activeChunks.nextSetBit(0)
+        while (chunkIndex != -1) {
+            if (!keepChunks[chunkIndex]) {
+                val bits = chunkBits[chunkIndex]!!
+                val destBits = dest.chunkBits[chunkIndex] ?:
+                        LongArray(CHUNK_SIZE).apply { dest.chunkBits[chunkIndex] = this }
+
+                for (row in 0 until CHUNK_SIZE) {
+                    dest.size += java.lang.Long.bitCount(bits[row] and destBits[row].inv())
+                    size -= java.lang.Long.bitCount(bits[row])
+                    destBits[row] = destBits[row] or bits[row]
+                    bits[row] = 0L
+                }
+
+                dest.activeChunks.set(chunkIndex)
+                activeChunks.clear(chunkIndex)
+            }
+
+            chunkIndex = activeChunks.nextSetBit(chunkIndex + 1)
+        }
+    }
+
+    /**
+     * visits every cell, a chunk at a time. chunk rows go from the bottom of the
+     * world up, each one left to right, and within a chunk its rows go from the
+     * bottom up, each one left to right. so a cell is always visited after the
+     * cell below it.
+     *
+     * the set must not be modified while iterating it
+     */
+    fun forEachBottomUp(action: (x: Int, y: Int) -> Unit) {
+        if (size == 0) {
+            return
+        }
+
+        for (chunkY in chunkCountY - 1 downTo 0) {
+            for (chunkX in 0 until chunkCountX) {
+                val chunkIndex = chunkX * chunkCountY + chunkY
+                if (activeChunks[chunkIndex]) {
+                    forEachInChunkBottomUp(chunkIndex, action)
+                }
+            }
+        }
+    }
+
+    /**
+     * visits the index of every chunk that has at least one cell in it, in index order
+     */
+    fun forEachChunk(action: (chunkIndex: Int) -> Unit) {
+        var chunkIndex = activeChunks.nextSetBit(0)
+        while (chunkIndex != -1) {
+            action(chunkIndex)
+            chunkIndex = activeChunks.nextSetBit(chunkIndex + 1)
+        }
+    }
+
+    /**
+     * visits the cells of one chunk, bottom row first, each row left to right.
+     * different chunks may be iterated from different threads at once, as long
+     * as nothing modifies the set meanwhile
+     */
+    fun forEachInChunkBottomUp(chunkIndex: Int, action: (x: Int, y: Int) -> Unit) {
+        val bits = chunkBits[chunkIndex] ?: return
+        val originX = (chunkIndex / chunkCountY) shl CHUNK_SHIFT
+        val originY = (chunkIndex % chunkCountY) shl CHUNK_SHIFT
+
+        for (row in CHUNK_MASK downTo 0) {
+            var rowBits = bits[row]
+            while (rowBits != 0L) {
+                val localX = java.lang.Long.numberOfTrailingZeros(rowBits)
+                rowBits = rowBits and (rowBits - 1)
+                action(originX + localX, originY + row)
+            }
+        }
+    }
+}
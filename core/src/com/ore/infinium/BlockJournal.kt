@@ -0,0 +1,237 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import mu.KLogging
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.zip.CRC32
+
+/**
+ * Append-only journal of block changes (x, y, field, old value, new value),
+ * made durable between region file saves.
+ *
+ * changes are buffered in memory and written as one frame per tick, by flush():
+ * record count, the records, and a crc32 of them. flush forces the frame to disk,
+ * so it survives the os going down too, not only the process. a frame cut short
+ * by a crash fails its check, and replay stops there.
+ *
+ * the journal is split in numbered segments. whenever a snapshot of the blocks
+ * is taken for saving, a new segment is started; once that save is on disk, every
+ * segment before it is redundant and gets deleted. whatever is left on startup
+ * gets replayed on top of the region file.
+ *
+ * record/flush/startNewSegment are game thread only. deleting old segments
+ * may happen from the autosave thread, it never touches the current one.
+ */
+class BlockJournal(private val directory: Path) : Closeable {
+    companion object : KLogging() {
+        const val SEGMENT_PREFIX = "world.journal."
+
+        const val RECORD_SIZE = 4 + 4 + 1 + 1 + 1
+        const val FRAME_HEADER_SIZE = 4
+        const val FRAME_TRAILER_SIZE = 4
+
+        /**
+         * @return every journal segment in directory, oldest first
+         */
+        fun segments(directory: Path): List<Path> {
+            if (!Files.isDirectory(directory)) {
+                return emptyList()
+            }
+
+            val paths = Files.list(directory)
+            try {
+                return paths.iterator().asSequence()
+                        .filter { segmentNumber(it) != null }
+                        .sortedBy { segmentNumber(it)!! }
+                        .toList()
+            } finally {
+                paths.close()
+            }
+        }
+
+        private fun segmentNumber(path: Path): Long? {
+            val name = path.fileName.toString()
+            if (!name.startsWith(SEGMENT_PREFIX)) {
+                return null
+            }
+
+            return name.substring(SEGMENT_PREFIX.length).toLongOrNull()
+        }
+
+        /**
+         * applies every intact frame of every segment, in order
+         *
+         * @param apply receives x, y, field and the new value of every change
+         * @return the number of changes replayed
+         */
+        fun replay(directory: Path, apply: (x: Int, y: Int, field: Int, value: Byte) -> Unit): Int {
+            var replayed = 0
+            for (segment in segments(directory)) {
+                replayed += replaySegment(segment, apply)
+            }
+
+            return replayed
+        }
+
+        private fun replaySegment(segment: Path, apply: (Int, Int, Int, Byte) -> Unit): Int {
+            val data = ByteBuffer.wrap(Files.readAllBytes(segment))
+            val crc = CRC32()
+
+            var replayed = 0
+            while (data.remaining() >= FRAME_HEADER_SIZE) {
+                val frameStart = data.position()
+                val count = data.int
+                val recordsLength = count.toLong() * RECORD_SIZE
+                if (count < 0 || data.remaining() < recordsLength + FRAME_TRAILER_SIZE) {
+                    logger.warn { "journal $segment has a truncated frame at $frameStart, dropping the rest of it" }
+                    break
+                }
+
+                crc.reset()
+                crc.update(data.array(), data.position(), recordsLength.toInt())
+                val checksum = data.getInt(data.position() + recordsLength.toInt())
+                if (checksum != crc.value.toInt()) {
+                    logger.warn { "journal $segment has a corrupt frame at $frameStart, dropping the rest of it" }
+                    break
+                }
+
+                for (i in 0 until count) {
+                    val x = data.int
+                    val y = data.int
+                    val field = data.get().toInt()
+                    data.get() //old value, only for inspecting the journal
+                    val value = data.get()
+
+                    apply(x, y, field, value)
+                }
+
+                data.position(data.position() + FRAME_TRAILER_SIZE)
+                replayed += count
+            }
+
+            return replayed
+        }
+    }
+
+    private var buffer = ByteBuffer.allocate(64 * 1024)
+    private var pendingRecords = 0
+    private val crc = CRC32()
+
+    private var segmentNumber = (segments(directory).lastOrNull()?.let { segmentNumber(it) } ?: 0L) + 1
+    private var channel: FileChannel? = null
+
+    fun record(x: Int, y: Int, field: Int, old: Byte, new: Byte) {
+        if (pendingRecords == 0) {
+            buffer.clear()
+            //room for the record count, filled in by flush
+            buffer.putInt(0)
+        }
+
+        if (buffer.remaining() < RECORD_SIZE + FRAME_TRAILER_SIZE) {
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip() as ByteBuffer)
+        }
+
+        buffer.putInt(x)
+        buffer.putInt(y)
+        buffer.put(field.toByte())
+        buffer.put(old)
+        buffer.put(new)
+        ++pendingRecords
+    }
+
+    /**
+     * writes everything recorded since the last flush, as one frame, and forces
+     * it to disk. called once per tick, ticks without changes cost nothing.
+     */
+    fun flush() {
+        if (pendingRecords == 0) {
+            return
+        }
+
+        buffer.putInt(0, pendingRecords)
+
+        crc.reset()
+        crc.update(buffer.array(), FRAME_HEADER_SIZE, buffer.position() - FRAME_HEADER_SIZE)
+        buffer.putInt(crc.value.toInt())
+
+        buffer.flip()
+        val channel = channel ?: openSegment()
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+        channel.force(false)
+
+        pendingRecords = 0
+    }
+
+    /**
+     * flushes, then starts writing to a new segment. to be called
+     * right when the blocks are snapshotted for saving.
+     *
+     * @return the new segment. once the save is on disk, everything
+     * before it can be deleted with deleteSegmentsBefore
+     */
+    fun startNewSegment(): Long {
+        flush()
+        channel?.close()
+        channel = null
+
+        return ++segmentNumber
+    }
+
+    fun deleteSegmentsBefore(segment: Long) {
+        for (path in segments(directory)) {
+            if (segmentNumber(path)!! < segment) {
+                try {
+                    Files.deleteIfExists(path)
+                } catch (e: IOException) {
+                    logger.error(e) { "failed to delete journal segment $path" }
+                }
+            }
+        }
+    }
+
+    private fun openSegment(): FileChannel {
+        Files.createDirectories(directory)
+        val path = directory.resolve(SEGMENT_PREFIX + segmentNumber)
+        val opened = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                      StandardOpenOption.APPEND)
+        channel = opened
+
+        return opened
+    }
+
+    override fun close() {
+        flush()
+        channel?.close()
+        channel = null
+    }
+}
@@ -0,0 +1,389 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import java.io.Closeable
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * Compresses planes of block fields (one field, for every block of a chunk
+ * or region), for world saves and network block regions.
+ *
+ * block data is extremely repetitive: long runs of air and stone, and walls
+ * that are the same everywhere underground. so every plane is encoded on
+ * its own, as one of:
+ *
+ * uniform:      the single value of the whole plane
+ * palette runs: up to MAX_PALETTE_SIZE distinct values. every run is one byte,
+ *               palette index in the high nibble, run length in the low one.
+ *               longer runs spill over into a varint
+ * runs:         value and varint run length pairs, for planes with many
+ *               distinct values (e.g. light levels)
+ *
+ * optionally the encoded planes get deflated as a whole, which is worth it
+ * for saves but not for latency sensitive network sends.
+ *
+ * reuses its buffers between calls, so it is not thread safe. use one per thread.
+ */
+class ChunkCodec(deflate: Boolean) : Closeable {
+    companion object {
+        const val MODE_UNIFORM = 0
+        const val MODE_PALETTE_RUNS = 1
+        const val MODE_RUNS = 2
+
+        const val MAX_PALETTE_SIZE = 16
+
+        private const val PALETTE_RUN_MASK = 0xf
+
+        /**
+         * how many chunks a single fork join task encodes, before it
+         * bothers splitting up the work
+         */
+        private const val CHUNKS_PER_TASK = 8
+
+        /**
+         * encodes count chunks at once across the fork join pool, every task
+         * with its own codec.
+         *
+         * @param fill copies the planes of the chunk at the given index into raw
+         * @return every chunk's encoded bytes, in order
+         */
+        fun encodeParallel(count: Int,
+                           rawLength: Int,
+                           planeSize: Int,
+                           deflate: Boolean,
+                           fill: (index: Int, raw: ByteArray) -> Unit): Array<ByteArray> {
+            val encoded = arrayOfNulls<ByteArray>(count)
+            ForkJoinPool.commonPool().invoke(EncodeTask(0, count, rawLength, planeSize, deflate, fill, encoded))
+
+            @Suppress("UNCHECKED_CAST")
+            return encoded as Array<ByteArray>
+        }
+    }
+
+    private class EncodeTask(private val from: Int,
+                             private val to: Int,
+                             private val rawLength: Int,
+                             private val planeSize: Int,
+                             private val deflate: Boolean,
+                             private val fill: (Int, ByteArray) -> Unit,
+                             private val encoded: Array<ByteArray?>) : RecursiveAction() {
+        override fun compute() {
+            if (to - from > CHUNKS_PER_TASK) {
+                val middle = (from + to) ushr 1
+                ForkJoinTask.invokeAll(EncodeTask(from, middle, rawLength, planeSize, deflate, fill, encoded),
+                          EncodeTask(middle, to, rawLength, planeSize, deflate, fill, encoded))
+                return
+            }
+
+            ChunkCodec(deflate).use { codec ->
+                val raw = ByteArray(rawLength)
+                for (index in from until to) {
+                    fill(index, raw)
+                    val length = codec.encode(raw, rawLength, planeSize)
+                    encoded[index] = codec.output.copyOf(length)
+                }
+            }
+        }
+    }
+
+    private val deflater = if (deflate) Deflater(Deflater.BEST_SPEED) else null
+    private val inflater = if (deflate) Inflater() else null
+
+    /**
+     * planes after run length encoding, before deflate
+     */
+    private var packed = ByteArray(1024)
+    private var deflated = ByteArray(1024)
+
+    /**
+     * holds the result of the last encode
+     */
+    val output: ByteArray
+        get() = if (deflater != null) deflated else packed
+
+    private val paletteIndices = IntArray(256)
+    private val palette = ByteArray(MAX_PALETTE_SIZE)
+
+    //read state while decoding
+    private var source = packed
+    private var position = 0
+
+    /**
+     * @param raw rawLength bytes, made of consecutive planes of planeSize bytes
+     * @return length of the encoded data in output
+     */
+    fun encode(raw: ByteArray, rawLength: Int, planeSize: Int): Int {
+        var length = 0
+        var planeStart = 0
+        while (planeStart < rawLength) {
+            length = encodePlane(raw, planeStart, planeSize, length)
+            planeStart += planeSize
+        }
+
+        val deflater = deflater ?: return length
+
+        deflater.reset()
+        deflater.setInput(packed, 0, length)
+        deflater.finish()
+
+        var deflatedLength = 0
+        while (!deflater.finished()) {
+            if (deflatedLength == deflated.size) {
+                deflated = deflated.copyOf(deflated.size * 2)
+            }
+            deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.size - deflatedLength)
+        }
+
+        return deflatedLength
+    }
+
+    /**
+     * decodes length bytes of encoded (at offset) back into rawLength bytes of raw
+     */
+    fun decode(encoded: ByteArray, offset: Int, length: Int, raw: ByteArray, rawLength: Int, planeSize: Int) {
+        val end: Int
+        if (inflater != null) {
+            source = packed
+            position = 0
+            end = inflate(encoded, offset, length)
+        } else {
+            source = encoded
+            position = offset
+            end = offset + length
+        }
+
+        try {
+            var planeStart = 0
+            while (planeStart < rawLength) {
+                decodePlane(raw, planeStart, planeSize)
+                planeStart += planeSize
+            }
+        } catch (e: ArrayIndexOutOfBoundsException) {
+            throw IOException("encoded block data is corrupt", e)
+        }
+
+        if (position != end) {
+            throw IOException("encoded block data has ${end - position} bytes left over")
+        }
+    }
+
+    /**
+     * @return length of the inflated data, in packed
+     */
+    private fun inflate(encoded: ByteArray, offset: Int, length: Int): Int {
+        val inflater = inflater!!
+        inflater.reset()
+        inflater.setInput(encoded, offset, length)
+
+        var inflated = 0
+        try {
+            while (!inflater.finished()) {
+                if (inflated == packed.size) {
+                    packed = packed.copyOf(packed.size * 2)
+                }
+
+                val count = inflater.inflate(packed, inflated, packed.size - inflated)
+                if (count == 0 && inflater.needsInput()) {
+                    throw IOException("encoded block data is truncated")
+                }
+                inflated += count
+            }
+        } catch (e: DataFormatException) {
+            throw IOException("encoded block data is corrupt", e)
+        }
+
+        source = packed
+        return inflated
+    }
+
+    private fun encodePlane(raw: ByteArray, start: Int, size: Int, startPosition: Int): Int {
+        Arrays.fill(paletteIndices, -1)
+        var paletteSize = 0
+        for (i in start until start + size) {
+            val value = raw[i].toInt() and 0xff
+            if (paletteIndices[value] == -1) {
+                if (paletteSize == MAX_PALETTE_SIZE) {
+                    //too many values to be worth a palette
+                    ++paletteSize
+                    break
+                }
+
+                paletteIndices[value] = paletteSize
+                palette[paletteSize] = raw[i]
+                ++paletteSize
+            }
+        }
+
+        //worst case is a run per value, in runs mode: value byte and a 1 byte varint
+        ensurePackedCapacity(startPosition + 2 + MAX_PALETTE_SIZE + size * 2)
+
+        var pos = startPosition
+        val end = start + size
+        when {
+            paletteSize == 1 -> {
+                packed[pos++] = MODE_UNIFORM.toByte()
+                packed[pos++] = palette[0]
+            }
+
+            paletteSize <= MAX_PALETTE_SIZE -> {
+                packed[pos++] = MODE_PALETTE_RUNS.toByte()
+                packed[pos++] = (paletteSize - 1).toByte()
+                System.arraycopy(palette, 0, packed, pos, paletteSize)
+                pos += paletteSize
+
+                var i = start
+                while (i < end) {
+                    val run = runLength(raw, i, end)
+                    val index = paletteIndices[raw[i].toInt() and 0xff]
+                    val extra = run - 1
+
+                    packed[pos++] = ((index shl 4) or Math.min(extra, PALETTE_RUN_MASK)).toByte()
+                    if (extra >= PALETTE_RUN_MASK) {
+                        pos = writeVarint(extra - PALETTE_RUN_MASK, pos)
+                    }
+                    i += run
+                }
+            }
+
+            else -> {
+                packed[pos++] = MODE_RUNS.toByte()
+
+                var i = start
+                while (i < end) {
+                    val run = runLength(raw, i, end)
+                    packed[pos++] = raw[i]
+                    pos = writeVarint(run - 1, pos)
+                    i += run
+                }
+            }
+        }
+
+        return pos
+    }
+
+    private fun decodePlane(raw: ByteArray, start: Int, size: Int) {
+        val end = start + size
+        val mode = source[position++].toInt()
+        when (mode) {
+            MODE_UNIFORM -> Arrays.fill(raw, start, end, source[position++])
+
+            MODE_PALETTE_RUNS -> {
+                val paletteSize = (source[position++].toInt() and 0xff) + 1
+                if (paletteSize > MAX_PALETTE_SIZE) {
+                    throw IOException("encoded block data has a palette of $paletteSize entries")
+                }
+                System.arraycopy(source, position, palette, 0, paletteSize)
+                position += paletteSize
+
+                var i = start
+                while (i < end) {
+                    val header = source[position++].toInt() and 0xff
+                    var run = (header and PALETTE_RUN_MASK) + 1
+                    if ((header and PALETTE_RUN_MASK) == PALETTE_RUN_MASK) {
+                        run += readVarint()
+                    }
+
+                    i = fillRun(raw, i, end, run, palette[header ushr 4])
+                }
+            }
+
+            MODE_RUNS -> {
+                var i = start
+                while (i < end) {
+                    val value = source[position++]
+                    i = fillRun(raw, i, end, readVarint() + 1, value)
+                }
+            }
+
+            else -> throw IOException("encoded block data has unknown plane mode $mode")
+        }
+    }
+
+    private fun fillRun(raw: ByteArray, from: Int, end: Int, run: Int, value: Byte): Int {
+        if (run > end - from) {
+            throw IOException("encoded block data has a run past the end of its plane")
+        }
+
+        Arrays.fill(raw, from, from + run, value)
+        return from + run
+    }
+
+    private fun runLength(raw: ByteArray, from: Int, end: Int): Int {
+        val value = raw[from]
+        var i = from + 1
+        while (i < end && raw[i] == value) {
+            ++i
+        }
+
+        return i - from
+    }
+
+    private fun writeVarint(value: Int, startPosition: Int): Int {
+        var pos = startPosition
+        var remaining = value
+        while (remaining >= 0x80) {
+            packed[pos++] = ((remaining and 0x7f) or 0x80).toByte()
+            remaining = remaining ushr 7
+        }
+        packed[pos++] = remaining.toByte()
+
+        return pos
+    }
+
+    private fun readVarint(): Int {
+        var value = 0
+        var shift = 0
+        while (true) {
+            val b = source[position++].toInt()
+            value = value or ((b and 0x7f) shl shift)
+            if (b and 0x80 == 0) {
+                return value
+            }
+
+            shift += 7
+            if (shift > 28) {
+                throw IOException("encoded block data has a malformed run length")
+            }
+        }
+    }
+
+    private fun ensurePackedCapacity(capacity: Int) {
+        if (packed.size < capacity) {
+            packed = packed.copyOf(Math.max(capacity, packed.size * 2))
+        }
+    }
+
+    override fun close() {
+        deflater?.end()
+        inflater?.end()
+    }
+}
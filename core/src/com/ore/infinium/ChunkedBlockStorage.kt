@@ -0,0 +1,342 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import com.ore.infinium.util.AtomicBitSet
+
+/**
+ * Storage for every block field in the world, split up into square chunks
+ * of CHUNK_SIZE x CHUNK_SIZE blocks.
+ *
+ * Chunks only get allocated once something actually gets written to them,
+ * until then every chunk points at one shared (all zero, aka air) chunk.
+ * After e.g. world generation, [compact] collapses chunks that are made up
+ * of one single repeated block (all stone, all air, ...) back into a shared
+ * instance, which then gets copied again the first time it is written to.
+ *
+ * How the fields of a block are laid out within a chunk is decided by [layout].
+ * Every block has fields 0 until [fieldCount], servers leave out the client only
+ * ones at the end (see OreBlock.SERVER_BLOCK_BYTE_FIELD_COUNT).
+ *
+ * @see OreBlock.BLOCK_BYTE_FIELD_COUNT
+ */
+class ChunkedBlockStorage(val width: Int,
+                          val height: Int,
+                          val layout: Layout = Layout.Interleaved,
+                          val fieldCount: Int = OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+
+    /**
+     * byte layout of the block fields inside each chunk
+     */
+    enum class Layout {
+        /**
+         * all fields of a block next to each other, the same layout the old flat
+         * world array used: (localX * CHUNK_SIZE + localY) * fieldCount + field.
+         * best when most reads want several fields of the same block (rendering, saving)
+         */
+        Interleaved,
+
+        /**
+         * each field gets its own plane of CHUNK_AREA bytes:
+         * field * CHUNK_AREA + (localX * CHUNK_SIZE + localY).
+         * best for scans that only look at one field, like the liquid sim
+         * looking for water, or lighting reading light levels
+         */
+        Planar
+    }
+
+    companion object {
+        const val CHUNK_SHIFT = 6
+
+        /**
+         * width and height of a chunk, in blocks
+         */
+        const val CHUNK_SIZE = 1 shl CHUNK_SHIFT
+        const val CHUNK_MASK = CHUNK_SIZE - 1
+        const val CHUNK_AREA = CHUNK_SIZE * CHUNK_SIZE
+    }
+
+    val chunkBytes = CHUNK_AREA * fieldCount
+
+    /**
+     * what every chunk that has never been written to points at
+     */
+    private val airChunk = ByteArray(chunkBytes)
+
+    val chunkCountX = (width + CHUNK_MASK) shr CHUNK_SHIFT
+    val chunkCountY = (height + CHUNK_MASK) shr CHUNK_SHIFT
+    val chunkCount = chunkCountX * chunkCountY
+
+    private val blockStride = if (layout == Layout.Interleaved) fieldCount else 1
+    private val fieldStride = if (layout == Layout.Interleaved) 1 else CHUNK_AREA
+
+    private val chunks = Array(chunkCount) { airChunk }
+
+    /**
+     * true if the chunk at that index is a shared instance,
+     * and must be copied before it gets written to
+     */
+    private val sharedChunks = BooleanArray(chunkCount) { true }
+
+    /**
+     * shared chunks consisting of a single repeated block,
+     * keyed by that block's fields packed into a long
+     */
+    private val uniformChunks = HashMap<Long, ByteArray>()
+
+    /**
+     * chunks modified since they were last saved. set from whichever thread
+     * writes the block (world gen, the parallel liquid sim), so none may get lost
+     */
+    private val dirtyChunks = AtomicBitSet(chunkCount)
+
+    init {
+        uniformChunks.put(0L, airChunk)
+    }
+
+    fun chunkIndex(x: Int, y: Int) = (x shr CHUNK_SHIFT) * chunkCountY + (y shr CHUNK_SHIFT)
+
+    fun localIndex(x: Int, y: Int, field: Int) =
+            (((x and CHUNK_MASK) shl CHUNK_SHIFT) + (y and CHUNK_MASK)) * blockStride + field * fieldStride
+
+    operator fun get(x: Int, y: Int, field: Int): Byte {
+        return chunks[chunkIndex(x, y)][localIndex(x, y, field)]
+    }
+
+    operator fun set(x: Int, y: Int, field: Int, value: Byte) {
+        val chunkIndex = chunkIndex(x, y)
+        val index = localIndex(x, y, field)
+
+        if (chunks[chunkIndex][index] == value) {
+            //nothing to change, don't unshare or dirty it for nothing
+            return
+        }
+
+        unshare(chunkIndex)[index] = value
+        dirtyChunks.set(chunkIndex)
+    }
+
+    /**
+     * copies one field of every block in the chunk into dest, starting at
+     * destOffset, CHUNK_AREA bytes ordered localX * CHUNK_SIZE + localY
+     * (regardless of layout).
+     */
+    fun readChunkField(chunkIndex: Int, field: Int, dest: ByteArray, destOffset: Int) {
+        val chunk = chunks[chunkIndex]
+        if (layout == Layout.Planar) {
+            System.arraycopy(chunk, field * fieldStride, dest, destOffset, CHUNK_AREA)
+            return
+        }
+
+        for (block in 0 until CHUNK_AREA) {
+            dest[destOffset + block] = chunk[block * blockStride + field]
+        }
+    }
+
+    /**
+     * overwrites one field of every block in the chunk, with CHUNK_AREA bytes from src.
+     * same ordering as readChunkField
+     */
+    fun writeChunkField(chunkIndex: Int, field: Int, src: ByteArray, srcOffset: Int) {
+        val chunk = unshare(chunkIndex)
+        if (layout == Layout.Planar) {
+            System.arraycopy(src, srcOffset, chunk, field * fieldStride, CHUNK_AREA)
+            return
+        }
+
+        for (block in 0 until CHUNK_AREA) {
+            chunk[block * blockStride + field] = src[srcOffset + block]
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a over every field of every block, chunk by chunk. the same
+     * blocks hash the same regardless of layout or which chunks are shared.
+     * for comparing worlds (e.g. world gen determinism), not for saving
+     */
+    fun contentHash(): Long {
+        val plane = ByteArray(CHUNK_AREA)
+        var hash = -0x340d631b7bdddcdbL //offset basis
+        for (chunkIndex in 0 until chunkCount) {
+            for (field in 0 until fieldCount) {
+                readChunkField(chunkIndex, field, plane, 0)
+                for (value in plane) {
+                    hash = (hash xor (value.toLong() and 0xff)) * 0x100000001b3L
+                }
+            }
+        }
+
+        return hash
+    }
+
+    fun isChunkDirty(chunkIndex: Int) = dirtyChunks[chunkIndex]
+
+    /**
+     * @return index of the next dirty chunk at or after fromChunkIndex, or -1 if none
+     */
+    fun nextDirtyChunk(fromChunkIndex: Int) = dirtyChunks.nextSetBit(fromChunkIndex)
+
+    fun dirtyChunkCount() = dirtyChunks.cardinality()
+
+    fun markChunkDirty(chunkIndex: Int) {
+        dirtyChunks.set(chunkIndex)
+    }
+
+    fun clearChunkDirty(chunkIndex: Int) {
+        dirtyChunks.clear(chunkIndex)
+    }
+
+    fun clearAllDirty() {
+        dirtyChunks.clear()
+    }
+
+    private fun unshare(chunkIndex: Int): ByteArray {
+        if (sharedChunks[chunkIndex]) {
+            chunks[chunkIndex] = chunks[chunkIndex].copyOf()
+            sharedChunks[chunkIndex] = false
+        }
+
+        return chunks[chunkIndex]
+    }
+
+    /**
+     * gives every chunk its own memory. writing to a shared chunk is not
+     * thread safe (it gets copied on write), so this must be called before
+     * multiple threads start writing to the same storage, like world gen does.
+     */
+    fun unshareAll() {
+        unshareChunks(0, chunkCount)
+    }
+
+    /**
+     * like unshareAll, for the chunks fromChunkIndex until toChunkIndex. since chunks
+     * are indexed column by column, a range of them is a range of chunk columns
+     */
+    fun unshareChunks(fromChunkIndex: Int, toChunkIndex: Int) {
+        for (chunkIndex in fromChunkIndex until toChunkIndex) {
+            unshare(chunkIndex)
+        }
+    }
+
+    /**
+     * hands the chunks fromChunkIndex until toChunkIndex over to another storage of the
+     * same size, layout and field count (see putChunks), leaving air in their place.
+     * they're moved, not copied, so they must have their own memory (see unshareChunks).
+     */
+    fun takeChunks(fromChunkIndex: Int, toChunkIndex: Int): Array<ByteArray> {
+        return Array(toChunkIndex - fromChunkIndex) { i ->
+            val chunkIndex = fromChunkIndex + i
+            check(!sharedChunks[chunkIndex]) { "chunk $chunkIndex is shared, it can't be handed over" }
+
+            val chunk = chunks[chunkIndex]
+            chunks[chunkIndex] = airChunk
+            sharedChunks[chunkIndex] = true
+            chunk
+        }
+    }
+
+    /**
+     * puts chunks taken from another storage (see takeChunks) in place of the ones
+     * from fromChunkIndex on, and marks them dirty. call compact afterwards
+     */
+    fun putChunks(fromChunkIndex: Int, taken: Array<ByteArray>) {
+        for (i in taken.indices) {
+            chunks[fromChunkIndex + i] = taken[i]
+            sharedChunks[fromChunkIndex + i] = false
+            dirtyChunks.set(fromChunkIndex + i)
+        }
+    }
+
+    /**
+     * points the chunks fromChunkIndex until toChunkIndex back at shared air,
+     * throwing away whatever was in them
+     */
+    fun clearChunks(fromChunkIndex: Int, toChunkIndex: Int) {
+        for (chunkIndex in fromChunkIndex until toChunkIndex) {
+            chunks[chunkIndex] = airChunk
+            sharedChunks[chunkIndex] = true
+        }
+    }
+
+    fun isChunkShared(chunkIndex: Int) = sharedChunks[chunkIndex]
+
+    /**
+     * @return amount of chunks that have their own (non-shared) memory
+     */
+    fun allocatedChunkCount() = sharedChunks.count { !it }
+
+    /**
+     * replaces every chunk that consists of one single repeated block
+     * with a shared instance of it. should be called after large bulk
+     * modifications (world generation, loading), not every tick.
+     *
+     * @return number of chunks that were freed
+     */
+    fun compact(fromChunkIndex: Int = 0, toChunkIndex: Int = chunkCount): Int {
+        var freed = 0
+        for (chunkIndex in fromChunkIndex until toChunkIndex) {
+            if (sharedChunks[chunkIndex]) {
+                continue
+            }
+
+            val chunk = chunks[chunkIndex]
+            if (!isUniform(chunk)) {
+                continue
+            }
+
+            val key = packFirstBlock(chunk)
+            chunks[chunkIndex] = uniformChunks.getOrPut(key) { chunk }
+            sharedChunks[chunkIndex] = true
+            ++freed
+        }
+
+        return freed
+    }
+
+    private fun isUniform(chunk: ByteArray): Boolean {
+        for (field in 0 until fieldCount) {
+            val first = chunk[field * fieldStride]
+            for (block in 1 until CHUNK_AREA) {
+                if (chunk[block * blockStride + field * fieldStride] != first) {
+                    return false
+                }
+            }
+        }
+
+        return true
+    }
+
+    /**
+     * packs the fields of the first block in the chunk into a long
+     */
+    private fun packFirstBlock(chunk: ByteArray): Long {
+        var packed = 0L
+        for (field in 0 until fieldCount) {
+            packed = (packed shl 8) or (chunk[field * fieldStride].toLong() and 0xff)
+        }
+
+        return packed
+    }
+}
@@ -0,0 +1,347 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import com.artemis.ComponentMapper
+import com.ore.infinium.components.*
+import com.ore.infinium.util.forEach
+import com.ore.infinium.util.ifPresent
+import com.ore.infinium.util.isValidEntity
+import java.util.*
+
+/**
+ * Converts world entities to and from their PbEntity messages, grouped
+ * into one PbEntityBatch per block chunk, so they are saved and loaded
+ * along with the chunk they are in.
+ *
+ * every persisted component is mapped field by field, so nothing
+ * reflective (and nothing transient) ends up in the save.
+ *
+ * only entities that live in the world are persisted: placed and dropped
+ * items, trees and so on. players and whatever sits in their inventories
+ * are not.
+ */
+class EntityPersistence(private val oreWorld: OreWorld) {
+    private lateinit var mPlayer: ComponentMapper<PlayerComponent>
+    private lateinit var mSprite: ComponentMapper<SpriteComponent>
+    private lateinit var mItem: ComponentMapper<ItemComponent>
+    private lateinit var mBlock: ComponentMapper<BlockComponent>
+    private lateinit var mDoor: ComponentMapper<DoorComponent>
+    private lateinit var mLight: ComponentMapper<LightComponent>
+    private lateinit var mPowerDevice: ComponentMapper<PowerDeviceComponent>
+    private lateinit var mPowerConsumer: ComponentMapper<PowerConsumerComponent>
+    private lateinit var mPowerGenerator: ComponentMapper<PowerGeneratorComponent>
+    private lateinit var mTool: ComponentMapper<ToolComponent>
+    private lateinit var mFlora: ComponentMapper<FloraComponent>
+    private lateinit var mHealth: ComponentMapper<HealthComponent>
+    private lateinit var mVelocity: ComponentMapper<VelocityComponent>
+
+    private val artemisWorld = oreWorld.artemisWorld
+
+    init {
+        artemisWorld.inject(this, true)
+    }
+
+    /**
+     * serializes every persisted entity, one batch per chunk that has any.
+     * game thread only.
+     *
+     * @return serialized PbEntityBatch, by chunk index
+     */
+    fun serializeEntityBatches(): Map<Int, ByteArray> {
+        val entitiesByChunk = HashMap<Int, MutableList<PbEntity>>()
+
+        oreWorld.getEntitiesWithComponent<ItemComponent>().forEach { entity ->
+            if (!isPersisted(entity)) {
+                return@forEach
+            }
+
+            val chunkIndex = chunkIndexOf(entity)
+            entitiesByChunk.getOrPut(chunkIndex) { mutableListOf() }.add(writeEntity(entity))
+        }
+
+        val batches = HashMap<Int, ByteArray>(entitiesByChunk.size)
+        for ((chunkIndex, entities) in entitiesByChunk) {
+            batches[chunkIndex] = PbEntityBatch.newBuilder()
+                    .setChunkIndex(chunkIndex)
+                    .addAllEntities(entities)
+                    .build()
+                    .toByteArray()
+        }
+
+        return batches
+    }
+
+    /**
+     * creates every entity of a serialized batch. game thread only
+     * (or while the game thread is waiting on the world to load).
+     *
+     * @return number of entities created
+     */
+    fun loadEntityBatch(data: ByteArray): Int {
+        val batch = PbEntityBatch.parseFrom(data)
+        for (pbEntity in batch.entitiesList) {
+            readEntity(pbEntity)
+        }
+
+        return batch.entitiesCount
+    }
+
+    private fun isPersisted(entity: Int): Boolean {
+        if (mPlayer.has(entity) || !mSprite.has(entity)) {
+            return false
+        }
+
+        return mItem.get(entity).state != ItemComponent.State.InInventoryState
+    }
+
+    private fun chunkIndexOf(entity: Int): Int {
+        val sprite = mSprite.get(entity).sprite
+        val x = sprite.x.toInt().coerceIn(0, oreWorld.worldSize.width - 1)
+        val y = sprite.y.toInt().coerceIn(0, oreWorld.worldSize.height - 1)
+
+        return oreWorld.blocks.chunkIndex(x, y)
+    }
+
+    private fun writeEntity(entity: Int): PbEntity {
+        val components = PbEntityComponents.newBuilder()
+
+        mSprite.ifPresent(entity) {
+            components.sprite = PbSpriteComponent.newBuilder()
+                    .setX(it.sprite.x)
+                    .setY(it.sprite.y)
+                    .setWidth(it.sprite.width)
+                    .setHeight(it.sprite.height)
+                    .setTextureName(it.textureName ?: "")
+                    .setCategory(it.category.ordinal)
+                    .setVisible(it.visible)
+                    .setNoClip(it.noClip)
+                    .build()
+        }
+
+        mItem.ifPresent(entity) {
+            var hints = 0
+            for (hint in it.placementAdjacencyHints) {
+                hints = hints or (1 shl hint.ordinal)
+            }
+
+            components.item = PbItemComponent.newBuilder()
+                    .setStackSize(it.stackSize)
+                    .setMaxStackSize(it.maxStackSize)
+                    .setName(it.name)
+                    .setState(it.state.ordinal)
+                    .setInventoryIndex(it.inventoryIndex)
+                    .setSizeBeforeDropX(it.sizeBeforeDrop.x)
+                    .setSizeBeforeDropY(it.sizeBeforeDrop.y)
+                    .setPlacementAdjacencyHints(hints)
+                    .build()
+        }
+
+        mBlock.ifPresent(entity) {
+            components.block = PbBlockComponent.newBuilder().setBlockType(it.blockType.toInt()).build()
+        }
+
+        mDoor.ifPresent(entity) {
+            components.door = PbDoorComponent.newBuilder().setState(it.state.ordinal).build()
+        }
+
+        mLight.ifPresent(entity) {
+            components.light = PbLightComponent.newBuilder().setRadius(it.radius).build()
+        }
+
+        mPowerDevice.ifPresent(entity) {
+            components.powerDevice = PbPowerDeviceComponent.newBuilder().setRunning(it.running).build()
+        }
+
+        mPowerConsumer.ifPresent(entity) {
+            components.powerConsumer = PbPowerConsumerComponent.newBuilder()
+                    .setPowerDemandRate(it.powerDemandRate)
+                    .build()
+        }
+
+        mPowerGenerator.ifPresent(entity) {
+            val generator = PbPowerGeneratorComponent.newBuilder()
+                    .setSupplyRateEU(it.supplyRateEU)
+                    .setType(it.type.ordinal)
+
+            it.fuelSources?.let { fuelSources ->
+                generator.fuelSourceHealth = fuelSources.fuelSourceHealth
+                for (slot in fuelSources.slots) {
+                    if (isValidEntity(slot.entityId)) {
+                        generator.addFuelSources(writeEntity(slot.entityId))
+                    }
+                }
+            }
+
+            components.powerGenerator = generator.build()
+        }
+
+        mTool.ifPresent(entity) {
+            components.tool = PbToolComponent.newBuilder()
+                    .setType(it.type.ordinal)
+                    .setMaterial(it.material.ordinal)
+                    .setAttackRadius(it.attackRadius)
+                    .setExplosiveRadius(it.explosiveRadius)
+                    .setExplosiveTime(it.explosiveTime)
+                    .setExplosiveArmed(it.explosiveArmed)
+                    .setAttackIntervalMs(it.attackIntervalMs)
+                    .setBlockDamage(it.blockDamage)
+                    .build()
+        }
+
+        mFlora.ifPresent(entity) {
+            components.flora = PbFloraComponent.newBuilder()
+                    .setNumberOfDropsWhenDestroyed(it.numberOfDropsWhenDestroyed)
+                    .setStackSizePerDrop(it.stackSizePerDrop)
+                    .build()
+        }
+
+        mHealth.ifPresent(entity) {
+            components.health = PbHealthComponent.newBuilder()
+                    .setMaxHealth(it.maxHealth)
+                    .setHealth(it.health)
+                    .build()
+        }
+
+        mVelocity.ifPresent(entity) {
+            components.velocity = PbVelocityComponent.newBuilder()
+                    .setX(it.velocity.x)
+                    .setY(it.velocity.y)
+                    .build()
+        }
+
+        return PbEntity.newBuilder()
+                .setEntityId(entity)
+                .setComponents(components)
+                .build()
+    }
+
+    private fun readEntity(pbEntity: PbEntity): Int {
+        val entity = artemisWorld.create()
+        val components = pbEntity.components
+
+        if (components.hasSprite()) {
+            val pb = components.sprite
+            mSprite.create(entity).apply {
+                sprite.setSize(pb.width, pb.height)
+                sprite.setPosition(pb.x, pb.y)
+                textureName = if (pb.textureName.isEmpty()) null else pb.textureName
+                category = SpriteComponent.EntityCategory.values()[pb.category]
+                visible = pb.visible
+                noClip = pb.noClip
+            }
+        }
+
+        if (components.hasItem()) {
+            val pb = components.item
+            mItem.create(entity).apply {
+                stackSize = pb.stackSize
+                maxStackSize = pb.maxStackSize
+                name = pb.name
+                state = ItemComponent.State.values()[pb.state]
+                inventoryIndex = pb.inventoryIndex
+                sizeBeforeDrop.set(pb.sizeBeforeDropX, pb.sizeBeforeDropY)
+
+                for (hint in ItemComponent.PlacementAdjacencyHints.values()) {
+                    if (pb.placementAdjacencyHints and (1 shl hint.ordinal) != 0) {
+                        placementAdjacencyHints.add(hint)
+                    }
+                }
+            }
+        }
+
+        if (components.hasBlock()) {
+            mBlock.create(entity).blockType = components.block.blockType.toByte()
+        }
+
+        if (components.hasDoor()) {
+            mDoor.create(entity).state = DoorComponent.DoorState.values()[components.door.state]
+        }
+
+        if (components.hasLight()) {
+            mLight.create(entity).radius = components.light.radius
+        }
+
+        if (components.hasPowerDevice()) {
+            mPowerDevice.create(entity).running = components.powerDevice.running
+        }
+
+        if (components.hasPowerConsumer()) {
+            mPowerConsumer.create(entity).powerDemandRate = components.powerConsumer.powerDemandRate
+        }
+
+        if (components.hasPowerGenerator()) {
+            val pb = components.powerGenerator
+            mPowerGenerator.create(entity).apply {
+                supplyRateEU = pb.supplyRateEU
+                type = PowerGeneratorComponent.GeneratorType.values()[pb.type]
+
+                val inventory = GeneratorInventory(GeneratorInventory.MAX_SLOTS, artemisWorld)
+                artemisWorld.inject(inventory, true)
+                inventory.fuelSourceHealth = pb.fuelSourceHealth
+
+                for (pbFuelSource in pb.fuelSourcesList) {
+                    val fuelSource = readEntity(pbFuelSource)
+                    inventory.setSlot(pbFuelSource.components.item.inventoryIndex, fuelSource)
+                }
+
+                fuelSources = inventory
+            }
+        }
+
+        if (components.hasTool()) {
+            val pb = components.tool
+            mTool.create(entity).apply {
+                type = ToolComponent.ToolType.values()[pb.type]
+                material = ToolComponent.ToolMaterial.values()[pb.material]
+                attackRadius = pb.attackRadius
+                explosiveRadius = pb.explosiveRadius
+                explosiveTime = pb.explosiveTime
+                explosiveArmed = pb.explosiveArmed
+                attackIntervalMs = pb.attackIntervalMs
+                blockDamage = pb.blockDamage
+            }
+        }
+
+        if (components.hasFlora()) {
+            mFlora.create(entity).apply {
+                numberOfDropsWhenDestroyed = components.flora.numberOfDropsWhenDestroyed
+                stackSizePerDrop = components.flora.stackSizePerDrop
+            }
+        }
+
+        if (components.hasHealth()) {
+            mHealth.create(entity).apply {
+                maxHealth = components.health.maxHealth
+                health = components.health.health
+            }
+        }
+
+        if (components.hasVelocity()) {
+            mVelocity.create(entity).velocity.set(components.velocity.x, components.velocity.y)
+        }
+
+        return entity
+    }
+}
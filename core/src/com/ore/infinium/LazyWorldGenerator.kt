@@ -0,0 +1,282 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import com.artemis.World
+import com.artemis.WorldConfigurationBuilder
+import com.ore.infinium.systems.server.LiquidSimulationSystem
+import mu.KLogging
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+
+/**
+ * generates the world as it gets explored, instead of all of it at startup.
+ *
+ * the world is split in vertical strips of STRIP_CHUNKS chunk columns, each
+ * generated on its own, the first time anything needs a column of it. players
+ * ask for the strips around them ahead of time (requestStrips), those get
+ * generated on a background thread, into a scratch world, and then moved into
+ * the world by the game thread (installGeneratedStrips). only what can't go on
+ * without the blocks (spawning, loading) waits for them (ensureGenerated).
+ *
+ * a strip only depends on the seed, the world size and its own position, the
+ * scratch world is all air again before each one. so the result is exactly the
+ * same no matter in which order the strips get visited (but not the same as
+ * generating the whole world eagerly, which looks for feature spots on the whole
+ * surface at once).
+ *
+ * where two strips meet is another matter. the terrain, walls, caves and ores are
+ * a pure function of the block position, those always line up. for lakes and
+ * volcanoes, the scratch world gets FEATURE_MARGIN columns on either side of the
+ * strip as well, so one reaching into the strip gets filled and settled by both
+ * strips it's in, each keeping its own columns of it. that's only best effort:
+ * the peak detection that finds the spots carries state along the surface from
+ * wherever it started walking, and features closer than twice their reach get
+ * filled one after the other, each settling against the ones before. both can
+ * chain further than any margin. if the two strips disagree about a feature,
+ * its two halves don't match up, e.g. a lake's water level steps at the seam.
+ *
+ * server only. the public methods are synchronized, loading runs on its own thread.
+ */
+class LazyWorldGenerator(private val world: OreWorld,
+                         private val pool: ForkJoinPool = ForkJoinPool.commonPool()) {
+    companion object : KLogging() {
+        /**
+         * chunk columns per strip
+         */
+        const val STRIP_CHUNKS = 16
+        const val STRIP_WIDTH = STRIP_CHUNKS * ChunkedBlockStorage.CHUNK_SIZE
+
+        /**
+         * columns generated on either side of a strip, along with it. every feature reaching
+         * into the strip has to be found, along with whatever it settles against (so twice
+         * the reach), rounded up to whole worldgen tiles
+         */
+        const val FEATURE_MARGIN = (2 * WorldGenerator.FEATURE_REACH + WorldGenerator.WORLDGEN_TILE_SIZE - 1) /
+                WorldGenerator.WORLDGEN_TILE_SIZE * WorldGenerator.WORLDGEN_TILE_SIZE
+    }
+
+    private val blocks = world.blocks
+
+    val stripCount = (world.worldSize.width + STRIP_WIDTH - 1) / STRIP_WIDTH
+
+    private val generatedStrips = BitSet(stripCount)
+
+    /**
+     * strips that are being generated, or are done and wait to be installed
+     */
+    private val pendingStrips = HashMap<Int, Future<Array<ByteArray>>>()
+
+    private val stripListeners = mutableListOf<(fromX: Int, toX: Int) -> Unit>()
+
+    /**
+     * a single thread, strips share the scratch world so they're generated one after
+     * the other. each one still spreads its passes over pool
+     */
+    private val executor: ExecutorService by lazy {
+        Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "world strip gen").apply { isDaemon = true }
+        }
+    }
+
+    /**
+     * where strips get generated, only ever touched by the executor.
+     *
+     * its artemis world only has the liquid simulation, for WorldGenerator to settle
+     * lakes with (processLiquidRange), and is never processed. the liquid simulation's
+     * player mapper and network system are delegates, only looked up when they're first
+     * used, which is when processing sends changes to players. it never gets there
+     */
+    private val scratchWorld by lazy {
+        OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                 worldSize = world.worldSize, blockLayout = blocks.layout).apply {
+            //lakes get settled by the liquid sim
+            artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(this)).build())
+        }
+    }
+
+    private val generator by lazy { WorldGenerator(scratchWorld) }
+
+    /**
+     * compiled on first use, the seed is only known once a save was (or wasn't) loaded
+     */
+    private val program by lazy { generator.compileNoise(world.worldSize, world.worldSeed) }
+
+    fun stripOf(x: Int) = x / STRIP_WIDTH
+
+    fun stripOfChunk(chunkIndex: Int) = chunkIndex / blocks.chunkCountY / STRIP_CHUNKS
+
+    @Synchronized
+    fun isStripGenerated(strip: Int) = generatedStrips[strip]
+
+    /**
+     * whether the chunk holds generated blocks, as opposed to placeholder air
+     */
+    @Synchronized
+    fun isChunkGenerated(chunkIndex: Int) = generatedStrips[stripOfChunk(chunkIndex)]
+
+    /**
+     * whether every strip overlapping the block columns left..right (inclusive) is generated.
+     * clamped to the world
+     */
+    @Synchronized
+    fun isGenerated(left: Int, right: Int) = stripsOverlapping(left, right).all { generatedStrips[it] }
+
+    /**
+     * the strip got its blocks from somewhere else (a save), never generate it
+     */
+    @Synchronized
+    fun markStripGenerated(strip: Int) {
+        generatedStrips.set(strip)
+    }
+
+    /**
+     * gets called with the block columns fromX until toX of every strip, right after its
+     * blocks got into the world, on the thread that put them there
+     */
+    fun addStripListener(listener: (fromX: Int, toX: Int) -> Unit) {
+        stripListeners.add(listener)
+    }
+
+    /**
+     * starts generating every strip overlapping the block columns left..right (inclusive)
+     * in the background, that isn't already. they get into the world with the next
+     * installGeneratedStrips. clamped to the world
+     */
+    @Synchronized
+    fun requestStrips(left: Int, right: Int) {
+        for (strip in stripsOverlapping(left, right)) {
+            if (!generatedStrips[strip] && strip !in pendingStrips) {
+                pendingStrips[strip] = executor.submit(Callable { generateInScratch(strip) })
+            }
+        }
+    }
+
+    /**
+     * puts every strip that's done generating into the world. for the game thread, every tick
+     */
+    @Synchronized
+    fun installGeneratedStrips() {
+        val done = pendingStrips.filterValues { it.isDone }.keys.sorted()
+        for (strip in done) {
+            install(strip, pendingStrips.remove(strip)!!.get())
+        }
+    }
+
+    /**
+     * generates every strip overlapping the block columns left..right (inclusive),
+     * that isn't already, and waits for them. clamped to the world
+     */
+    @Synchronized
+    fun ensureGenerated(left: Int, right: Int) {
+        requestStrips(left, right)
+
+        for (strip in stripsOverlapping(left, right)) {
+            pendingStrips.remove(strip)?.let { install(strip, it.get()) }
+        }
+    }
+
+    @Synchronized
+    fun generateStrip(strip: Int) {
+        val fromX = strip * STRIP_WIDTH
+        ensureGenerated(fromX, fromX)
+    }
+
+    private fun stripsOverlapping(left: Int, right: Int) =
+            stripOf(left.coerceIn(0, world.worldSize.width - 1))..stripOf(right.coerceIn(0, world.worldSize.width - 1))
+
+    private fun stripEndX(fromX: Int) = Math.min(fromX + STRIP_WIDTH, world.worldSize.width)
+
+    /**
+     * index of the first chunk of the chunk column block column x is in
+     */
+    private fun firstChunk(x: Int) = (x shr ChunkedBlockStorage.CHUNK_SHIFT) * blocks.chunkCountY
+
+    /**
+     * index of the first chunk after the chunk column block column toX - 1 is in
+     */
+    private fun endChunk(toX: Int) =
+            ((toX + ChunkedBlockStorage.CHUNK_MASK) shr ChunkedBlockStorage.CHUNK_SHIFT) * blocks.chunkCountY
+
+    /**
+     * runs on the executor.
+     *
+     * @return the chunks of the strip, ready to be installed
+     */
+    private fun generateInScratch(strip: Int): Array<ByteArray> {
+        val fromX = strip * STRIP_WIDTH
+        val toX = stripEndX(fromX)
+        val marginFromX = Math.max(fromX - FEATURE_MARGIN, 0)
+        val marginToX = Math.min(toX + FEATURE_MARGIN, world.worldSize.width)
+
+        val start = System.nanoTime()
+
+        val scratchBlocks = scratchWorld.blocks
+        //tiles are chunk aligned, but chunks still can't be copied on write from multiple threads
+        scratchBlocks.unshareChunks(firstChunk(marginFromX), endChunk(marginToX))
+
+        val fromTileX = marginFromX / WorldGenerator.WORLDGEN_TILE_SIZE
+        val toTileX = (marginToX + WorldGenerator.WORLDGEN_TILE_SIZE - 1) / WorldGenerator.WORLDGEN_TILE_SIZE
+        generator.generateBlockTypes(world.worldSize, program, fromTileX, toTileX, pool)
+        generator.generateWallTypes(marginFromX, marginToX, pool)
+        generator.generateFeatures(marginFromX, marginToX, pool)
+
+        val chunks = scratchBlocks.takeChunks(firstChunk(fromX), endChunk(toX))
+        //the margins were only there for the features, the strips next to it generate their own
+        scratchBlocks.clearChunks(firstChunk(marginFromX), endChunk(marginToX))
+
+        logger.debug {
+            "generated world strip $strip (columns $fromX until $toX) in ${(System.nanoTime() - start) / 1000000} ms"
+        }
+
+        return chunks
+    }
+
+    private fun install(strip: Int, chunks: Array<ByteArray>) {
+        val fromX = strip * STRIP_WIDTH
+        val toX = stripEndX(fromX)
+
+        //generated blocks aren't changes, the save picks them up as dirty chunks instead.
+        //that goes for the lighting around them that the listeners redo as well
+        val journal = world.blockJournal
+        world.blockJournal = null
+        try {
+            //including the ones left all air, so the next (auto)save stores the whole strip
+            blocks.putChunks(firstChunk(fromX), chunks)
+            world.skyHeightmap?.rebuild(fromX, toX - 1)
+            blocks.compact(firstChunk(fromX), endChunk(toX))
+
+            generatedStrips.set(strip)
+
+            stripListeners.forEach { it(fromX, toX) }
+        } finally {
+            world.blockJournal = journal
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import com.ore.infinium.util.IntRingQueue
+
+/**
+ * spreads tile light levels outward, breadth first, from tiles queued as sources.
+ * each tile light passes into takes away its block type's light attenuation
+ * (see [OreBlock.lightAttenuation]), and a tile is only ever raised, never darkened.
+ * a tile that gets brighter is queued again, so the result is the same however
+ * the sources were queued.
+ *
+ * iterative, so there is no depth limit, and the queue is reused between
+ * updates, so propagating doesn't allocate (once the queue has grown to fit).
+ * not thread safe.
+ *
+ * @param field the light channel it works on, the block field of either
+ * the block light or the sunlight levels
+ * @param openAirAttenuation what light loses passing into open air (no block, no
+ * wall). at least 1 for lights, so they only reach as far as their level. the sky
+ * is everywhere at once, sunlight doesn't fade crossing open air
+ */
+class LightPropagator(private val oreWorld: OreWorld,
+                      private val field: Int = OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL,
+                      private val openAirAttenuation: Int = 1) {
+    companion object {
+        /**
+         * queued tiles are packed into one int, x in the high bits and y in the low ones.
+         * worlds are far below 65536 tiles in either direction
+         */
+        private const val PACKED_Y_BITS = 16
+        private const val PACKED_Y_MASK = (1 shl PACKED_Y_BITS) - 1
+
+        private fun pack(x: Int, y: Int) = (x shl PACKED_Y_BITS) or y
+    }
+
+    private val queue = IntRingQueue(4096)
+
+    //tiles being darkened by removeLight, and the light level each had before that
+    private val darkenQueue = IntRingQueue(4096)
+    private val darkenLevels = IntRingQueue(4096)
+
+    /**
+     * bounds (inclusive) of every tile darkened or brightened since the last
+     * [resetChangedBounds]. left is greater than right if there weren't any
+     */
+    var changedLeft = Int.MAX_VALUE
+        private set
+    var changedRight = Int.MIN_VALUE
+        private set
+    var changedTop = Int.MAX_VALUE
+        private set
+    var changedBottom = Int.MIN_VALUE
+        private set
+
+    //light doesn't go outside of these (inclusive), see limitTo
+    private var boundsLeft = 0
+    private var boundsRight = oreWorld.worldSize.width - 1
+    private var boundsTop = 0
+    private var boundsBottom = oreWorld.worldSize.height - 1
+
+    fun hasChanged() = changedLeft <= changedRight
+
+    /**
+     * keeps light from spreading past left..right, top..bottom (inclusive), for
+     * when only part of the world is known, like on a client. the whole world by default
+     */
+    fun limitTo(left: Int, right: Int, top: Int, bottom: Int) {
+        boundsLeft = left.coerceAtLeast(0)
+        boundsRight = right.coerceAtMost(oreWorld.worldSize.width - 1)
+        boundsTop = top.coerceAtLeast(0)
+        boundsBottom = bottom.coerceAtMost(oreWorld.worldSize.height - 1)
+    }
+
+    fun resetChangedBounds() {
+        changedLeft = Int.MAX_VALUE
+        changedRight = Int.MIN_VALUE
+        changedTop = Int.MAX_VALUE
+        changedBottom = Int.MIN_VALUE
+    }
+
+    /**
+     * how many light levels light loses when it passes into this tile
+     */
+    fun attenuation(x: Int, y: Int): Int {
+        val attenuation = OreBlock.lightAttenuation(oreWorld.blockType(x, y)).toInt()
+        if (attenuation != 0) {
+            return attenuation
+        }
+
+        if (oreWorld.blockWallType(x, y) != OreBlock.WallType.Air.oreValue) {
+            //dug-out underground bleeds off, but not as quickly as a solid block
+            return 1
+        }
+
+        return openAirAttenuation
+    }
+
+    /**
+     * queues a tile, whose light level is already set, to spread light from
+     */
+    fun addSource(x: Int, y: Int) {
+        queue.add(pack(x, y))
+    }
+
+    /**
+     * a light source of lightLevel at x, y. raises that tile, and the 4 tiles
+     * around it, to at least lightLevel, and queues them to spread it further
+     */
+    fun addLight(x: Int, y: Int, lightLevel: Int) {
+        if (isInBounds(x, y) && lightLevel > levelAt(x, y)) {
+            setLevelAt(x, y, lightLevel.toByte())
+            expandChangedBounds(x, y)
+        }
+
+        addAround(x, y, lightLevel)
+    }
+
+    /**
+     * raises the 4 tiles around x, y to at least lightLevel (without attenuation,
+     * they're right next to the light) and queues them to spread it further
+     */
+    fun addAround(x: Int, y: Int, lightLevel: Int) {
+        raise(x - 1, y, lightLevel)
+        raise(x + 1, y, lightLevel)
+        raise(x, y - 1, lightLevel)
+        raise(x, y + 1, lightLevel)
+    }
+
+    /**
+     * the sky, lighting up every tile of the columns left..right that is above
+     * sunlitHeight(x), within top..bottom, to lightLevel. only the ones on the
+     * edge of that get queued to spread it into what's around them, the others
+     * only have tiles just as bright next to them
+     */
+    fun addSky(left: Int, right: Int, top: Int, bottom: Int, lightLevel: Int, sunlitHeight: (x: Int) -> Int) {
+        for (x in left..right) {
+            val columnSunlitHeight = sunlitHeight(x)
+            val columnBottom = minOf(columnSunlitHeight - 1, bottom)
+            if (columnBottom < top) {
+                continue
+            }
+
+            for (y in top..columnBottom) {
+                setLevelAt(x, y, lightLevel.toByte())
+            }
+
+            //down from where a column next to it stops being sunlit, plus the bottom one
+            val leftHeight = if (x > boundsLeft) sunlitHeight(x - 1) else columnSunlitHeight
+            val rightHeight = if (x < boundsRight) sunlitHeight(x + 1) else columnSunlitHeight
+            val edgeTop = minOf(leftHeight, rightHeight, columnBottom).coerceAtLeast(top)
+            for (y in edgeTop..columnBottom) {
+                addAround(x, y, lightLevel)
+            }
+        }
+    }
+
+    /**
+     * spreads light from everything queued, until nothing gets any brighter
+     */
+    fun propagate() {
+        while (queue.isNotEmpty()) {
+            val packed = queue.remove()
+            val x = packed ushr PACKED_Y_BITS
+            val y = packed and PACKED_Y_MASK
+
+            val lightLevel = levelAt(x, y)
+            if (lightLevel <= 0) {
+                continue
+            }
+
+            spreadTo(x - 1, y, lightLevel)
+            spreadTo(x + 1, y, lightLevel)
+            spreadTo(x, y - 1, lightLevel)
+            spreadTo(x, y + 1, lightLevel)
+        }
+    }
+
+    /**
+     * takes the light of a light source at x, y back out. walking outward from it,
+     * every tile exactly as bright as light coming from there would have made it
+     * (or dimmer) goes dark, as it may have been lit by it. tiles that are brighter
+     * than that have light of their own, they get queued to light the darkened area
+     * back up, by the next [propagate].
+     *
+     * other light sources inside the darkened area (see [changedLeft] etc.) have
+     * to be added again before that, they might have been darkened as well.
+     */
+    fun removeLight(x: Int, y: Int) {
+        if (!isInBounds(x, y)) {
+            return
+        }
+
+        val lightLevel = levelAt(x, y)
+        if (lightLevel == 0) {
+            return
+        }
+
+        darken(x, y)
+
+        //the tiles right next to the light got all of it, without attenuation
+        darkenIfLitFrom(x - 1, y, lightLevel)
+        darkenIfLitFrom(x + 1, y, lightLevel)
+        darkenIfLitFrom(x, y - 1, lightLevel)
+        darkenIfLitFrom(x, y + 1, lightLevel)
+
+        while (darkenQueue.isNotEmpty()) {
+            val packed = darkenQueue.remove()
+            val darkenedX = packed ushr PACKED_Y_BITS
+            val darkenedY = packed and PACKED_Y_MASK
+            val previousLightLevel = darkenLevels.remove()
+
+            darkenIfLitFrom(darkenedX - 1, darkenedY, previousLightLevel, attenuate = true)
+            darkenIfLitFrom(darkenedX + 1, darkenedY, previousLightLevel, attenuate = true)
+            darkenIfLitFrom(darkenedX, darkenedY - 1, previousLightLevel, attenuate = true)
+            darkenIfLitFrom(darkenedX, darkenedY + 1, previousLightLevel, attenuate = true)
+        }
+    }
+
+    private fun darkenIfLitFrom(x: Int, y: Int, fromLightLevel: Int, attenuate: Boolean = false) {
+        if (!isInBounds(x, y)) {
+            return
+        }
+
+        val lightLevel = levelAt(x, y)
+        if (lightLevel == 0) {
+            return
+        }
+
+        val lightFromThere = if (attenuate) fromLightLevel - attenuation(x, y) else fromLightLevel
+        if (lightLevel <= lightFromThere) {
+            darken(x, y)
+            darkenQueue.add(pack(x, y))
+            darkenLevels.add(lightLevel)
+        } else {
+            //lit by something else, that will light the darkened tiles back up
+            queue.add(pack(x, y))
+        }
+    }
+
+    private fun darken(x: Int, y: Int) {
+        setLevelAt(x, y, 0)
+        expandChangedBounds(x, y)
+    }
+
+    private fun expandChangedBounds(x: Int, y: Int) {
+        changedLeft = minOf(changedLeft, x)
+        changedRight = maxOf(changedRight, x)
+        changedTop = minOf(changedTop, y)
+        changedBottom = maxOf(changedBottom, y)
+    }
+
+    private fun levelAt(x: Int, y: Int) = oreWorld.blocks[x, y, field].toInt()
+
+    private fun setLevelAt(x: Int, y: Int, lightLevel: Byte) {
+        oreWorld.blocks[x, y, field] = lightLevel
+    }
+
+    private fun isInBounds(x: Int, y: Int) = x >= boundsLeft && y >= boundsTop && x <= boundsRight && y <= boundsBottom
+
+    private fun spreadTo(x: Int, y: Int, fromLightLevel: Int) {
+        if (isInBounds(x, y)) {
+            raise(x, y, fromLightLevel - attenuation(x, y))
+        }
+    }
+
+    private fun raise(x: Int, y: Int, lightLevel: Int) {
+        if (!isInBounds(x, y)) {
+            return
+        }
+
+        //don't overwrite previous light values that were greater
+        if (lightLevel <= levelAt(x, y)) {
+            return
+        }
+
+        setLevelAt(x, y, lightLevel.toByte())
+        expandChangedBounds(x, y)
+        queue.add(pack(x, y))
+    }
+}
@@ -31,6 +31,7 @@ import com.badlogic.gdx.utils.IntArray
 import com.esotericsoftware.kryo.Kryo
 import com.esotericsoftware.kryonet.EndPoint
 import com.ore.infinium.components.*
+import com.ore.infinium.util.BlockRegionSerializer
 import com.ore.infinium.util.EnumSetSerializer
 import com.ore.infinium.util.INVALID_ENTITY_ID
 import com.ore.infinium.util.registerClass
@@ -43,8 +44,14 @@ object Network {
 
     // This registers objects that are going to be sent over the network.
     fun register(endPoint: EndPoint) {
-        val kryo = endPoint.kryo
+        register(endPoint.kryo)
+    }
 
+    /**
+     * registers everything that gets sent, with a kryo of its own, e.g. for
+     * serializing packets without a connection
+     */
+    fun register(kryo: Kryo) {
         registerClient(kryo)
         registerServer(kryo)
         registerShared(kryo)
@@ -97,7 +104,7 @@ object Network {
         kryo.registerClass<Shared.PositionPacket>()
         kryo.registerClass<Shared.SizePacket>()
 
-        kryo.registerClass<Shared.BlockRegion>()
+        kryo.register(Shared.BlockRegion::class.java, BlockRegionSerializer())
         kryo.registerClass<Shared.SparseBlockUpdate>()
         kryo.registerClass<Shared.SingleSparseBlock>()
         kryo.registerClass<Shared.SingleBlock>()
@@ -139,6 +146,7 @@ object Network {
         kryo.registerClass<Server.UpdateGeneratorControlPanelStats>()
         kryo.registerClass<Server.DoorOpen>()
         kryo.registerClass<Server.DeviceToggle>()
+        kryo.registerClass<Server.WorldTimeChanged>()
     }
 
     private fun registerClient(kryo: Kryo) {
@@ -197,9 +205,10 @@ object Network {
                            )
 
         /**
-         * toggle running status of a device
+         * running status of a device changed. it's what the server has, not a
+         * toggle, so that the client that toggled it doesn't flip it right back
          */
-        class DeviceToggle(var entityId: Int = INVALID_ENTITY_ID)
+        class DeviceToggle(var entityId: Int = INVALID_ENTITY_ID, var running: Boolean = false)
 
         /**
          * sends to the client a list of inventory items to spawn
@@ -491,6 +500,23 @@ object Network {
              * is for each block. but we don't send mesh type
              */
             lateinit var blocks: ByteArray
+
+            /**
+             * false with --clientLighting. the light field is left out, and
+             * the client lights the blocks itself
+             */
+            var includesLight = true
+
+            /**
+             * the sky height (see SkyHeightmap) of every column x..x2. the client can't
+             * tell, it doesn't have the blocks above. sunlight is never sent, the client
+             * lights its blocks by the sky from these
+             */
+            lateinit var skyHeights: IntArray
+
+            val fieldCount: Int
+                get() = fieldCount(includesLight)
+
             //start and end indices, inclusive(a rect)
             var x: Int = 0
             var y: Int = 0
@@ -512,10 +538,18 @@ object Network {
                 //over. some things are client only, some are serverside only.
                 const val BLOCK_FIELD_COUNT = 4
 
+                /**
+                 * the light field comes last, so that it can be left out
+                 */
+                const val BLOCK_FIELD_COUNT_WITHOUT_LIGHT = 3
+
                 const val BLOCK_FIELD_INDEX_TYPE = 0
                 const val BLOCK_FIELD_INDEX_WALLTYPE = 1
-                const val BLOCK_FIELD_INDEX_LIGHT_LEVEL = 2
-                const val BLOCK_FIELD_INDEX_FLAGS = 3
+                const val BLOCK_FIELD_INDEX_FLAGS = 2
+                const val BLOCK_FIELD_INDEX_LIGHT_LEVEL = 3
+
+                fun fieldCount(includesLight: Boolean) =
+                        if (includesLight) BLOCK_FIELD_COUNT else BLOCK_FIELD_COUNT_WITHOUT_LIGHT
             }
         }
 
@@ -0,0 +1,250 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import com.sudoplay.joise.module.*
+import java.util.*
+
+/**
+ * A node of a world generation noise graph.
+ *
+ * the graph is put together much like a joise module graph, but it only
+ * describes the noise. it can be turned into the
+ * equivalent joise modules, which is the reference implementation, or be
+ * compiled into a [NoiseProgram] that evaluates whole rows of a tile at once.
+ */
+abstract class NoiseNode {
+    /**
+     * @param built the joise modules made so far for this graph, so that nodes
+     * shared between several others are also shared in the joise graph
+     */
+    fun toModule(built: IdentityHashMap<NoiseNode, Module> = IdentityHashMap()): Module {
+        built[this]?.let { return it }
+
+        val module = createModule(built)
+        built[this] = module
+
+        return module
+    }
+
+    protected abstract fun createModule(built: IdentityHashMap<NoiseNode, Module>): Module
+}
+
+/**
+ * a plain value, where joise takes either a module or a double
+ */
+class NoiseConstant(val value: Double) : NoiseNode() {
+    /**
+     * for a constant under a node that only joise evaluates. joise has no module for
+     * a plain value, a select between the value and itself always gives it
+     */
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleSelect().apply {
+                setLowSource(this@NoiseConstant.value)
+                setHighSource(this@NoiseConstant.value)
+                setControlSource(ModuleGradient().apply { setGradient(0.0, 0.0, 0.0, 1.0) })
+                setThreshold(0.0)
+                setFalloff(0.0)
+            }
+}
+
+class NoiseGradient : NoiseNode() {
+    var x1 = 0.0
+        private set
+    var x2 = 0.0
+        private set
+    var y1 = 0.0
+        private set
+    var y2 = 0.0
+        private set
+
+    fun setGradient(x1: Double, x2: Double, y1: Double, y2: Double) {
+        this.x1 = x1
+        this.x2 = x2
+        this.y1 = y1
+        this.y2 = y2
+    }
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleGradient().apply { setGradient(this@NoiseGradient.x1, this@NoiseGradient.x2,
+                                                 this@NoiseGradient.y1, this@NoiseGradient.y2) }
+}
+
+/**
+ * fractal noise. always evaluated by joise itself, one point at a time,
+ * these are by far the expensive part of the graph.
+ */
+class NoiseFractal(val type: ModuleFractal.FractalType,
+                   val basisType: ModuleBasisFunction.BasisType,
+                   val interpolationType: ModuleBasisFunction.InterpolationType) : NoiseNode() {
+    var numOctaves = 1
+    var frequency = 1.0
+    var seed = 0L
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleFractal(type, basisType, interpolationType).apply {
+                setNumOctaves(this@NoiseFractal.numOctaves)
+                setFrequency(this@NoiseFractal.frequency)
+                seed = this@NoiseFractal.seed
+            }
+}
+
+/**
+ * remaps source into low..high. the range of the source gets sampled
+ * when the joise module is built (thousands of evaluations), so a graph
+ * should only be built once, not per thread.
+ */
+class NoiseAutoCorrect(val low: Double, val high: Double) : NoiseNode() {
+    lateinit var source: NoiseNode
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleAutoCorrect(low, high).apply {
+                setSource(this@NoiseAutoCorrect.source.toModule(built))
+                calculate()
+            }
+}
+
+class NoiseScaleOffset : NoiseNode() {
+    lateinit var source: NoiseNode
+    var scale = 1.0
+    var offset = 0.0
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleScaleOffset().apply {
+                setSource(this@NoiseScaleOffset.source.toModule(built))
+                setScale(this@NoiseScaleOffset.scale)
+                setOffset(this@NoiseScaleOffset.offset)
+            }
+}
+
+class NoiseScaleDomain : NoiseNode() {
+    lateinit var source: NoiseNode
+    var scaleX = 1.0
+    var scaleY = 1.0
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleScaleDomain().apply {
+                setSource(this@NoiseScaleDomain.source.toModule(built))
+                setScaleX(this@NoiseScaleDomain.scaleX)
+                setScaleY(this@NoiseScaleDomain.scaleY)
+            }
+}
+
+class NoiseTranslateDomain : NoiseNode() {
+    lateinit var source: NoiseNode
+    var axisX: NoiseNode? = null
+    var axisY: NoiseNode? = null
+
+    fun setAxisXSource(axisX: NoiseNode) {
+        this.axisX = axisX
+    }
+
+    fun setAxisYSource(axisY: NoiseNode) {
+        this.axisY = axisY
+    }
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleTranslateDomain().apply {
+                setSource(this@NoiseTranslateDomain.source.toModule(built))
+                this@NoiseTranslateDomain.axisX?.let { setAxisXSource(it.toModule(built)) }
+                this@NoiseTranslateDomain.axisY?.let { setAxisYSource(it.toModule(built)) }
+            }
+}
+
+/**
+ * picks low where control is below threshold, high above it, and blends
+ * between the two within falloff of the threshold
+ */
+class NoiseSelect : NoiseNode() {
+    var low: NoiseNode = NoiseConstant(0.0)
+    var high: NoiseNode = NoiseConstant(0.0)
+    lateinit var control: NoiseNode
+    var threshold = 0.0
+    var falloff = 0.0
+
+    fun setLowSource(low: NoiseNode) {
+        this.low = low
+    }
+
+    fun setLowSource(low: Double) {
+        this.low = NoiseConstant(low)
+    }
+
+    fun setHighSource(high: NoiseNode) {
+        this.high = high
+    }
+
+    fun setHighSource(high: Double) {
+        this.high = NoiseConstant(high)
+    }
+
+    fun setControlSource(control: NoiseNode) {
+        this.control = control
+    }
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleSelect().apply {
+                val low = this@NoiseSelect.low
+                if (low is NoiseConstant) setLowSource(low.value) else setLowSource(low.toModule(built))
+
+                val high = this@NoiseSelect.high
+                if (high is NoiseConstant) setHighSource(high.value) else setHighSource(high.toModule(built))
+
+                setControlSource(this@NoiseSelect.control.toModule(built))
+                setThreshold(this@NoiseSelect.threshold)
+                setFalloff(this@NoiseSelect.falloff)
+            }
+}
+
+class NoiseCombiner(val type: ModuleCombiner.CombinerType) : NoiseNode() {
+    val sources = ArrayList<NoiseNode>()
+
+    fun setSource(index: Int, source: NoiseNode) {
+        assert(index == sources.size) { "combiner sources are set in order" }
+        sources.add(source)
+    }
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleCombiner(type).apply {
+                this@NoiseCombiner.sources.forEachIndexed { index, source -> setSource(index, source.toModule(built)) }
+            }
+}
+
+class NoiseBias(val bias: Double) : NoiseNode() {
+    lateinit var source: NoiseNode
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleBias(this@NoiseBias.bias).apply { setSource(this@NoiseBias.source.toModule(built)) }
+}
+
+/**
+ * marks a node that several others read at the same position. joise needs
+ * a cache module for those, a compiled program shares the result anyway.
+ */
+class NoiseCache : NoiseNode() {
+    lateinit var source: NoiseNode
+
+    override fun createModule(built: IdentityHashMap<NoiseNode, Module>) =
+            ModuleCache().apply { setSource(this@NoiseCache.source.toModule(built)) }
+}
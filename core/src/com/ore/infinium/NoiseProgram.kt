@@ -0,0 +1,515 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import com.sudoplay.joise.module.Module
+import com.sudoplay.joise.module.ModuleCombiner
+import java.util.*
+
+/**
+ * A [NoiseNode] graph, flattened into a straight list of operations over rows
+ * of doubles (registers), so it can be evaluated a whole tile row at a time,
+ * instead of walking the module graph with virtual calls for every single point.
+ *
+ * while compiling:
+ * - constant parameters are folded in, and a domain scaled by 0 becomes a
+ *   constant coordinate (so coordinates are assumed to be finite)
+ * - everything that ends up depending only on x (e.g. the terrain shape
+ *   fractals, which are scaled to y = 0) is hoisted into a prologue that
+ *   runs once per tile, rather than for every row
+ * - a node read at the same position more than once (caches, or the same
+ *   fractal feeding two selects) is evaluated once
+ * - select branches only get evaluated for the columns that pick them,
+ *   like joise only evaluates the branch it needs
+ * - auto correct is calculated a single time, when compiling, instead of for
+ *   every copy of the graph
+ *
+ * gradients are row operations like the rest. fractals (and auto correct around
+ * them) are still evaluated by joise, one point at a time: a row version has to
+ * reproduce joise's basis functions (seeding, hashing, gradient tables) exactly,
+ * or the worlds change, which WorldGeneratorTest compares against the joise graph.
+ * so is anything there's no row operation for (other combiner types, or node types
+ * added later), the joise module of that whole subtree is evaluated per point.
+ * those modules keep no state between calls, so a program and its joise modules
+ * are shared by all threads, each using its own [Evaluator].
+ *
+ * the other operations do the same math, in the same order, as the joise modules.
+ * folding a constant does the very operation joise would do for every point, and
+ * leaving out an add of 0 or a multiply by 1, or folding a multiply by 0, can at most
+ * swap a 0 for a -0, which nothing after it tells apart. so the output is exactly
+ * that of the joise graph.
+ */
+class NoiseProgram private constructor(val lanes: Int,
+                                       private val registerCount: Int,
+                                       private val maskCount: Int,
+                                       private val constantRegisters: IntArray,
+                                       private val constantValues: DoubleArray,
+                                       private val prologue: Array<Op>,
+                                       private val body: Array<Op>,
+                                       private val outputRegister: Int) {
+    companion object {
+        private const val X_REGISTER = 0
+        private const val Y_REGISTER = 1
+
+        /**
+         * evaluates for every lane
+         */
+        private const val ALL_LANES = -1
+
+        /**
+         * @param lanes the most values evaluated at once, i.e. the width of a tile
+         * @param modules the joise modules built for nodes of the graph, for the parts
+         * only joise evaluates. pass the same to [NoiseNode.toModule] to get a joise
+         * graph that shares them (and their auto correct ranges) with the program
+         */
+        fun compile(root: NoiseNode, lanes: Int,
+                    modules: IdentityHashMap<NoiseNode, Module> = IdentityHashMap()): NoiseProgram =
+                Compiler(lanes, modules).compile(root)
+    }
+
+    val operationCount get() = prologue.size + body.size
+
+    /**
+     * evaluates the program, one tile at a time. holds the registers, so it
+     * must only be used from one thread.
+     */
+    inner class Evaluator {
+        private val registers = Array(registerCount) { DoubleArray(lanes) }
+        private val masks = Array(maskCount) { BooleanArray(lanes) }
+        private var count = 0
+
+        init {
+            constantRegisters.forEachIndexed { index, register ->
+                Arrays.fill(registers[register], constantValues[index])
+            }
+        }
+
+        /**
+         * starts a new tile, and evaluates everything that doesn't change from row to row.
+         *
+         * @param xs the x coordinate of each column of the tile
+         * @param count the number of columns, at most [lanes]
+         */
+        fun startTile(xs: DoubleArray, count: Int) {
+            assert(count <= lanes)
+            this.count = count
+
+            System.arraycopy(xs, 0, registers[X_REGISTER], 0, count)
+            for (op in prologue) {
+                op.run(registers, masks, count)
+            }
+        }
+
+        /**
+         * @return the values of the row at y, for each column of the tile.
+         * only valid until the next call
+         */
+        fun evaluateRow(y: Double): DoubleArray {
+            Arrays.fill(registers[Y_REGISTER], 0, count, y)
+            for (op in body) {
+                op.run(registers, masks, count)
+            }
+
+            return registers[outputRegister]
+        }
+    }
+
+    private abstract class Op {
+        abstract fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int)
+    }
+
+    /**
+     * a joise module, evaluated per point, for every lane that needs it
+     */
+    private class ModuleOp(val out: Int, val module: Module, val x: Int, val y: Int, val mask: Int) : Op() {
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val outs = registers[out]
+            val xs = registers[x]
+            val ys = registers[y]
+            if (mask == ALL_LANES) {
+                for (i in 0 until count) {
+                    outs[i] = module.get(xs[i], ys[i])
+                }
+            } else {
+                val active = masks[mask]
+                for (i in 0 until count) {
+                    if (active[i]) {
+                        outs[i] = module.get(xs[i], ys[i])
+                    }
+                }
+            }
+        }
+    }
+
+    private class GradientOp(val out: Int, val x: Int, val y: Int,
+                             val x1: Double, val y1: Double,
+                             val xLength: Double, val yLength: Double, val lengthSquared: Double) : Op() {
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val outs = registers[out]
+            val xs = registers[x]
+            val ys = registers[y]
+            for (i in 0 until count) {
+                val dx = xs[i] - x1
+                val dy = ys[i] - y1
+                outs[i] = (dx * xLength + dy * yLength) / lengthSquared
+            }
+        }
+    }
+
+    private class AddOp(val out: Int, val a: Int, val b: Int) : Op() {
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val outs = registers[out]
+            val firsts = registers[a]
+            val seconds = registers[b]
+            for (i in 0 until count) {
+                outs[i] = firsts[i] + seconds[i]
+            }
+        }
+    }
+
+    private class MultiplyOp(val out: Int, val a: Int, val b: Int) : Op() {
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val outs = registers[out]
+            val firsts = registers[a]
+            val seconds = registers[b]
+            for (i in 0 until count) {
+                outs[i] = firsts[i] * seconds[i]
+            }
+        }
+    }
+
+    private class ScaleOffsetOp(val out: Int, val source: Int, val scale: Double, val offset: Double) : Op() {
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val outs = registers[out]
+            val sources = registers[source]
+            for (i in 0 until count) {
+                outs[i] = sources[i] * scale + offset
+            }
+        }
+    }
+
+    private class BiasOp(val out: Int, val source: Int, val exponent: Double) : Op() {
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val outs = registers[out]
+            val sources = registers[source]
+            for (i in 0 until count) {
+                outs[i] = Math.pow(sources[i], exponent)
+            }
+        }
+    }
+
+    /**
+     * works out which lanes of a select need its low and its high branch,
+     * out of the lanes that need the select itself
+     */
+    private class SelectMaskOp(val control: Int, val threshold: Double, val falloff: Double,
+                               val parentMask: Int, val lowMask: Int, val highMask: Int) : Op() {
+        val lower = threshold - falloff
+        val upper = threshold + falloff
+
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val controls = registers[control]
+            val lows = masks[lowMask]
+            val highs = masks[highMask]
+            val parents = if (parentMask == ALL_LANES) null else masks[parentMask]
+            for (i in 0 until count) {
+                val c = controls[i]
+                val active = parents == null || parents[i]
+                if (falloff > 0.0) {
+                    lows[i] = active && !(c > upper)
+                    highs[i] = active && !(c < lower)
+                } else {
+                    lows[i] = active && c < threshold
+                    highs[i] = active && !(c < threshold)
+                }
+            }
+        }
+    }
+
+    private class SelectOp(val out: Int, val control: Int, val low: Int, val high: Int,
+                           val threshold: Double, val falloff: Double) : Op() {
+        val lower = threshold - falloff
+        val upper = threshold + falloff
+
+        override fun run(registers: Array<DoubleArray>, masks: Array<BooleanArray>, count: Int) {
+            val outs = registers[out]
+            val controls = registers[control]
+            val lows = registers[low]
+            val highs = registers[high]
+            for (i in 0 until count) {
+                outs[i] = select(controls[i], lows[i], highs[i], threshold, falloff, lower, upper)
+            }
+        }
+    }
+
+    private class Compiler(val lanes: Int, private val modules: IdentityHashMap<NoiseNode, Module>) {
+        private data class Key(val node: NoiseNode, val x: Int, val y: Int)
+
+        private class Entry(val register: Int, val mask: Int)
+
+        private val prologue = ArrayList<Op>()
+        private val body = ArrayList<Op>()
+
+        /**
+         * for every register, whether it changes from row to row (so it lives in the body)
+         */
+        private val rowDependent = ArrayList<Boolean>()
+
+        private val constants = HashMap<Int, Double>()
+        private val constantRegisters = HashMap<Double, Int>()
+
+        /**
+         * every select mask is a subset of the mask of the branch the select is in
+         */
+        private val maskParents = ArrayList<Int>()
+
+        private val compiled = HashMap<Key, MutableList<Entry>>()
+
+        fun compile(root: NoiseNode): NoiseProgram {
+            newRegister(rowDependent = false)
+            newRegister(rowDependent = true)
+
+            val output = compile(root, X_REGISTER, Y_REGISTER, ALL_LANES)
+
+            val constantEntries = constants.entries.toList()
+            return NoiseProgram(lanes = lanes,
+                                registerCount = rowDependent.size,
+                                maskCount = maskParents.size,
+                                constantRegisters = constantEntries.map { it.key }.toIntArray(),
+                                constantValues = constantEntries.map { it.value }.toDoubleArray(),
+                                prologue = prologue.toTypedArray(),
+                                body = body.toTypedArray(),
+                                outputRegister = output)
+        }
+
+        private fun compile(node: NoiseNode, x: Int, y: Int, mask: Int): Int {
+            val key = Key(node, x, y)
+            compiled[key]?.firstOrNull { covers(it.mask, mask) }?.let { return it.register }
+
+            val register = when (node) {
+                is NoiseConstant -> constant(node.value)
+                is NoiseCache -> compile(node.source, x, y, mask)
+                is NoiseGradient -> gradient(node, x, y)
+
+                is NoiseScaleOffset -> {
+                    val source = compile(node.source, x, y, mask)
+                    val value = constants[source]
+                    if (value != null) {
+                        constant(value * node.scale + node.offset)
+                    } else {
+                        emit(source) { ScaleOffsetOp(it, source, node.scale, node.offset) }
+                    }
+                }
+
+                is NoiseScaleDomain -> compile(node.source,
+                                               multiply(x, constant(node.scaleX)),
+                                               multiply(y, constant(node.scaleY)), mask)
+
+                is NoiseTranslateDomain -> {
+                    val translateX = node.axisX?.let { add(x, compile(it, x, y, mask)) } ?: x
+                    val translateY = node.axisY?.let { add(y, compile(it, x, y, mask)) } ?: y
+                    compile(node.source, translateX, translateY, mask)
+                }
+
+                is NoiseSelect -> select(node, x, y, mask)
+
+                is NoiseCombiner -> when (node.type) {
+                    ModuleCombiner.CombinerType.MULT ->
+                        node.sources.fold(constant(1.0)) { product, source ->
+                            multiply(product, compile(source, x, y, mask))
+                        }
+                    ModuleCombiner.CombinerType.ADD ->
+                        node.sources.fold(constant(0.0)) { sum, source -> add(sum, compile(source, x, y, mask)) }
+                    else -> module(node, x, y, mask)
+                }
+
+                is NoiseBias -> {
+                    val source = compile(node.source, x, y, mask)
+                    val exponent = Math.log(node.bias) / Math.log(0.5)
+                    val value = constants[source]
+                    if (value != null) {
+                        constant(Math.pow(value, exponent))
+                    } else {
+                        emit(source) { BiasOp(it, source, exponent) }
+                    }
+                }
+
+                //fractals, auto correct, and whatever there's no row operation for
+                else -> module(node, x, y, mask)
+            }
+
+            //whatever runs in the prologue is evaluated for every lane
+            val entryMask = if (rowDependent[register]) mask else ALL_LANES
+            compiled.getOrPut(key) { ArrayList() }.add(Entry(register, entryMask))
+
+            return register
+        }
+
+        /**
+         * @return true if every lane of mask was also evaluated for entryMask
+         */
+        private fun covers(entryMask: Int, mask: Int): Boolean {
+            var current = mask
+            while (true) {
+                if (current == entryMask || entryMask == ALL_LANES) {
+                    return true
+                }
+                if (current == ALL_LANES) {
+                    return false
+                }
+
+                current = maskParents[current]
+            }
+        }
+
+        private fun newRegister(rowDependent: Boolean): Int {
+            this.rowDependent.add(rowDependent)
+            return this.rowDependent.size - 1
+        }
+
+        private fun constant(value: Double) =
+                constantRegisters.getOrPut(value) {
+                    newRegister(rowDependent = false).also { constants[it] = value }
+                }
+
+        /**
+         * adds the op made by create, to the prologue when none of its inputs
+         * change between rows, or else to the body
+         */
+        private inline fun emit(vararg inputs: Int, create: (out: Int) -> Op): Int {
+            val dependsOnRow = inputs.any { rowDependent[it] }
+            val out = newRegister(dependsOnRow)
+            (if (dependsOnRow) body else prologue).add(create(out))
+
+            return out
+        }
+
+        private fun add(a: Int, b: Int): Int {
+            val valueA = constants[a]
+            val valueB = constants[b]
+            return when {
+                valueA != null && valueB != null -> constant(valueA + valueB)
+                valueA == 0.0 -> b
+                valueB == 0.0 -> a
+                else -> emit(a, b) { AddOp(it, a, b) }
+            }
+        }
+
+        private fun multiply(a: Int, b: Int): Int {
+            val valueA = constants[a]
+            val valueB = constants[b]
+            return when {
+                valueA != null && valueB != null -> constant(valueA * valueB)
+                valueA == 1.0 -> b
+                valueB == 1.0 -> a
+                valueA == 0.0 || valueB == 0.0 -> constant(0.0)
+                else -> emit(a, b) { MultiplyOp(it, a, b) }
+            }
+        }
+
+        private fun gradient(node: NoiseGradient, x: Int, y: Int): Int {
+            val xLength = node.x2 - node.x1
+            val yLength = node.y2 - node.y1
+            val lengthSquared = xLength * xLength + yLength * yLength
+
+            val valueX = constants[x]
+            val valueY = constants[y]
+            if (valueX != null && valueY != null) {
+                return constant(((valueX - node.x1) * xLength + (valueY - node.y1) * yLength) / lengthSquared)
+            }
+
+            return emit(x, y) { GradientOp(it, x, y, node.x1, node.y1, xLength, yLength, lengthSquared) }
+        }
+
+        /**
+         * the joise module of node (and everything below it), evaluated per point
+         */
+        private fun module(node: NoiseNode, x: Int, y: Int, mask: Int): Int {
+            val module = node.toModule(modules)
+
+            val valueX = constants[x]
+            val valueY = constants[y]
+            if (valueX != null && valueY != null) {
+                return constant(module.get(valueX, valueY))
+            }
+
+            return emit(x, y) { out ->
+                ModuleOp(out, module, x, y, mask = if (rowDependent[x] || rowDependent[y]) mask else ALL_LANES)
+            }
+        }
+
+        private fun select(node: NoiseSelect, x: Int, y: Int, mask: Int): Int {
+            val control = compile(node.control, x, y, mask)
+            val threshold = node.threshold
+            val falloff = node.falloff
+
+            val controlValue = constants[control]
+            if (controlValue != null) {
+                if (falloff > 0.0 && controlValue < threshold - falloff ||
+                        falloff <= 0.0 && controlValue < threshold) {
+                    return compile(node.low, x, y, mask)
+                }
+                if (falloff > 0.0 && controlValue > threshold + falloff || falloff <= 0.0) {
+                    return compile(node.high, x, y, mask)
+                }
+            }
+
+            val lowMask = newMask(mask)
+            val highMask = newMask(mask)
+            body.add(SelectMaskOp(control, threshold, falloff, parentMask = mask, lowMask = lowMask,
+                                  highMask = highMask))
+
+            val low = compile(node.low, x, y, lowMask)
+            val high = compile(node.high, x, y, highMask)
+
+            return emit(control, low, high) { SelectOp(it, control, low, high, threshold, falloff) }
+        }
+
+        private fun newMask(parent: Int): Int {
+            maskParents.add(parent)
+            return maskParents.size - 1
+        }
+    }
+}
+
+/**
+ * the same as joise's select module, for one point
+ */
+private fun select(control: Double, low: Double, high: Double,
+                   threshold: Double, falloff: Double, lower: Double, upper: Double): Double {
+    if (falloff > 0.0) {
+        if (control < lower) {
+            return low
+        } else if (control > upper) {
+            return high
+        }
+
+        val blend = quinticBlend((control - lower) / (upper - lower))
+        return low + blend * (high - low)
+    }
+
+    return if (control < threshold) low else high
+}
+
+private fun quinticBlend(t: Double) = t * t * t * (t * (t * 6 - 15) + 10)
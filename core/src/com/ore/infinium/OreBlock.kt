@@ -225,6 +225,57 @@ class OreBlock private constructor() {
                                                 blockTotalHealth = 300))
         }
 
+        /**
+         * bits of blockPropertyFlags
+         */
+        const val PROPERTY_SOLID = 1 shl 0
+        const val PROPERTY_LIQUID = 1 shl 1
+        const val PROPERTY_ORE = 1 shl 2
+        const val PROPERTY_DIRT = 1 shl 3
+
+        /**
+         * flattened copies of blockAttributes, indexed by the (unsigned) block type.
+         * the attributes map is nicer to define things in, but boxing the byte key
+         * and chasing pointers is too slow for the per-tile paths (collision,
+         * liquid sim, lighting, placement). built once, from blockAttributes.
+         */
+        val blockPropertyFlags = IntArray(256)
+        val blockTotalHealth = FloatArray(256)
+
+        /**
+         * how many light levels are lost passing through this block type
+         * @see BlockAttributes.lightAttenuation
+         */
+        val blockLightAttenuation = ByteArray(256)
+
+        init {
+            for ((type, attributes) in blockAttributes) {
+                val index = type.toInt() and 0xff
+
+                var flags = 0
+                if (attributes.collision == BlockAttributes.Collision.True) {
+                    flags = flags or PROPERTY_SOLID
+                }
+
+                flags = flags or when (attributes.category) {
+                    BlockAttributes.BlockCategory.Liquid -> PROPERTY_LIQUID
+                    BlockAttributes.BlockCategory.Ore -> PROPERTY_ORE
+                    BlockAttributes.BlockCategory.Dirt -> PROPERTY_DIRT
+                    BlockAttributes.BlockCategory.Null -> 0
+                }
+
+                blockPropertyFlags[index] = flags
+                blockTotalHealth[index] = attributes.blockTotalHealth
+                blockLightAttenuation[index] = attributes.lightAttenuation
+            }
+        }
+
+        fun isSolid(type: Byte) = (blockPropertyFlags[type.toInt() and 0xff] and PROPERTY_SOLID) != 0
+        fun isLiquid(type: Byte) = (blockPropertyFlags[type.toInt() and 0xff] and PROPERTY_LIQUID) != 0
+        fun isOre(type: Byte) = (blockPropertyFlags[type.toInt() and 0xff] and PROPERTY_ORE) != 0
+        fun totalHealth(type: Byte) = blockTotalHealth[type.toInt() and 0xff]
+        fun lightAttenuation(type: Byte) = blockLightAttenuation[type.toInt() and 0xff]
+
         /**
          * number of byte fields we use for each block.
          * because they're all stored in one array, as primitives.
@@ -238,8 +289,15 @@ class OreBlock private constructor() {
          * -wallType
          * -flags
          * -light level
+         * -sunlight level (client only)
+         */
+        const val BLOCK_BYTE_FIELD_COUNT = 6
+
+        /**
+         * the server's blocks leave out the sunlight level, it's the last field.
+         * the clients light by the sky themselves
          */
-        const val BLOCK_BYTE_FIELD_COUNT = 5
+        const val SERVER_BLOCK_BYTE_FIELD_COUNT = 5
 
         /**
          * these are all index offsets within the big byte block array,
@@ -263,8 +321,8 @@ class OreBlock private constructor() {
         const val BLOCK_BYTE_FIELD_INDEX_WALL_TYPE = 2
 
         /**
-         * Light level of each tile, impacted by sunlight,
-         * player placed lights, and so on.
+         * Light level of each tile, impacted by
+         * player placed lights, and so on. sunlight has its own.
          *
          * NOTE: this byte is actually rather underused.
          * we're only using light levels of < 255
@@ -278,6 +336,17 @@ class OreBlock private constructor() {
          */
         const val BLOCK_BYTE_FIELD_INDEX_FLAGS = 4
 
+        /**
+         * how much sunlight reaches the tile, at full daylight. kept apart from
+         * the light level (player placed lights and so on), so that the time of
+         * day only has to scale it when the two get combined, instead of the
+         * whole surface getting relit.
+         *
+         * CLIENT SIDE ONLY, lit from the sky heights the server sends
+         * @see ClientLightingSystem
+         */
+        const val BLOCK_BYTE_FIELD_INDEX_SUNLIGHT_LEVEL = 5
+
         fun nameOfBlockType(blockType: Byte?): String? {
             return OreBlock.BlockType.values().firstOrNull { it.oreValue == blockType }?.name
         }
@@ -291,7 +360,13 @@ class OreBlock private constructor() {
                                                 */
                                                var collision: BlockAttributes.Collision,
                                                var category: BlockAttributes.BlockCategory,
-                                               blockTotalHealth: Short) {
+                                               blockTotalHealth: Short,
+                                               /**
+                                                * light levels lost when light passes through
+                                                * this block. air defaults to 0, everything else 2
+                                                */
+                                               var lightAttenuation: Byte = if (collision == BlockAttributes.Collision.False &&
+                                                       category == BlockAttributes.BlockCategory.Null) 0 else 2) {
 
         /**
          * max starting health of the block
@@ -119,6 +119,7 @@ class OreServer(val worldSize: OreWorld.WorldSize) : Runnable {
         //TODO:make better server player first-spawning code(in new world), find a nice spot to spawn in
         //and then TODO: (much later) make it try to load the player position from previous world data, if any.
         val posX = worldSize.width * 0.5f
+        oreWorld.ensureGenerated(posX.toInt(), posX.toInt())
         var posY = oreWorld.findSolidGround(posX) - 2f
         val tilex = posX.toInt()
         val tiley = posY.toInt()
@@ -158,6 +159,7 @@ class OreServer(val worldSize: OreWorld.WorldSize) : Runnable {
 
         //tell all players including himself, that he joined
         serverNetworkSystem.sendSpawnPlayerBroadcast(player)
+        serverNetworkSystem.sendPlayerWorldTime(player)
 
         //give this player the list of other players who are connected
         oreWorld.players().filter { playerEntity -> playerEntity != player }.forEach { playerEntity ->
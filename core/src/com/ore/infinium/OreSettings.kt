@@ -117,6 +117,21 @@ object OreSettings {
     @JvmField
     var generateWorld: Boolean = false
 
+    @Parameter(names = arrayOf("--benchmarkWorldSize"),
+               description = "world size for the world gen benchmark (gradle benchmarks:benchmarkWorldGen)")
+    @JvmField
+    var benchmarkWorldSize = OreWorld.WorldSize.Medium
+
+    @Parameter(names = arrayOf("--benchmarkThreads"),
+               description = "comma separated worker thread counts for the world gen benchmark, 0 for every core")
+    @JvmField
+    var benchmarkThreads = "1,0"
+
+    @Parameter(names = arrayOf("--benchmarkRuns"),
+               description = "runs per thread count for the world gen benchmark")
+    @JvmField
+    var benchmarkRuns = 2
+
     /// lock movement of player to continue moving right
     @JvmField
     var lockRight: Boolean = false
@@ -137,11 +152,41 @@ object OreSettings {
     @JvmField
     var saveLoadWorld: Boolean = false
 
+    @Parameter(names = arrayOf("--autosaveInterval"),
+               description = "seconds between autosaves of changed chunks, when --saveLoadWorld is set. 0 disables it")
+    @JvmField
+    var autosaveIntervalSeconds = 60
+
     @Parameter(names = arrayOf("--flatWorld"),
                description = "create a flat simple world at startup, because it's fast (debug)")
     @JvmField
     var flatWorld: Boolean = false
 
+    @Parameter(names = arrayOf("--seed"),
+               description = "seed to generate the world from, when there's no save to load")
+    @JvmField
+    var worldSeed = WorldGenerator.DEFAULT_SEED
+
+    @Parameter(names = arrayOf("--lazyWorldGen"),
+               description = "generate the world a strip at a time, as players explore it, instead of all at startup")
+    @JvmField
+    var lazyWorldGen: Boolean = false
+
+    @Parameter(names = arrayOf("--parallelLiquidSim"),
+               description = "simulate liquids on every core, a phase of non neighbouring chunks at a time")
+    @JvmField
+    var parallelLiquidSim: Boolean = false
+
+    @Parameter(names = arrayOf("--clientLighting"),
+               description = "clients light the blocks they have themselves, the server doesn't send any light levels")
+    @JvmField
+    var clientLighting: Boolean = false
+
+    @Parameter(names = arrayOf("--worldImageMipmaps"),
+               description = "number of downsampled overview images to write along with the world gen image, up to 6")
+    @JvmField
+    var worldImageMipmaps = 0
+
     @Parameter(names = arrayOf("--disable-gui"),
                description = "disable the gui renderer, for debugging the gl more easily")
     @JvmField
@@ -49,7 +49,10 @@ import com.ore.infinium.systems.*
 import com.ore.infinium.systems.client.*
 import com.ore.infinium.systems.server.*
 import com.ore.infinium.util.*
+import kotlinx.coroutines.experimental.CommonPool
+import kotlinx.coroutines.experimental.channels.Channel
 import kotlinx.coroutines.experimental.channels.ProducerJob
+import kotlinx.coroutines.experimental.channels.produce
 import kotlinx.coroutines.experimental.runBlocking
 import ktx.assets.file
 import mu.KLogging
@@ -68,12 +71,16 @@ import mu.KLogging
  * @param server
  *          null if it is only a client, if both client and server are valid, the
  *          this is a local hosted server, (aka singleplayer, or self-hosting)
+ *
+ * @param blockLayout
+ *          how block fields are laid out in memory, see ChunkedBlockStorage.Layout
  */
 class OreWorld
 (var client: OreClient?,
  var server: OreServer?,
  var worldInstanceType: OreWorld.WorldInstanceType,
- val worldSize: WorldSize) {
+ val worldSize: WorldSize,
+ blockLayout: ChunkedBlockStorage.Layout = ChunkedBlockStorage.Layout.Interleaved) {
 
     companion object : KLogging() {
         const val BLOCK_SIZE_PIXELS = 16.0f
@@ -118,8 +125,24 @@ class OreWorld
     val isHotspotOptimizationEnabled
             = !ClassReflection.isAssignableFrom(EntityProcessingSystem::class.java, ClientNetworkSystem::class.java)
 
+    /**
+     * seed the world blocks were generated from, stored in saves
+     */
+    var worldSeed = 0L
+
+    /**
+     * server only, while the world is being saved/loaded (--saveLoadWorld).
+     * null during world gen and loading, those write the blocks wholesale.
+     */
+    var blockJournal: BlockJournal? = null
+
     //each unit is 1 block(16x16 px), in the game world
-    var blocks: ByteArray
+    val blocks = ChunkedBlockStorage(worldSize.width, worldSize.height, blockLayout,
+                                     fieldCount = if (worldInstanceType == WorldInstanceType.Server) {
+                                         OreBlock.SERVER_BLOCK_BYTE_FIELD_COUNT
+                                     } else {
+                                         OreBlock.BLOCK_BYTE_FIELD_COUNT
+                                     })
     lateinit var assetManager: AssetManager
     lateinit var camera: OrthographicCamera
 
@@ -128,9 +151,26 @@ class OreWorld
 
     var worldGenerator: WorldGenerator? = null
 
+    /**
+     * server only. with --lazyWorldGen, generates the strips of the world
+     * as they get explored. otherwise every strip is marked generated up front
+     */
+    var lazyWorldGenerator: LazyWorldGenerator? = null
+
+    /**
+     * server only. the topmost sky blocking tile of every column, sent to the
+     * clients for their sunlight, and for finding the ground to spawn on
+     */
+    var skyHeightmap: SkyHeightmap? = null
+
     lateinit var artemisWorld: World
     val worldIO = WorldIO(this)
 
+    /**
+     * the server's is the real one, the client's gets synced to it
+     */
+    val worldTime = WorldTime()
+
     lateinit var entityFactory: OreEntityFactory
 
     /**
@@ -151,13 +191,6 @@ class OreWorld
     val isClient = worldInstanceType == WorldInstanceType.Client ||
             worldInstanceType == WorldInstanceType.ClientHostingServer
 
-    init {
-
-        //blocks[(x * 2400 + y) << 2 + i] where i = 0, 1, 2 or 3
-        //        blocks = new OreBlock[worldSize.height * worldSize.width];
-        blocks = ByteArray(worldSize.height * worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT)
-    }
-
     fun init() {
         assert(isHotspotOptimizationEnabled) { "error, hotspot optimization (artemis-odb weaving) is not enabled" }
 
@@ -187,6 +220,7 @@ class OreWorld
                                      .with(MovementSystem(this))
                                      .with(SoundSystem(this))
                                      .with(ClientNetworkSystem(this))
+                                     .with(ClientLightingSystem(this))
                                      .with(InputSystem(camera, this))
                                      .with(EntityOverlaySystem(this))
                                      .with(PlayerSystem(this))
@@ -233,16 +267,55 @@ class OreWorld
                                      .with(ServerNetworkSystem(this, server!!))
                                      .with(TileLightingSystem(this))
                                      .with(LiquidSimulationSystem(this))
+                                     .with(WorldAutosaveSystem(this))
                                      .register(GameLoopSystemInvocationStrategy(msPerLogicTick = 25, isServer = true))
                                      .build())
         //inject the mappers into the world, before we start doing things
         artemisWorld.oreInject(this)
 
         worldGenerator = WorldGenerator(this)
+        lazyWorldGenerator = LazyWorldGenerator(this).apply {
+            //lighting first, the players get sent the blocks along with it
+            addStripListener(artemisWorld.system<TileLightingSystem>()::stripGenerated)
+            addStripListener(artemisWorld.system<PlayerSystem>()::stripGenerated)
+        }
+        skyHeightmap = SkyHeightmap(this)
 
         entityFactory = OreEntityFactory(this)
 
-        if (OreSettings.flatWorld) {
+        if (OreSettings.saveLoadWorld && worldIO.saveFileExists()) {
+            var loaded = false
+            var loadError: Exception? = null
+            //still goes through a job, the hosting client's loading screen waits on it
+            worldGenJob = produce<String>(CommonPool, Channel.UNLIMITED) {
+                send("loading world from save")
+                try {
+                    loaded = worldIO.loadWorld()
+                } catch (e: Exception) {
+                    loadError = e
+                }
+            }
+            generateWorld()
+
+            //never generate (and save) a new world over one that's there but couldn't be loaded
+            loadError?.let { throw IllegalStateException("world save couldn't be loaded", it) }
+
+            if (loaded) {
+                logger.debug { "world loaded from save, skipping world gen" }
+                skyHeightmap!!.rebuild(0, worldSize.width - 1)
+                worldIO.openJournal()
+                return
+            }
+        }
+
+        if (OreSettings.lazyWorldGen && !OreSettings.flatWorld) {
+            //nothing to wait for, strips get generated when players first see them
+            worldSeed = OreSettings.worldSeed
+            worldGenJob = produce<String>(CommonPool, Channel.UNLIMITED) {
+                send("world gets generated lazily, as it's explored")
+            }
+            generateWorld()
+        } else if (OreSettings.flatWorld) {
             worldGenJob = worldGenerator!!.asyncGenerateFlatWorld(worldSize)
             generateWorld()
         } else {
@@ -250,9 +323,24 @@ class OreWorld
             generateWorld()
         }
 
+        if (!OreSettings.lazyWorldGen || OreSettings.flatWorld) {
+            val lazyWorldGenerator = lazyWorldGenerator!!
+            for (strip in 0 until lazyWorldGenerator.stripCount) {
+                lazyWorldGenerator.markStripGenerated(strip)
+            }
+
+            //lazily generated strips rebuild their own columns, once they get generated
+            skyHeightmap!!.rebuild(0, worldSize.width - 1)
+        }
+
+        //collapse all the solid stone/air chunks the generator left behind into shared ones
+        val freedChunks = blocks.compact()
+        logger.debug { "world block storage compacted, freed $freedChunks of ${blocks.chunkCount} chunks" }
+
         //severe: obviously...we don't want to do this right after..we can't save the world while we're still generating it
         if (OreSettings.saveLoadWorld) {
             worldIO.saveWorld()
+            worldIO.openJournal()
         }
     }
 
@@ -361,7 +449,7 @@ class OreWorld
     inline fun blockTypeSafely(x: Int, y: Int): Byte {
         val safeX = x.coerceIn(0, worldSize.width - 1)
         val safeY = y.coerceIn(0, worldSize.height - 1)
-        return blocks[(safeX * worldSize.height + safeY) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE]
+        return blocks[safeX, safeY, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE]
     }
 
     /**
@@ -402,7 +490,6 @@ class OreWorld
         return blockType(x, y) == OreBlock.BlockType.Water.oreValue
     }
 
-    //blocks[(x * 2400 + y) * 4 + i] where i = 0, 1, 2 or 3
     inline fun blockType(x: Int, y: Int): Byte {
         /*
         assert(x >= 0 && y >= 0 &&
@@ -412,10 +499,7 @@ class OreWorld
         }
         */
 
-        //todo can change it to bitshift if we want to...the jvm should already know to do this though..but idk if it
-        // will do it
-        //blocks[(x * 2400 + y) << 2 + i] where i = 0, 1, 2 or 3
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE]
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE]
     }
 
     fun dumpEntity(entityId: Int) {
@@ -443,11 +527,19 @@ $t
         }
         */
 
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE]
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE]
     }
 
     inline fun blockLightLevel(x: Int, y: Int): Byte {
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL]
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL]
+    }
+
+    /**
+     * sunlight at full daylight, see [WorldTime.sunlightFactor] for what's left of it right now.
+     * client only, the server's blocks don't have it
+     */
+    inline fun blockSunlightLevel(x: Int, y: Int): Byte {
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_SUNLIGHT_LEVEL]
     }
 
     inline fun blockMeshType(x: Int, y: Int): Byte {
@@ -459,7 +551,7 @@ $t
         }
         */
 
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE]
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE]
     }
 
     /**
@@ -470,7 +562,7 @@ $t
     inline fun liquidLevel(x: Int, y: Int): Byte {
         //hack
         //val level = OreBlock.MAX_LIQUID_LEVEL.toInt().and(0b00001111)
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS]
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS]
 
     }
 
@@ -499,12 +591,12 @@ $t
     //fixme we can mess with using adding bit flags and stuff to them. right now i just have
     inline fun setLiquidLevel(x: Int, y: Int, level: Byte) {
         //val level = OreBlock.MAX_LIQUID_LEVEL.toInt().and(0b00001111)
-        //val current = blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt()
+        //val current = blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt()
 
         //the flags to not wipe
         //val upper4Bits = current
         //hack
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] = level
+        setJournaledBlockField(x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS, level)
     }
 
     inline fun blockFlags(x: Int, y: Int): Byte {
@@ -516,7 +608,7 @@ $t
         }
         */
 
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS]
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS]
     }
 
     inline fun blockHasFlag(x: Int, y: Int, flag: Byte): Boolean {
@@ -528,10 +620,28 @@ $t
         }
         */
 
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().and(
+        return blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().and(
                 flag.toInt()) != 0
     }
 
+    /**
+     * writes one of the saved block fields (not light or mesh type, those get
+     * recalculated), and records the change in the block journal, if there is one.
+     */
+    inline fun setJournaledBlockField(x: Int, y: Int, field: Int, value: Byte) {
+        val journal = blockJournal
+        if (journal == null) {
+            blocks[x, y, field] = value
+            return
+        }
+
+        val old = blocks[x, y, field]
+        if (old != value) {
+            blocks[x, y, field] = value
+            journal.record(x, y, field, old, value)
+        }
+    }
+
     inline fun setBlockType(x: Int, y: Int, type: OreBlock.BlockType) {
         setBlockType(x, y, type.oreValue)
     }
@@ -545,7 +655,7 @@ $t
         }
         */
 
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE] = type
+        setJournaledBlockField(x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, type)
     }
 
     inline fun setBlockWallType(x: Int, y: Int, wallType: Byte) {
@@ -557,7 +667,7 @@ $t
         }
         */
 
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE] = wallType
+        setJournaledBlockField(x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE, wallType)
     }
 
     inline fun setBlockMeshType(x: Int, y: Int, meshType: Byte) {
@@ -569,11 +679,18 @@ $t
         }
         */
 
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE] = meshType
+        blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE] = meshType
     }
 
+    /**
+     * not journaled, the whole world gets relit from its lights on load (see TileLightingSystem)
+     */
     inline fun setBlockLightLevel(x: Int, y: Int, lightLevel: Byte) {
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL] = lightLevel
+        blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL] = lightLevel
+    }
+
+    inline fun setBlockSunlightLevel(x: Int, y: Int, sunlightLevel: Byte) {
+        blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_SUNLIGHT_LEVEL] = sunlightLevel
     }
 
     /**
@@ -594,7 +711,7 @@ $t
         }
         */
 
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] = flags
+        setJournaledBlockField(x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS, flags)
     }
 
     /**
@@ -615,9 +732,9 @@ $t
         }
         */
 
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] =
-                blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().and(
-                        flagToEnable.toInt()).inv().toByte()
+        setJournaledBlockField(x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS,
+                               blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().and(
+                                       flagToEnable.toInt()).inv().toByte())
     }
 
     /**
@@ -638,9 +755,9 @@ $t
         }
         */
 
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] =
-                blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().or(
-                        flagToEnable.toInt()).toByte()
+        setJournaledBlockField(x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS,
+                               blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().or(
+                                       flagToEnable.toInt()).toByte())
     }
 
     /**
@@ -652,21 +769,20 @@ $t
         setBlockMeshType(x, y, 0)
         //wall type doesn't get nulled out. i think that's what we want, to preserve underground wall tiles
         setBlockFlags(x, y, 0)
+
+        skyHeightmap?.blockChanged(x, y)
     }
 
     inline fun isBlockTypeLiquid(type: Byte): Boolean {
-        return OreBlock.blockAttributes[type]!!.category == OreBlock.BlockAttributes.BlockCategory.Liquid
+        return OreBlock.isLiquid(type)
     }
 
     inline fun isBlockLiquid(x: Int, y: Int): Boolean {
-        val type = blockType(x, y)
-        return OreBlock.blockAttributes[type]!!.category == OreBlock.BlockAttributes.BlockCategory.Liquid
+        return OreBlock.isLiquid(blockType(x, y))
     }
 
     inline fun isBlockSolid(x: Int, y: Int): Boolean {
-        val type = blockType(x, y)
-
-        return OreBlock.blockAttributes[type]!!.collision == OreBlock.BlockAttributes.Collision.True
+        return OreBlock.isSolid(blockType(x, y))
     }
 
     fun entityAtPosition(pos: Vector2): Int? {
@@ -750,6 +866,7 @@ $t
             }
 
             setBlockType(x, y, placedBlockType)
+            skyHeightmap?.blockChanged(x, y)
 
             val bottomBlockX = x
             val bottomBlockY = y + 1
@@ -803,14 +920,24 @@ $t
         return WORLD_SEA_LEVEL
     }
 
+    /**
+     * makes sure the block columns left..right (inclusive) are generated,
+     * before anything looks at them. server only, a no-op on the client
+     */
+    fun ensureGenerated(left: Int, right: Int) {
+        lazyWorldGenerator?.ensureGenerated(left, right)
+    }
+
     /**
      * finds nearest y point to spawn at, for
      * e.g. player spawning on the ground without falling to his death
      * @return y position that is just before the solid (above)
      */
     fun findSolidGround(x: Float): Float {
-        for (y in 0 until worldSize.height) {
-            if (isBlockSolid(x.toInt(), y)) {
+        val blockX = x.toInt()
+        //nothing above the sky height is solid. it's usually solid itself, unless it's just a wall
+        for (y in (skyHeightmap?.skyHeight(blockX) ?: 0) until worldSize.height) {
+            if (isBlockSolid(blockX, y)) {
                 //return first solid ground we find
                 return y - 1f
             }
@@ -980,6 +1107,30 @@ $t
         return collides
     }
 
+    /**
+     * client, puts the blocks of a region sent by the server into the world.
+     * the same fields as a sparse block update, plus the light level if it has it
+     */
+    fun loadBlockRegion(region: Network.Shared.BlockRegion) {
+        val fieldCount = region.fieldCount
+        var sourceIndex = 0
+        for (y in region.y..region.y2) {
+            for (x in region.x..region.x2) {
+                val offset = sourceIndex * fieldCount
+                setBlockType(x, y, region.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE])
+                setBlockWallType(x, y, region.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE])
+                setBlockFlags(x, y, region.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS])
+
+                if (region.includesLight) {
+                    setBlockLightLevel(x, y,
+                                       region.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_LIGHT_LEVEL])
+                }
+
+                ++sourceIndex
+            }
+        }
+    }
+
     fun loadSparseBlockUpdate(update: Network.Shared.SparseBlockUpdate) {
         //log("sparse block update", "loaded, count: " + update.blocks.size);
 
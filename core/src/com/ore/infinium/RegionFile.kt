@@ -0,0 +1,558 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * Binary world save, made of individually compressed chunks.
+ *
+ * layout:
+ * header: magic, version, world width/height, seed, chunk size, chunk counts
+ * chunk table: for every chunk (same indexing as ChunkedBlockStorage), the
+ *              file offset (long) of its blob, and the length (int) of the
+ *              block and the entity part of it. a block length of 0 means
+ *              the chunk was never generated (lazy world gen), it has no blob
+ * blobs:       each chunk's SAVED_FIELDS, one CHUNK_AREA plane per field,
+ *              encoded on their own with a deflating ChunkCodec. followed
+ *              by the serialized PbEntityBatch of the entities in the chunk,
+ *              if it has any
+ *
+ * writing encodes a batch of chunks at a time, in parallel, and reading
+ * goes one chunk at a time, so there is never a second copy of the world
+ * in memory. the table allows reading any single chunk (e.g. the ones
+ * around spawn) without touching the rest.
+ */
+object RegionFile {
+    const val MAGIC = 0x4f524531 //"ORE1"
+    const val VERSION = 3
+
+    const val HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 4 + 4 + 4
+    const val TABLE_ENTRY_SIZE = 8 + 4 + 4
+
+    /**
+     * the block fields that get persisted. mesh type is client only
+     * and gets recalculated.
+     */
+    val SAVED_FIELDS = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE,
+                                  OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE,
+                                  OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS,
+                                  OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL)
+
+    /**
+     * a chunk's saved fields, before encoding
+     */
+    val RAW_CHUNK_SIZE = ChunkedBlockStorage.CHUNK_AREA * SAVED_FIELDS.size
+
+    /**
+     * chunks encoded at once when writing a whole world. bounds the memory
+     * a save needs, while still giving every core plenty to do.
+     */
+    const val WRITE_BATCH_CHUNKS = 512
+
+    /**
+     * largest part of the file Reader maps at once
+     */
+    const val MAP_WINDOW_SIZE = 1 shl 30
+
+    private val EMPTY_BLOB = ByteArray(0)
+
+    class Header(val worldWidth: Int,
+                 val worldHeight: Int,
+                 val seed: Long,
+                 val chunkSize: Int,
+                 val chunkCountX: Int,
+                 val chunkCountY: Int) {
+        val chunkCount = chunkCountX * chunkCountY
+
+        fun tableOffset(chunkIndex: Int) = HEADER_SIZE.toLong() + chunkIndex * TABLE_ENTRY_SIZE
+
+        fun firstBlobOffset() = tableOffset(chunkCount)
+    }
+
+    /**
+     * writes every chunk of the world to path, streaming. goes to a temp file first
+     * and gets moved over the old save at the end, so a crash mid-save can't
+     * leave a half written world behind.
+     *
+     * @param entityBatches serialized entity batch of every chunk that has entities
+     * @param isChunkPresent whether the chunk holds anything worth saving. chunks that
+     * don't (not generated yet) get stored without their blocks
+     */
+    fun write(path: Path,
+              blocks: ChunkedBlockStorage,
+              seed: Long,
+              entityBatches: Map<Int, ByteArray> = emptyMap(),
+              isChunkPresent: (chunkIndex: Int) -> Boolean = { true }) {
+        val header = Header(worldWidth = blocks.width, worldHeight = blocks.height, seed = seed,
+                            chunkSize = ChunkedBlockStorage.CHUNK_SIZE,
+                            chunkCountX = blocks.chunkCountX, chunkCountY = blocks.chunkCountY)
+
+        val tempPath = path.resolveSibling(path.fileName.toString() + ".tmp")
+
+        FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING).use { channel ->
+            val table = ByteBuffer.allocate((header.firstBlobOffset()).toInt())
+            writeHeader(table, header)
+
+            var position = header.firstBlobOffset()
+            for (batchStart in 0 until header.chunkCount step WRITE_BATCH_CHUNKS) {
+                val batchSize = Math.min(WRITE_BATCH_CHUNKS, header.chunkCount - batchStart)
+                val encoded = encodeChunks(batchSize) { index, raw -> snapshotChunk(blocks, batchStart + index, raw) }
+
+                for ((index, encodedBlob) in encoded.withIndex()) {
+                    val blob = if (isChunkPresent(batchStart + index)) encodedBlob else EMPTY_BLOB
+                    val entityBlob = entityBatches[batchStart + index] ?: EMPTY_BLOB
+                    writeFully(channel, ByteBuffer.wrap(blob), position)
+                    writeFully(channel, ByteBuffer.wrap(entityBlob), position + blob.size)
+
+                    table.putLong(position)
+                    table.putInt(blob.size)
+                    table.putInt(entityBlob.size)
+                    position += blob.size + entityBlob.size
+                }
+            }
+
+            table.flip()
+            writeFully(channel, table, 0)
+            channel.force(false)
+        }
+
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    /**
+     * encodes chunks into blobs, across the fork join pool
+     *
+     * @param fill copies the saved fields of the chunk at the given index into
+     * its raw buffer, like snapshotChunk does
+     */
+    fun encodeChunks(count: Int, fill: (index: Int, raw: ByteArray) -> Unit) =
+            ChunkCodec.encodeParallel(count = count, rawLength = RAW_CHUNK_SIZE,
+                                      planeSize = ChunkedBlockStorage.CHUNK_AREA, deflate = true, fill = fill)
+
+    /**
+     * copies the saved fields of a chunk into dest (RAW_CHUNK_SIZE bytes),
+     * so that it can be encoded later on, off the thread that owns the blocks
+     */
+    fun snapshotChunk(blocks: ChunkedBlockStorage, chunkIndex: Int, dest: ByteArray) {
+        for ((plane, field) in SAVED_FIELDS.withIndex()) {
+            blocks.readChunkField(chunkIndex, field, dest, plane * ChunkedBlockStorage.CHUNK_AREA)
+        }
+    }
+
+    private fun readHeader(channel: FileChannel, path: Path): Header {
+        val headerBuffer = ByteBuffer.allocate(HEADER_SIZE)
+        readFully(channel, headerBuffer, 0)
+        headerBuffer.flip()
+
+        if (headerBuffer.int != MAGIC) {
+            throw IOException("not a world region file: $path")
+        }
+
+        val version = headerBuffer.int
+        if (version != VERSION) {
+            throw IOException("unsupported region file version $version, expected $VERSION")
+        }
+
+        val header = Header(worldWidth = headerBuffer.int, worldHeight = headerBuffer.int, seed = headerBuffer.long,
+                            chunkSize = headerBuffer.int, chunkCountX = headerBuffer.int,
+                            chunkCountY = headerBuffer.int)
+
+        if (header.chunkSize != ChunkedBlockStorage.CHUNK_SIZE) {
+            throw IOException("region file chunk size ${header.chunkSize} does not match ${ChunkedBlockStorage.CHUNK_SIZE}")
+        }
+
+        //a corrupt header would otherwise size the table with garbage
+        if (header.worldWidth <= 0 || header.worldHeight <= 0 ||
+                header.chunkCountX != (header.worldWidth + ChunkedBlockStorage.CHUNK_MASK) shr ChunkedBlockStorage.CHUNK_SHIFT ||
+                header.chunkCountY != (header.worldHeight + ChunkedBlockStorage.CHUNK_MASK) shr ChunkedBlockStorage.CHUNK_SHIFT) {
+            throw IOException("region file header is corrupt: $path")
+        }
+
+        return header
+    }
+
+    /**
+     * where every chunk's blob is in a file, as its table has it
+     */
+    private class ChunkTable(val header: Header) {
+        val offsets = LongArray(header.chunkCount)
+        val lengths = IntArray(header.chunkCount)
+        val entityLengths = IntArray(header.chunkCount)
+    }
+
+    private fun readTable(channel: FileChannel, path: Path): ChunkTable {
+        val header = readHeader(channel, path)
+
+        val fileSize = channel.size()
+        if (fileSize < header.firstBlobOffset()) {
+            throw IOException("region file chunk table is truncated: $path")
+        }
+
+        val buffer = ByteBuffer.allocate(header.chunkCount * TABLE_ENTRY_SIZE)
+        readFully(channel, buffer, HEADER_SIZE.toLong())
+        buffer.flip()
+
+        val table = ChunkTable(header)
+        for (chunkIndex in 0 until header.chunkCount) {
+            table.offsets[chunkIndex] = buffer.long
+            table.lengths[chunkIndex] = buffer.int
+            table.entityLengths[chunkIndex] = buffer.int
+
+            if (table.offsets[chunkIndex] + table.lengths[chunkIndex] + table.entityLengths[chunkIndex] > fileSize) {
+                throw IOException("region file chunk $chunkIndex lies past the end of the file: $path")
+            }
+        }
+
+        return table
+    }
+
+    /**
+     * rewrites individual chunks of an existing region file, e.g. for autosaving.
+     *
+     * new chunk blobs are always appended to the end of the file, and only once they
+     * are on disk does the table get pointed at them, in commit(). so a crash at
+     * any point leaves either the old or the new version of each chunk.
+     * the space of replaced blobs stays dead until the file gets compacted,
+     * or written again in full.
+     */
+    class Updater(path: Path) : Closeable {
+        private val channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+
+        private val table = readTable(channel, path)
+
+        val header = table.header
+
+        /**
+         * length of each chunk's blob, block and entity part together, as the table has it
+         */
+        private val blobLengths = LongArray(header.chunkCount) { table.lengths[it].toLong() + table.entityLengths[it] }
+
+        /**
+         * bytes of blobs the table points at
+         */
+        var liveBytes = blobLengths.sum()
+            private set
+
+        private var endPosition = channel.size()
+
+        /**
+         * bytes of blobs the table no longer points at, left behind by replaced chunks
+         * (or by appends that never got committed)
+         */
+        val deadBytes: Long
+            get() = endPosition - header.firstBlobOffset() - liveBytes
+
+        private val pendingEntries = ByteBuffer.allocate(TABLE_ENTRY_SIZE)
+        private val pendingChunks = mutableListOf<Int>()
+        private val pendingOffsets = mutableListOf<Long>()
+        private val pendingLengths = mutableListOf<Int>()
+        private val pendingEntityLengths = mutableListOf<Int>()
+
+        /**
+         * @param entityBlob serialized entity batch of the chunk, null if it has no entities
+         */
+        fun appendChunk(chunkIndex: Int, blob: ByteArray, entityBlob: ByteArray?) {
+            val entities = entityBlob ?: EMPTY_BLOB
+            writeFully(channel, ByteBuffer.wrap(blob), endPosition)
+            writeFully(channel, ByteBuffer.wrap(entities), endPosition + blob.size)
+
+            pendingChunks.add(chunkIndex)
+            pendingOffsets.add(endPosition)
+            pendingLengths.add(blob.size)
+            pendingEntityLengths.add(entities.size)
+            endPosition += blob.size + entities.size
+        }
+
+        /**
+         * makes every appended chunk visible in the table
+         */
+        fun commit() {
+            channel.force(false)
+
+            for (i in pendingChunks.indices) {
+                pendingEntries.clear()
+                pendingEntries.putLong(pendingOffsets[i])
+                pendingEntries.putInt(pendingLengths[i])
+                pendingEntries.putInt(pendingEntityLengths[i])
+                pendingEntries.flip()
+                writeFully(channel, pendingEntries, header.tableOffset(pendingChunks[i]))
+
+                val blobLength = pendingLengths[i].toLong() + pendingEntityLengths[i]
+                liveBytes += blobLength - blobLengths[pendingChunks[i]]
+                blobLengths[pendingChunks[i]] = blobLength
+            }
+
+            channel.force(false)
+
+            pendingChunks.clear()
+            pendingOffsets.clear()
+            pendingLengths.clear()
+            pendingEntityLengths.clear()
+        }
+
+        override fun close() {
+            channel.close()
+        }
+    }
+
+    /**
+     * rewrites the file with only the blobs its table points at, dropping the space
+     * that Updater leaves behind. blobs are copied over as they are, nothing gets
+     * decoded or encoded again, so this doesn't need the world. goes through a temp
+     * file, like write()
+     */
+    fun compact(path: Path) {
+        val tempPath = path.resolveSibling(path.fileName.toString() + ".tmp")
+
+        FileChannel.open(path, StandardOpenOption.READ).use { source ->
+            val table = readTable(source, path)
+            val header = table.header
+
+            FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING).use { dest ->
+                val newTable = ByteBuffer.allocate(header.firstBlobOffset().toInt())
+                writeHeader(newTable, header)
+
+                var position = header.firstBlobOffset()
+                dest.position(position)
+                for (chunkIndex in 0 until header.chunkCount) {
+                    val length = table.lengths[chunkIndex]
+                    val entityLength = table.entityLengths[chunkIndex]
+
+                    transferFully(source, table.offsets[chunkIndex], length.toLong() + entityLength, dest)
+
+                    newTable.putLong(position)
+                    newTable.putInt(length)
+                    newTable.putInt(entityLength)
+                    position += length.toLong() + entityLength
+                }
+
+                newTable.flip()
+                writeFully(dest, newTable, 0)
+                dest.force(false)
+            }
+        }
+
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    /**
+     * copies count bytes at position of source, to the current position of dest
+     */
+    private fun transferFully(source: FileChannel, position: Long, count: Long, dest: FileChannel) {
+        var transferred = 0L
+        while (transferred < count) {
+            val written = source.transferTo(position + transferred, count - transferred, dest)
+            if (written <= 0) {
+                throw IOException("unexpected end of region file at ${position + transferred}")
+            }
+            transferred += written
+        }
+    }
+
+    private fun writeHeader(buffer: ByteBuffer, header: Header) {
+        buffer.putInt(MAGIC)
+        buffer.putInt(VERSION)
+        buffer.putInt(header.worldWidth)
+        buffer.putInt(header.worldHeight)
+        buffer.putLong(header.seed)
+        buffer.putInt(header.chunkSize)
+        buffer.putInt(header.chunkCountX)
+        buffer.putInt(header.chunkCountY)
+    }
+
+    private fun writeFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+        var offset = position
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset)
+        }
+    }
+
+    private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+        var offset = position
+        while (buffer.hasRemaining()) {
+            val read = channel.read(buffer, offset)
+            if (read < 0) {
+                throw IOException("unexpected end of region file at $offset")
+            }
+            offset += read
+        }
+    }
+
+    /**
+     * random access reader over a memory mapped region file. chunks can be read
+     * in any order, and decoding them doesn't cost a read syscall per chunk.
+     *
+     * a mapping can't be larger than 2 GiB, so the file is mapped in windows of
+     * mapWindowSize bytes. the few blobs that cross from one window into the
+     * next get read from the file instead.
+     *
+     * readChunk is not thread safe, but any number of threads can decode
+     * at once, each through its own newDecoder().
+     *
+     * the mapping is only released once the reader gets garbage collected
+     * (java has no way to unmap explicitly), on windows that blocks replacing
+     * the file until then.
+     */
+    class Reader(path: Path, private val mapWindowSize: Int = MAP_WINDOW_SIZE) : Closeable {
+        private val channel = FileChannel.open(path, StandardOpenOption.READ)
+
+        private val table = try {
+            readTable(channel, path)
+        } catch (e: IOException) {
+            channel.close()
+            throw e
+        }
+
+        val header = table.header
+
+        private val offsets = table.offsets
+        private val lengths = table.lengths
+        private val entityLengths = table.entityLengths
+
+        private val windows = try {
+            val fileSize = channel.size()
+            val windowCount = ((fileSize + mapWindowSize - 1) / mapWindowSize).toInt()
+            Array(windowCount) { window ->
+                val start = window.toLong() * mapWindowSize
+                channel.map(FileChannel.MapMode.READ_ONLY, start, minOf(mapWindowSize.toLong(), fileSize - start))
+            }
+        } catch (e: IOException) {
+            channel.close()
+            throw e
+        }
+
+        private val decoder = ChunkDecoder()
+
+        /**
+         * decodes one chunk from the file, straight into blocks
+         */
+        fun readChunk(chunkIndex: Int, blocks: ChunkedBlockStorage) =
+                decoder.readChunk(chunkIndex, blocks)
+
+        /**
+         * false if the chunk was saved without its blocks, because it wasn't generated yet
+         */
+        fun isChunkPresent(chunkIndex: Int) = lengths[chunkIndex] != 0
+
+        /**
+         * @return the serialized entity batch of the chunk, null if it has no entities.
+         * thread safe
+         */
+        fun readEntityBatch(chunkIndex: Int): ByteArray? {
+            val length = entityLengths[chunkIndex]
+            if (length == 0) {
+                return null
+            }
+
+            val data = ByteArray(length)
+            readBlob(duplicateWindows(), offsets[chunkIndex] + lengths[chunkIndex], data, length)
+
+            return data
+        }
+
+        /**
+         * a decoder for use on another thread. must be closed by the caller.
+         */
+        fun newDecoder() = ChunkDecoder()
+
+        private fun duplicateWindows() = Array(windows.size) { windows[it].duplicate() }
+
+        /**
+         * copies length (> 0) bytes at offset of the file into dest
+         *
+         * @param sources the calling thread's own duplicates of the windows
+         */
+        private fun readBlob(sources: Array<ByteBuffer>, offset: Long, dest: ByteArray, length: Int) {
+            val source = sources[(offset / mapWindowSize).toInt()]
+            val start = (offset % mapWindowSize).toInt()
+
+            if (start + length <= source.capacity()) {
+                source.position(start)
+                source.get(dest, 0, length)
+            } else {
+                //positional reads are thread safe
+                readFully(channel, ByteBuffer.wrap(dest, 0, length), offset)
+            }
+        }
+
+        inner class ChunkDecoder : Closeable {
+            private val sources = duplicateWindows()
+            private val codec = ChunkCodec(deflate = true)
+            private val raw = ByteArray(RAW_CHUNK_SIZE)
+            private var compressed = ByteArray(RAW_CHUNK_SIZE)
+
+            /**
+             * decodes one chunk from the file, straight into blocks.
+             * different decoders may write different chunks of the same blocks at once.
+             *
+             * @return false if the chunk isn't present in the file, blocks are left alone then
+             */
+            fun readChunk(chunkIndex: Int, blocks: ChunkedBlockStorage): Boolean {
+                val length = lengths[chunkIndex]
+                if (length == 0) {
+                    return false
+                }
+
+                if (compressed.size < length) {
+                    compressed = ByteArray(length)
+                }
+
+                //inflater can't read from a buffer until java 11, so copy the blob out of the mapping
+                readBlob(sources, offsets[chunkIndex], compressed, length)
+
+                try {
+                    codec.decode(compressed, 0, length, raw, RAW_CHUNK_SIZE, ChunkedBlockStorage.CHUNK_AREA)
+                } catch (e: IOException) {
+                    throw IOException("region file chunk $chunkIndex is corrupt", e)
+                }
+
+                for ((plane, field) in SAVED_FIELDS.withIndex()) {
+                    blocks.writeChunkField(chunkIndex, field, raw, plane * ChunkedBlockStorage.CHUNK_AREA)
+                }
+
+                return true
+            }
+
+            override fun close() {
+                codec.close()
+            }
+        }
+
+        override fun close() {
+            decoder.close()
+            channel.close()
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+/**
+ * the topmost tile of every block column that keeps the sky out (anything
+ * solid, or a wall behind it). everything above it sees the sky.
+ *
+ * rebuilt for whole columns after world gen/load, and kept up to date one
+ * tile at a time as blocks get placed or destroyed. the topmost tile, if it
+ * is solid, also gets the SunlightVisible flag.
+ *
+ * server only, on the logic thread (and whatever generates strips)
+ */
+class SkyHeightmap(private val oreWorld: OreWorld) {
+    private val width = oreWorld.worldSize.width
+    private val height = oreWorld.worldSize.height
+
+    /**
+     * y of the topmost sky blocking tile, or the world height for columns open all the way down
+     */
+    private val heights = IntArray(width) { height }
+
+    /**
+     * @return y of the topmost tile in column x that blocks the sky,
+     * or the world height if nothing in it does
+     */
+    fun skyHeight(x: Int) = heights[x]
+
+    /**
+     * whether x, y has nothing above it (itself included) that blocks the sky
+     */
+    fun isOpenToSky(x: Int, y: Int) = y < heights[x]
+
+    private fun blocksSky(x: Int, y: Int) =
+            oreWorld.isBlockSolid(x, y) || oreWorld.blockWallType(x, y) != OreBlock.WallType.Air.oreValue
+
+    private fun firstBlockingFrom(x: Int, fromY: Int): Int {
+        for (y in fromY until height) {
+            if (blocksSky(x, y)) {
+                return y
+            }
+        }
+
+        return height
+    }
+
+    /**
+     * scans the columns left..right (inclusive) from the top,
+     * after they got their blocks wholesale
+     */
+    fun rebuild(left: Int, right: Int) {
+        for (x in left..right) {
+            setSkyHeight(x, firstBlockingFrom(x, 0))
+        }
+    }
+
+    /**
+     * call after the block at x, y got placed or destroyed
+     */
+    fun blockChanged(x: Int, y: Int) {
+        val skyHeight = heights[x]
+        if (blocksSky(x, y)) {
+            if (y < skyHeight) {
+                setSkyHeight(x, y)
+            }
+        } else if (y == skyHeight) {
+            //the top got dug out, the sky reaches down to whatever is below it now
+            setSkyHeight(x, firstBlockingFrom(x, y + 1))
+        }
+    }
+
+    private fun setSkyHeight(x: Int, skyHeight: Int) {
+        val old = heights[x]
+        heights[x] = skyHeight
+
+        if (old != skyHeight && old < height) {
+            setSunlightVisible(x, old, false)
+        }
+
+        if (skyHeight < height) {
+            setSunlightVisible(x, skyHeight, true)
+        }
+    }
+
+    /**
+     * only solid blocks carry the flag. the flags of liquids hold their level,
+     * and other non solid tiles may become liquid
+     */
+    private fun setSunlightVisible(x: Int, y: Int, visible: Boolean) {
+        if (!oreWorld.isBlockSolid(x, y)) {
+            return
+        }
+
+        val flags = oreWorld.blockFlags(x, y).toInt()
+        val newFlags = if (visible) {
+            flags or OreBlock.BlockFlags.SunlightVisible.toInt()
+        } else {
+            flags and OreBlock.BlockFlags.SunlightVisible.toInt().inv()
+        }
+
+        oreWorld.setBlockFlags(x, y, newFlags.toByte())
+    }
+}
@@ -26,7 +26,6 @@ package com.ore.infinium
 
 import com.artemis.ComponentMapper
 import com.artemis.annotations.Wire
-import com.badlogic.gdx.math.RandomXS128
 import com.badlogic.gdx.utils.PerformanceCounter
 import com.ore.infinium.components.FloraComponent
 import com.ore.infinium.components.SpriteComponent
@@ -38,13 +37,12 @@ import kotlinx.coroutines.experimental.channels.Channel
 import kotlinx.coroutines.experimental.channels.SendChannel
 import kotlinx.coroutines.experimental.channels.produce
 import mu.KLogging
-import java.awt.Color
-import java.awt.Font
-import java.awt.image.BufferedImage
 import java.io.File
-import java.time.Instant
 import java.util.*
-import javax.imageio.ImageIO
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
 import kotlin.system.measureTimeMillis
 
 @Wire
@@ -52,19 +50,62 @@ class WorldGenerator(private val world: OreWorld) {
     private lateinit var mSprite: ComponentMapper<SpriteComponent>
     private lateinit var liquidSimulationSystem: LiquidSimulationSystem
 
-    companion object : KLogging()
+    companion object : KLogging() {
+        /**
+         * the seed every world is generated from, for now
+         */
+        const val DEFAULT_SEED = 4210630674902044763
+
+        /**
+         * size of the units the noise pass is split into. chunk aligned,
+         * and small enough that there are plenty to balance between threads
+         */
+        const val WORLDGEN_TILE_SIZE = ChunkedBlockStorage.CHUNK_SIZE
+
+        /**
+         * how far a volcano branches out sideways, from its center column
+         */
+        private const val VOLCANO_BRANCH_LENGTH = 5
+
+        /**
+         * how far a lake may spread sideways, from its center column
+         */
+        private const val LAKE_RADIUS = 10
+
+        /**
+         * extra columns around a lake that get settled along with it
+         */
+        private const val LAKE_SETTLE_BUFFER = 150
+
+        /**
+         * how far from its spot a volcano or lake may change any block. the lake
+         * settling moves liquid one further than the columns it processes
+         */
+        const val FEATURE_REACH = LAKE_RADIUS + LAKE_SETTLE_BUFFER + 1
+    }
+
+    /**
+     * gets told about every pass of generateWorld, e.g. to profile them
+     */
+    interface PassListener {
+        fun passStarted(name: String)
+
+        fun passFinished(name: String, ms: Long)
+    }
+
+    var passListener: PassListener? = null
 
     init {
         world.artemisWorld.oreInject(this)
     }
 
-    fun generateWorld() {
+    fun generateWorld(pool: ForkJoinPool = ForkJoinPool.commonPool()) {
 
         val counter = PerformanceCounter("test")
         counter.start()
 
-        generateGrassTiles()
-        generateTrees()
+        generateGrassTiles(pool)
+        generateTrees(pool)
 
         counter.stop()
         logger.debug { "total world gen took (incl transitioning, etc): $counter.current seconds" }
@@ -89,133 +130,126 @@ class WorldGenerator(private val world: OreWorld) {
         }
     }
 
-    private fun generateTrees() {
-        /*
-        var bottomY = (pos.y + (size.y * 0.5f)).toInt()
-        val leftX = (pos.x - (size.x * 0.5f)).toInt().coerceIn(0, worldSize.width)
-        val rightX = (pos.x + (size.x * 0.5f)).toInt().coerceIn(0, worldSize.height)
-        for (y in bottomY..worldSize.height)
-        {
-            for (x in leftX..rightX) {
-
-                if (isBlockSolid(x, y)) {
-                    //can't proceed, we'll leave it where it last wasn't solid
-                    return
+    /**
+     * plants a tree every few columns, on the first spot going down that's
+     * fully on solid ground (if there is one before partially solid ground).
+     *
+     * the trees are all the same size, so the spots are searched for in parallel,
+     * column stripes at a time. the entities themselves are created afterwards,
+     * in order of x, from this thread.
+     */
+    private fun generateTrees(pool: ForkJoinPool) {
+        val treeXs = (0..world.worldSize.width - 50 step 4).toList()
+        if (treeXs.isEmpty()) {
+            return
+        }
+
+        //todo randomize tree sizes
+        val firstTree = world.entityFactory.createWoodenTree(FloraComponent.TreeSize.Large)
+        val treeWidth = mSprite.get(firstTree).sprite.width
+        val treeHeight = mSprite.get(firstTree).sprite.height
+
+        //ground y of every tree column, or -1 if there's no spot for it
+        val groundYs = IntArray(world.worldSize.width) { -1 }
+        pool.invoke(SplitRangeTask(0, world.worldSize.width, WORLDGEN_TILE_SIZE) { fromX, toX ->
+            for (x in fromX until toX) {
+                if (x % 4 == 0) {
+                    groundYs[x] = findTreeGroundY(x, treeWidth, treeHeight)
                 }
-
             }
+        })
 
-            //full row was found to be lying on empty stuff,  move down
-            //until we hit solid, and then abort
-            pos.y = (y.toFloat() - size.y * 0.5f) + 1
-        }
-        */
-
-        val rand = RandomXS128()
-        //        for (int y = 0; y < worldSize.height; ++y) {
-        //       }
-        //randomRange(, 20, rand)
-
-        /*
-        we want to start at the top, at a random sample, work our way down,
-        checking each block we move the potential tree down, looking for
-         */
-
-        var treePlanted = true
-        var tree: Int? = null
-        for (x in 0..world.worldSize.width - 50 step 4) {
-
-            //we reuse the previous tree, if not planted, since we have to spawn them to know how big they
-            //may end up being. but we have to know the size to know where to place them,
-            //or if their placement is even valid!!
-            if (treePlanted) {
-                //todo randomize tree sizes
-                tree = world.entityFactory.createWoodenTree(FloraComponent.TreeSize.Large)
+        for ((index, x) in treeXs.withIndex()) {
+            val tree = if (index == 0) {
+                firstTree
+            } else {
+                world.entityFactory.createWoodenTree(FloraComponent.TreeSize.Large)
             }
 
-            val cSprite = mSprite.get(tree!!)
-            val halfTreeHeight = cSprite.sprite.height
-
-            treeY@ for (y in 0..world.worldSize.height - 50) {
-                val treeX = x.toFloat()
-                val treeY = y.toFloat()
+            if (groundYs[x] != -1) {
+                mSprite.get(tree).sprite.setPosition(x.toFloat(), groundYs[x].toFloat())
+            }
+        }
+    }
 
-                when (world.isEntityFullyGrounded(entityX = treeX, entityY = treeY,
-                                                  entityWidth = cSprite.sprite.width,
-                                                  entityHeight = cSprite.sprite.height)) {
-                    OreWorld.EntitySolidGroundStatus.FullyEmpty -> {
-                    }
+    /**
+     * @return the first y, going down, at which a tree at x would be fully
+     * grounded. or -1 if it becomes partially grounded before that
+     */
+    private fun findTreeGroundY(x: Int, treeWidth: Float, treeHeight: Float): Int {
+        for (y in 0..world.worldSize.height - 50) {
+            when (world.isEntityFullyGrounded(entityX = x.toFloat(), entityY = y.toFloat(),
+                                              entityWidth = treeWidth,
+                                              entityHeight = treeHeight)) {
+                OreWorld.EntitySolidGroundStatus.FullyEmpty -> {
+                }
 
-                    OreWorld.EntitySolidGroundStatus.PartiallyGrounded -> {
-                        //fail here. abort, can't grow a tree
-                        break@treeY
-                    }
+                //fail here. abort, can't grow a tree
+                OreWorld.EntitySolidGroundStatus.PartiallyGrounded -> return -1
 
-                    OreWorld.EntitySolidGroundStatus.FullySolid -> {
-                        cSprite.sprite.setPosition(treeX, treeY)
-                        treePlanted = true
-                        //found our tree, already planted at this y value. skip
-                        break@treeY
-                    }
-                }
+                OreWorld.EntitySolidGroundStatus.FullySolid -> return y
             }
         }
 
-        if (!treePlanted) {
-            //last tree, couldn't find a spot for it..delete
-            world.artemisWorld.delete(tree!!)
-        }
-
+        return -1
     }
 
     /**
-     * world gen, generates the initial grass of the world
+     * world gen, generates the initial grass of the world.
+     * every column is independent, so they're done in parallel stripes
      */
-    private fun generateGrassTiles() {
-        for (x in 0 until world.worldSize.width) {
-            var y = 0
-            while (y < world.worldSize.height) {
-                val blockType = world.blockType(x, y)
+    private fun generateGrassTiles(pool: ForkJoinPool) {
+        pool.invoke(SplitRangeTask(0, world.worldSize.width, WORLDGEN_TILE_SIZE) { fromX, toX ->
+            for (x in fromX until toX) {
+                generateGrassColumn(x)
+            }
+        })
+    }
 
-                //fixme check biomes and their ranges
-                //fill the surface/exposed dirt blocks with grass blocks
-                if (blockType == OreBlock.BlockType.Dirt.oreValue) {
-                    val topBlockType = world.blockTypeSafely(x, y - 1)
+    private fun generateGrassColumn(x: Int) {
+        var y = 0
+        while (y < world.worldSize.height) {
+            val blockType = world.blockType(x, y)
 
-                    if (topBlockType == OreBlock.BlockType.Air.oreValue) {
-                        world.setBlockFlag(x, y, OreBlock.BlockFlags.GrassBlock)
+            //fixme check biomes and their ranges
+            //fill the surface/exposed dirt blocks with grass blocks
+            if (blockType == OreBlock.BlockType.Dirt.oreValue) {
+                val topBlockType = world.blockTypeSafely(x, y - 1)
 
-                        y = world.worldSize.height
-                    }
+                if (topBlockType == OreBlock.BlockType.Air.oreValue) {
+                    world.setBlockFlag(x, y, OreBlock.BlockFlags.GrassBlock)
+
+                    y = world.worldSize.height
                 }
-                ++y
             }
+            ++y
         }
 
-        for (x in 0 until world.worldSize.width) {
-            for (y in 0 until world.worldSize.height) {
-                val blockType = world.blockType(x, y)
+        for (y in 0 until world.worldSize.height) {
+            val blockType = world.blockType(x, y)
 
-                if (blockType == OreBlock.BlockType.Dirt.oreValue && world.blockHasFlag(x, y,
-                                                                                        OreBlock.BlockFlags.GrassBlock)) {
+            if (blockType == OreBlock.BlockType.Dirt.oreValue && world.blockHasFlag(x, y,
+                                                                                    OreBlock.BlockFlags.GrassBlock)) {
 
-                    val topBlockType = world.blockTypeSafely(x, y - 1)
-                    //OreBlock bottomBlock = blockTypeSafely(x, y + 1);
-                    //OreBlock bottomLeftBlock = blockTypeSafely(x - 1, y + 1);
-                    //OreBlock bottomRightBlock = blockTypeSafely(x + 1, y + 1);
+                val topBlockType = world.blockTypeSafely(x, y - 1)
+                //OreBlock bottomBlock = blockTypeSafely(x, y + 1);
+                //OreBlock bottomLeftBlock = blockTypeSafely(x - 1, y + 1);
+                //OreBlock bottomRightBlock = blockTypeSafely(x + 1, y + 1);
 
-                    //                    boolean leftEmpty =
+                //                    boolean leftEmpty =
 
-                    //grows grass here
-                    if (topBlockType == OreBlock.BlockType.Air.oreValue) {
-                        world.setBlockFlag(x, y, OreBlock.BlockFlags.GrassBlock)
-                    }
+                //grows grass here
+                if (topBlockType == OreBlock.BlockType.Air.oreValue) {
+                    world.setBlockFlag(x, y, OreBlock.BlockFlags.GrassBlock)
                 }
             }
         }
     }
 
-    class WorldGenOutputInfo(val worldSize: OreWorld.WorldSize, val seed: Long, val useUniqueImageName: Boolean)
+    class WorldGenOutputInfo(val worldSize: OreWorld.WorldSize,
+                             val seed: Long,
+                             val useUniqueImageName: Boolean,
+                             val mipmapLevels: Int = OreSettings.worldImageMipmaps)
 
     fun asyncGenerateFlatWorld(worldSize: OreWorld.WorldSize) = produce<String>(CommonPool, Channel.UNLIMITED) {
         logger.debug { "generating flatworld" }
@@ -229,7 +263,7 @@ class WorldGenerator(private val world: OreWorld) {
 //            delay(1000)
 //        }
 
-        generateWorld(worldSize, channel)
+        generateWorld(worldSize, channel, OreSettings.worldSeed)
     }
 
     fun foo() {
@@ -241,16 +275,19 @@ class WorldGenerator(private val world: OreWorld) {
 
     /**
      * Performs all world generation according to parameters
-     * Multithreaded to the number of cpus (logical) the system has, automatically
+     * The noise pass is spread across pool (by default the shared one), in tiles
+     *
+     * @param headless no world image, and no pause for the loading screen at the end
      */
-    suspend fun generateWorld(worldSize: OreWorld.WorldSize, channel: SendChannel<String>) {
+    suspend fun generateWorld(worldSize: OreWorld.WorldSize,
+                              channel: SendChannel<String>,
+                              inputSeed: Long = DEFAULT_SEED,
+                              pool: ForkJoinPool = ForkJoinPool.commonPool(),
+                              headless: Boolean = false) {
         channel.send("generate world start....")
         channel.send("generating world size of $worldSize ${worldSize.width}x${worldSize.height}")
 
-        val random = Random()
-
-        var seed = random.nextLong()
-        seed = 4210630674902044763
+        val seed = inputSeed
 
 
 //////////////////        seed = 413903351416513687
@@ -287,44 +324,22 @@ class WorldGenerator(private val world: OreWorld) {
 
 
         logger.debug { "inputSeed was $seed" }
+        world.worldSeed = seed
 
         val counter = PerformanceCounter("world gen")
         counter.start()
 
-        val threadCount = Runtime.getRuntime().availableProcessors()
-        val threadContext = newFixedThreadPoolContext(threadCount, "world gen threads")
-
-        channel.send("starting worldgen on $threadCount threads")
-        var threads: Array<Job>? = null
-        //       runBlocking(CommonPool) {
+        //tiles are chunk aligned, but chunks still can't be copied on write from multiple threads
+        world.blocks.unshareAll()
 
+        channel.send("starting worldgen on ${pool.parallelism} threads")
+        val workers = timedPass(channel, "noise tiles") { generateBlockTypes(worldSize, seed, pool) }
+        logger.debug { "worldgen finished its tiles, on $workers worker threads" }
 
-//            val job = produce<String>(threadContext, Channel.UNLIMITED) {
-        threads = Array(threadCount) { threadId ->
-            async(threadContext) {
-                asyncGenerateWorldMap(worldSize, threadId, threadCount, seed, channel)
-            }
-            //               }
-        }
-
-        threads.forEach { it.join() }
-
-        channel.send("worldgen threads finished")
-        logger.debug { "worldgen detected $threadCount processors, starting worldgen on $threadCount threads" }
-
-        channel.send("setting block wall types")
-        //hack, set block wall type for each part that's underground!
-        //obviously will need replaced with something less stupid
-        for (y in 0 until worldSize.height) {
-            for (x in 0 until worldSize.width) {
-                if (world.blockType(x, y) != OreBlock.BlockType.Air.oreValue) {
-                    world.setBlockWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
-                }
-            }
-        }
+        timedPass(channel, "block wall types") { generateWallTypes(0, worldSize.width, pool) }
 
         channel.send("generating lakes & volcanoes")
-        generateLakesAndVolcanoes(worldSize, channel)
+        generateLakesAndVolcanoes(worldSize, channel, pool)
 
         counter.stop()
 
@@ -332,62 +347,194 @@ class WorldGenerator(private val world: OreWorld) {
 
         logger.debug { "world generation finished after ${counter.current} seconds" }
 
-        val worldGenInfo = WorldGenOutputInfo(worldSize, seed, useUniqueImageName = false)
-        writeWorldImage(worldGenInfo)
+        if (!headless) {
+            val worldGenInfo = WorldGenOutputInfo(worldSize, seed, useUniqueImageName = false)
+            timedPass(channel, "world image") { writeWorldImage(worldGenInfo, pool) }
 
-        //pause for effect :)
-        delay(2000)
+            //pause for effect :)
+            delay(2000)
+        }
 
         channel.close()
     }
 
+    /**
+     * runs one pass of world gen, and reports how long it took
+     */
+    private suspend fun <T> timedPass(channel: SendChannel<String>, name: String, pass: () -> T): T {
+        passListener?.passStarted(name)
+        val start = System.nanoTime()
+        val result = pass()
+        val ms = (System.nanoTime() - start) / 1000000
+        passListener?.passFinished(name, ms)
+
+        logger.debug { "world gen - $name took $ms ms" }
+        channel.send("world gen - $name took $ms ms")
+
+        return result
+    }
+
+    /**
+     * runs body over from until to, split in halves across the pool, down to
+     * pieces of grain. piece boundaries stay multiples of grain, counted from
+     * from, so column stripes of WORLDGEN_TILE_SIZE never share a chunk
+     */
+    private class SplitRangeTask(private val from: Int,
+                                 private val to: Int,
+                                 private val grain: Int,
+                                 private val body: (from: Int, to: Int) -> Unit) : RecursiveAction() {
+        override fun compute() {
+            val pieces = (to - from + grain - 1) / grain
+            if (pieces <= 1) {
+                body(from, to)
+                return
+            }
+
+            val middle = from + pieces / 2 * grain
+            ForkJoinTask.invokeAll(SplitRangeTask(from, middle, grain, body),
+                                   SplitRangeTask(middle, to, grain, body))
+        }
+    }
+
+    /**
+     * hack, set block wall type for each part that's underground!
+     * obviously will need replaced with something less stupid
+     *
+     * for the columns fromX until toX, which must be chunk aligned
+     */
+    fun generateWallTypes(fromX: Int, toX: Int, pool: ForkJoinPool) {
+        pool.invoke(SplitRangeTask(fromX, toX, WORLDGEN_TILE_SIZE) { stripeFromX, stripeToX ->
+            for (x in stripeFromX until stripeToX) {
+                for (y in 0 until world.worldSize.height) {
+                    if (world.blockType(x, y) != OreBlock.BlockType.Air.oreValue) {
+                        world.setBlockWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
+                    }
+                }
+            }
+        })
+    }
+
     private suspend fun generateLakesAndVolcanoes(worldSize: OreWorld.WorldSize,
-                                                  channel: SendChannel<String>) {
+                                                  channel: SendChannel<String>,
+                                                  pool: ForkJoinPool) {
         logger.debug { "world gen - lakes & volcanoes finding spots for lakes & volcanoes" }
 
         channel.send("world gen - lakes & volcanoes finding spots for lakes & volcanoes")
-        val terrainContour = ArrayList <Int>()
-        for (x in 0 until worldSize.width) {
-            for (y in 0 until worldSize.height) {
-                if (world.isBlockSolid(x, y)) {
-                    //we create a n entire list of y values
-                    // x is implied via index.
-                    //this forms a contour (horizontal line following the terrain surface)
-                    terrainContour.add(y)
-                    break
-                }
-            }
+        val peakResult = timedPass(channel, "terrain contour & peaks") {
+            findFeatureSpots(0, worldSize.width, pool)
         }
 
-        val delta = 6
-        //pass our contour so we can find the min/max, which will give us where our mountains
-        // and valley points are
-        val peakResult = findPeaks(terrainContour, delta)
-
         //NOTE: we swap minima and maxima, because when we're going downward
         //on the map, from top y, a mountain would appear smaller.
         //but it'd be more confusing to subtract the world height, and then
         //read it back afterwards. so, minimas would be mountains..where
         //lava is and stuff, maxima are lakes and valleys
 
-        val volcanoTime = measureTimeMillis { fillVolcanoes(peakResult.minima, channel) }
-        channel.send("world gen - volcanoes...volcanoes filled and settled. took $volcanoTime ms")
-        logger.debug { "world gen - volcanoes...volcanoes filled and settled. took $volcanoTime ms" }
+        timedPass(channel, "filling ${peakResult.minima.size} volcanoes") {
+            fillVolcanoes(peakResult.minima, pool)
+        }
+
+        timedPass(channel, "filling & settling ${peakResult.maxima.size} lakes") {
+            fillLakes(peakResult.maxima, pool)
+        }
+    }
 
-        val lakeTime = measureTimeMillis { fillLakes(peakResult.maxima, channel) }
-        logger.debug { "world gen - lakes...lakes filled and settled. took $lakeTime ms" }
-        channel.send("world gen - lakes...lakes filled and settled. took $lakeTime ms")
+    /**
+     * finds the spots for volcanoes (minima) and lakes (maxima), along the
+     * terrain surface of the columns fromX until toX
+     */
+    private fun findFeatureSpots(fromX: Int, toX: Int, pool: ForkJoinPool): PeakResult {
+        val terrainContour = findTerrainContour(fromX, toX, pool)
 
+        val delta = 6
+        //pass our contour so we can find the min/max, which will give us where our mountains
+        // and valley points are
+        val peaks = findPeaks(terrainContour, delta)
+        if (fromX == 0) {
+            return peaks
+        }
+
+        return PeakResult().apply {
+            for ((x, y) in peaks.minima) {
+                minima.put(fromX + x, y)
+            }
+            for ((x, y) in peaks.maxima) {
+                maxima.put(fromX + x, y)
+            }
+        }
     }
 
-    private suspend fun fillVolcanoes(minima: HashMap<Int, Int>,
-                                      channel: SendChannel<String>) {
-        var count = 0
-        for ((x, y) in minima) {
-            channel.send("filling in volcano $count of ${minima.size}")
+    /**
+     * the y of the first solid block of every column, top down.
+     * this forms a contour (horizontal line following the terrain surface),
+     * with x implied via index (from fromX). columns without anything solid are left out
+     */
+    private fun findTerrainContour(fromX: Int, toX: Int, pool: ForkJoinPool): List<Int> {
+        val surfaceYs = IntArray(toX - fromX) { -1 }
+        pool.invoke(SplitRangeTask(fromX, toX, WORLDGEN_TILE_SIZE) { stripeFromX, stripeToX ->
+            for (x in stripeFromX until stripeToX) {
+                surfaceYs[x - fromX] = (0 until world.worldSize.height).firstOrNull { y ->
+                    world.isBlockSolid(x, y)
+                } ?: -1
+            }
+        })
+
+        return surfaceYs.filter { it != -1 }
+    }
+
+    /**
+     * places the volcanoes and lakes of the columns fromX until toX, on their own.
+     * features are only placed further than FEATURE_REACH from either edge,
+     * so that everything they fill or settle stays within these columns.
+     */
+    fun generateFeatures(fromX: Int, toX: Int, pool: ForkJoinPool) {
+        val spots = findFeatureSpots(fromX, toX, pool)
+        val inside = fromX + FEATURE_REACH until toX - FEATURE_REACH
+
+        fillVolcanoes(HashMap(spots.minima.filterKeys { it in inside }), pool)
+        fillLakes(HashMap(spots.maxima.filterKeys { it in inside }), pool)
+    }
+
+    /**
+     * splits features at the given x positions into clusters, where features of
+     * different clusters are at least spacing columns apart, so they can't touch.
+     * clusters are filled in parallel, each one in order of x, so the outcome
+     * doesn't depend on thread timing
+     */
+    private fun clusterByX(xs: Collection<Int>, spacing: Int): List<List<Int>> {
+        val clusters = mutableListOf<MutableList<Int>>()
+        for (x in xs.sorted()) {
+            val last = clusters.lastOrNull()
+            if (last != null && x - last.last() < spacing) {
+                last.add(x)
+            } else {
+                clusters.add(mutableListOf(x))
+            }
+        }
+
+        return clusters
+    }
+
+    private fun fillClusters(features: HashMap<Int, Int>,
+                             spacing: Int,
+                             pool: ForkJoinPool,
+                             fill: (x: Int, y: Int) -> Unit) {
+        val clusters = clusterByX(features.keys, spacing)
+        pool.invoke(SplitRangeTask(0, clusters.size, 1) { from, to ->
+            for (cluster in clusters.subList(from, to)) {
+                for (x in cluster) {
+                    fill(x, features[x]!!)
+                }
+            }
+        })
+    }
+
+    private fun fillVolcanoes(minima: HashMap<Int, Int>, pool: ForkJoinPool) {
+        //a volcano reads its own column, and writes lava up to VOLCANO_BRANCH_LENGTH columns
+        //to either side of it. spaced so that two volcanoes' branches never reach the same column
+        fillClusters(minima, spacing = 2 * VOLCANO_BRANCH_LENGTH + 1, pool = pool) { x, y ->
             fillVolcano(x, y)
             world.setBlockType(x, y, OreBlock.BlockType.Lava.oreValue)
-            ++count
         }
     }
 
@@ -419,13 +566,13 @@ class WorldGenerator(private val world: OreWorld) {
             //decide to start some branch(es) here
             if (count > 5) {
                 //left side branch
-                for (x2 in x downTo x - 5) {
+                for (x2 in x downTo x - VOLCANO_BRANCH_LENGTH) {
                     world.setBlockType(x2, y, OreBlock.BlockType.Lava.oreValue)
                     world.setLiquidLevel(x2, y, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
                 }
 
                 //right side branch
-                for (x2 in x..x + 5) {
+                for (x2 in x..x + VOLCANO_BRANCH_LENGTH) {
                     world.setBlockType(x2, y, OreBlock.BlockType.Lava.oreValue)
                     world.setLiquidLevel(x2, y, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
                 }
@@ -440,15 +587,11 @@ class WorldGenerator(private val world: OreWorld) {
         }
     }
 
-    private suspend fun fillLakes(maxima: HashMap<Int, Int>,
-                                  channel: SendChannel<String>) {
+    private fun fillLakes(maxima: HashMap<Int, Int>, pool: ForkJoinPool) {
         logger.debug { "world gen - lakes filling lakes..." }
 
-        var count = 1
-        for ((x, y) in maxima) {
-            logger.debug { "world gen - lakes filling in lake $count of ${maxima.size}..." }
-
-            channel.send("world gen - lakes filling in lake $count of ${maxima.size}...")
+        fillClusters(maxima, spacing = 2 * FEATURE_REACH + 1, pool = pool) { x, y ->
+            logger.debug { "world gen - lakes filling in lake at ($x, $y)..." }
 
             fillLake(x, y)
             //hack debug
@@ -456,7 +599,6 @@ class WorldGenerator(private val world: OreWorld) {
 //            world.setLiquidLevel(x, y, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
 
             logger.debug { "world gen - lakes ...finished filling in & settling a lake." }
-            count++
         }
     }
 
@@ -475,7 +617,7 @@ class WorldGenerator(private val world: OreWorld) {
         }
         //hack (0..4).first {  }
 
-        val radius = 10
+        val radius = LAKE_RADIUS
         val leftMax = world.blockXSafe(lakeX - radius)
         val rightMax = world.blockXSafe(lakeX + radius)
 
@@ -535,7 +677,7 @@ class WorldGenerator(private val world: OreWorld) {
             //hack, dunno...might be needed?
             repeat(500) {
                 //hack i'm sure it needs settled out more than the exact range, but hardcoded extra range for now
-                val buffer = 150
+                val buffer = LAKE_SETTLE_BUFFER
                 liquidSimulationSystem.processLiquidRange(left = lastLeft - buffer, right = lastRight + buffer,
                                                           top = lakeFillY - buffer,
                                                           bottom = lakeBottom + buffer)
@@ -544,24 +686,16 @@ class WorldGenerator(private val world: OreWorld) {
     }
 
     /**
-     * threaded behind the scenes implementation of generating the world,
-     * nobody outside of us should need to know that detail
+     * the complete noise graph, that outputs block types
      */
-    private suspend fun asyncGenerateWorldMap(worldSize: OreWorld.WorldSize,
-                                              threadNumber: Int,
-                                              threadCount: Int,
-                                              seed: Long,
-                                              channel: SendChannel<String>) {
-        val counter = PerformanceCounter("world gen thread $threadNumber")
-        counter.start()
-
+    fun generateNoiseGraph(worldSize: OreWorld.WorldSize, seed: Long): NoiseNode {
         val (groundSelect, highlandLowlandSelectCache, mountain) = generateTerrain(seed)
 
         val cavesModule = generateCavesThreaded(worldSize, seed,
                                                 highlandLowlandSelectCache = highlandLowlandSelectCache,
                                                 groundSelect = groundSelect)
 
-        val finalOreModule: Module
+        val finalOreModule: NoiseNode
 
         //hack, debug
         val noCaves = true
@@ -571,213 +705,270 @@ class WorldGenerator(private val world: OreWorld) {
             finalOreModule = generateOresThreaded(worldSize, seed, cavesModule, mountain)
         }
 
-        val finalModule: Module = finalOreModule
+        return finalOreModule
+    }
 
-        outputGeneratedWorldToBlockArrayThreaded(finalModule, worldSize, threadCount, threadNumber)
+    /**
+     * fills in every block type of the world from the noise graph.
+     *
+     * the world is cut into small tiles, which get spread over pool's threads with
+     * work stealing. the tiles near the surface, where the mountain, lake and cave
+     * selects are expensive, take much longer than the ones deep in the stone,
+     * which would leave cores idle with fixed stripes per thread.
+     *
+     * the graph is compiled once, into a [NoiseProgram] that every worker shares,
+     * each with its own evaluator. the block values only depend on the seed and
+     * position, so the output is the same no matter how many threads there are.
+     *
+     * @return the number of worker threads that took part
+     */
+    fun generateBlockTypes(worldSize: OreWorld.WorldSize, seed: Long, pool: ForkJoinPool): Int {
+        val tilesX = (worldSize.width + WORLDGEN_TILE_SIZE - 1) / WORLDGEN_TILE_SIZE
 
-        counter.stop()
+        return generateBlockTypes(worldSize, compileNoise(worldSize, seed), 0, tilesX, pool)
+    }
+
+    /**
+     * like the above, for the tile columns fromTileX until toTileX only
+     */
+    fun generateBlockTypes(worldSize: OreWorld.WorldSize,
+                           program: NoiseProgram,
+                           fromTileX: Int,
+                           toTileX: Int,
+                           pool: ForkJoinPool): Int {
+        val tilesY = (worldSize.height + WORLDGEN_TILE_SIZE - 1) / WORLDGEN_TILE_SIZE
+        val tileColumns = toTileX - fromTileX
+
+        val evaluators = ConcurrentHashMap<Thread, NoiseProgram.Evaluator>()
+        pool.invoke(GenerateTilesTask(worldSize, program, fromTileX, tileColumns, 0, tileColumns * tilesY,
+                                      evaluators))
+
+        return evaluators.size
+    }
+
+    fun compileNoise(worldSize: OreWorld.WorldSize, seed: Long): NoiseProgram {
+        val program = NoiseProgram.compile(generateNoiseGraph(worldSize, seed), lanes = WORLDGEN_TILE_SIZE)
+        logger.debug { "compiled worldgen noise graph into ${program.operationCount} operations" }
 
-        channel.send("thread $threadNumber finished after ${counter.current}")
+        return program
     }
 
-    data class GenerateTerrainResult(val groundSelect: Module,
-                                     val highlandLowlandSelectCache: Module,
-                                     val mountain: Module)
+    private inner class GenerateTilesTask(private val worldSize: OreWorld.WorldSize,
+                                          private val program: NoiseProgram,
+                                          private val firstTileX: Int,
+                                          private val tileColumns: Int,
+                                          private val fromTile: Int,
+                                          private val toTile: Int,
+                                          private val evaluators: ConcurrentHashMap<Thread, NoiseProgram.Evaluator>)
+        : RecursiveAction() {
+        override fun compute() {
+            if (toTile - fromTile > 1) {
+                val middle = (fromTile + toTile) ushr 1
+                ForkJoinTask.invokeAll(
+                        GenerateTilesTask(worldSize, program, firstTileX, tileColumns, fromTile, middle, evaluators),
+                        GenerateTilesTask(worldSize, program, firstTileX, tileColumns, middle, toTile, evaluators))
+                return
+            }
+
+            val evaluator = evaluators.getOrPut(Thread.currentThread()) { program.Evaluator() }
+            outputGeneratedTileToBlockArray(evaluator, worldSize,
+                                            tileX = firstTileX + fromTile % tileColumns,
+                                            tileY = fromTile / tileColumns)
+        }
+    }
+
+    data class GenerateTerrainResult(val groundSelect: NoiseNode,
+                                     val highlandLowlandSelectCache: NoiseNode,
+                                     val mountain: NoiseNode)
 
     private fun generateTerrain(inputSeed: Long): GenerateTerrainResult {
         //initial ground
-        val groundGradient = ModuleGradient().apply {
+        val groundGradient = NoiseGradient().apply {
             setGradient(0.0, 0.0, 0.0, 1.0)
         }
 
         ////////////////////////// lowland
 
-        val lowlandShapeFractal = ModuleFractal(ModuleFractal.FractalType.BILLOW,
-                                                ModuleBasisFunction.BasisType.GRADIENT,
-                                                ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(8)
-            setFrequency(8.85)
+        val lowlandShapeFractal = NoiseFractal(ModuleFractal.FractalType.BILLOW,
+                                               ModuleBasisFunction.BasisType.GRADIENT,
+                                               ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 8
+            frequency = 8.85
             seed = inputSeed
         }
 
-        val lowlandAutoCorrect = ModuleAutoCorrect(0.0, 1.0).apply {
-            setSource(lowlandShapeFractal)
-            calculate()
+        val lowlandAutoCorrect = NoiseAutoCorrect(0.0, 1.0).apply {
+            source = lowlandShapeFractal
         }
 
-        val lowlandScale = ModuleScaleOffset().apply {
-            setScale(0.155)
-            setOffset(-0.13)
-            setSource(lowlandAutoCorrect)
+        val lowlandScale = NoiseScaleOffset().apply {
+            scale = 0.155
+            offset = -0.13
+            source = lowlandAutoCorrect
         }
 
-        val lowlandYScale = ModuleScaleDomain().apply {
-            setScaleY(0.0)
-            setSource(lowlandScale)
+        val lowlandYScale = NoiseScaleDomain().apply {
+            scaleY = 0.0
+            source = lowlandScale
         }
 
-        val lowlandTerrain = ModuleTranslateDomain().apply {
+        val lowlandTerrain = NoiseTranslateDomain().apply {
             setAxisYSource(lowlandYScale)
-            setSource(groundGradient)
+            source = groundGradient
         }
 
         ////////////////////////// highland
-        val highlandShapeFractal = ModuleFractal(ModuleFractal.FractalType.FBM,
-                                                 ModuleBasisFunction.BasisType.GRADIENT,
-                                                 ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(8)
-            setFrequency(9.0)
+        val highlandShapeFractal = NoiseFractal(ModuleFractal.FractalType.FBM,
+                                                ModuleBasisFunction.BasisType.GRADIENT,
+                                                ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 8
+            frequency = 9.0
             seed = inputSeed + 1
         }
 
-        val highlandAutoCorrect = ModuleAutoCorrect(-1.0, 1.0).apply {
-            setSource(highlandShapeFractal)
-            calculate()
+        val highlandAutoCorrect = NoiseAutoCorrect(-1.0, 1.0).apply {
+            source = highlandShapeFractal
         }
 
-        val highlandScale = ModuleScaleOffset().apply {
-            setScale(0.015)
-            setOffset(0.0)
-            setSource(highlandAutoCorrect)
+        val highlandScale = NoiseScaleOffset().apply {
+            scale = 0.015
+            offset = 0.0
+            source = highlandAutoCorrect
         }
 
-        val highlandYScale = ModuleScaleDomain().apply {
-            setScaleY(0.0)
-            setSource(highlandScale)
+        val highlandYScale = NoiseScaleDomain().apply {
+            scaleY = 0.0
+            source = highlandScale
         }
 
-        val highlandTerrain = ModuleTranslateDomain().apply {
+        val highlandTerrain = NoiseTranslateDomain().apply {
             setAxisYSource(highlandYScale)
-            setSource(groundGradient)
+            source = groundGradient
         }
 
 
         /////////////////// mountain 1
 
-        val mountainShapeFractal1 = ModuleFractal(ModuleFractal.FractalType.RIDGEMULTI,
-                                                  ModuleBasisFunction.BasisType.GRADIENT,
-                                                  ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(8)
-            setFrequency(2.0)
+        val mountainShapeFractal1 = NoiseFractal(ModuleFractal.FractalType.RIDGEMULTI,
+                                                 ModuleBasisFunction.BasisType.GRADIENT,
+                                                 ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 8
+            frequency = 2.0
             seed = inputSeed + 100
         }
 
-        val mountainAutoCorrect1 = ModuleAutoCorrect(-1.0, 1.0).apply {
-            setSource(mountainShapeFractal1)
-            calculate()
+        val mountainAutoCorrect1 = NoiseAutoCorrect(-1.0, 1.0).apply {
+            source = mountainShapeFractal1
         }
 
-        val mountainScale1 = ModuleScaleOffset().apply {
-            setScale(0.10)
-            setOffset(0.0)
-            setSource(mountainAutoCorrect1)
+        val mountainScale1 = NoiseScaleOffset().apply {
+            scale = 0.10
+            offset = 0.0
+            source = mountainAutoCorrect1
         }
 
-        val mountainYScale1 = ModuleScaleDomain().apply {
-            setScaleY(0.5)
-            setSource(mountainScale1)
+        val mountainYScale1 = NoiseScaleDomain().apply {
+            scaleY = 0.5
+            source = mountainScale1
         }
 
-        val mountainTerrain1 = ModuleTranslateDomain().apply {
+        val mountainTerrain1 = NoiseTranslateDomain().apply {
             setAxisYSource(mountainYScale1)
-            setSource(groundGradient)
+            source = groundGradient
         }
         ////////////////////////////////
 
         /////////////////// mountain 2
 
-        val mountainShapeFractal2 = ModuleFractal(ModuleFractal.FractalType.RIDGEMULTI,
-                                                  ModuleBasisFunction.BasisType.GRADIENT,
-                                                  ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(8)
-            setFrequency(2.0)
+        val mountainShapeFractal2 = NoiseFractal(ModuleFractal.FractalType.RIDGEMULTI,
+                                                 ModuleBasisFunction.BasisType.GRADIENT,
+                                                 ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 8
+            frequency = 2.0
             seed = inputSeed + 2
         }
 
-        val mountainAutoCorrect2 = ModuleAutoCorrect(-1.0, 1.0).apply {
-            setSource(mountainShapeFractal2)
-            calculate()
+        val mountainAutoCorrect2 = NoiseAutoCorrect(-1.0, 1.0).apply {
+            source = mountainShapeFractal2
         }
 
-        val mountainScale2 = ModuleScaleOffset().apply {
-            setScale(0.10)
-            setOffset(0.0)
-            setSource(mountainAutoCorrect2)
+        val mountainScale2 = NoiseScaleOffset().apply {
+            scale = 0.10
+            offset = 0.0
+            source = mountainAutoCorrect2
         }
 
-        val mountainYScale2 = ModuleScaleDomain().apply {
-            setScaleY(0.5)
-            setSource(mountainScale2)
+        val mountainYScale2 = NoiseScaleDomain().apply {
+            scaleY = 0.5
+            source = mountainScale2
         }
 
-        val mountainTerrain2 = ModuleTranslateDomain().apply {
+        val mountainTerrain2 = NoiseTranslateDomain().apply {
             setAxisYSource(mountainYScale2)
-            setSource(groundGradient)
+            source = groundGradient
         }
 
 
         //////////////// terrain
 
-        val terrainTypeFractal = ModuleFractal(ModuleFractal.FractalType.FBM,
-                                               ModuleBasisFunction.BasisType.GRADIENT,
-                                               ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(9)
-            setFrequency(1.825)
+        val terrainTypeFractal = NoiseFractal(ModuleFractal.FractalType.FBM,
+                                              ModuleBasisFunction.BasisType.GRADIENT,
+                                              ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 9
+            frequency = 1.825
             seed = inputSeed + 3
         }
 
-        val terrainAutoCorrect = ModuleAutoCorrect(0.0, 1.0).apply {
-            setSource(terrainTypeFractal)
-            calculate()
+        val terrainAutoCorrect = NoiseAutoCorrect(0.0, 1.0).apply {
+            source = terrainTypeFractal
         }
 
-        val terrainTypeYScale = ModuleScaleDomain().apply {
-            setScaleY(0.0)
-            setSource(terrainAutoCorrect)
+        val terrainTypeYScale = NoiseScaleDomain().apply {
+            scaleY = 0.0
+            source = terrainAutoCorrect
         }
 
-        val terrainTypeCache = ModuleCache()
-        terrainTypeCache.setSource(terrainTypeYScale)
+        val terrainTypeCache = NoiseCache()
+        terrainTypeCache.source = terrainTypeYScale
 
         ///////////////////////////////
 
 
         /////////////// lakes
-        val lakeFBM = ModuleFractal(ModuleFractal.FractalType.FBM,
-                                    ModuleBasisFunction.BasisType.GRADIENT,
-                                    ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(6)
-            setFrequency(1.005)
+        val lakeFBM = NoiseFractal(ModuleFractal.FractalType.FBM,
+                                   ModuleBasisFunction.BasisType.GRADIENT,
+                                   ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 6
+            frequency = 1.005
             seed = inputSeed + 4
         }
 
         /*
-        val highlandLakeSelect = ModuleSelect()
+        val highlandLakeSelect = NoiseSelect()
         highlandLakeSelect.setLowSource(lakeFBM)
         highlandLakeSelect.setHighSource(1.0)
-        highlandLakeSelect.setThreshold(0.1)
+        highlandLakeSelect.threshold = 0.1
         highlandLakeSelect.setControlSource(highlandTerrain)
         */
 
-        val lakeAutoCorrect = ModuleAutoCorrect(0.0, 1.0).apply {
-            setSource(lakeFBM)
-            calculate()
+        val lakeAutoCorrect = NoiseAutoCorrect(0.0, 1.0).apply {
+            source = lakeFBM
         }
 
-        val lakeScale = ModuleScaleOffset().apply {
-            setScale(-0.100) //-.150
-            setOffset(0.00)
-            setSource(lakeAutoCorrect)
+        val lakeScale = NoiseScaleOffset().apply {
+            scale = -0.100 //-.150
+            offset = 0.00
+            source = lakeAutoCorrect
         }
 
-        val lakeYScale = ModuleScaleDomain().apply {
-            setScaleY(0.0)
-            setSource(lakeScale)
+        val lakeYScale = NoiseScaleDomain().apply {
+            scaleY = 0.0
+            source = lakeScale
         }
 
-        val lakeTerrain = ModuleTranslateDomain().apply {
+        val lakeTerrain = NoiseTranslateDomain().apply {
             setAxisYSource(lakeYScale)
-            setSource(groundGradient)
+            source = groundGradient
         }
 
         ////////////////// end lake
@@ -785,19 +976,19 @@ class WorldGenerator(private val world: OreWorld) {
         //HACK, debug only
         val selectLakes = true
 
-        val highlandLakeSelect = ModuleSelect().apply {
+        val highlandLakeSelect = NoiseSelect().apply {
             //        highlandMountainSelect.setLowSource(highlandTerrain) //WARNING this is where we're interested? for lakes
             //setLowSource(highlandLakeSelect)
             setLowSource(lakeTerrain)
             setHighSource(highlandTerrain)
             setControlSource(terrainTypeCache)
-            setThreshold(0.21)//51 seemed decent
+            threshold = 0.21//51 seemed decent
             //or .31
-            setFalloff(0.1) // 0.1 is good, 0 is for testing
-            //setFalloff(0.5)
+            falloff = 0.1 // 0.1 is good, 0 is for testing
+            //falloff = 0.5
         }
 
-        val highlandMountainSelect1 = ModuleSelect().apply {
+        val highlandMountainSelect1 = NoiseSelect().apply {
             if (selectLakes) {
                 setLowSource(highlandLakeSelect)
             } else {
@@ -805,36 +996,36 @@ class WorldGenerator(private val world: OreWorld) {
             }
             setHighSource(mountainTerrain2)
             setControlSource(terrainTypeCache)
-            setThreshold(0.45)//.35 //.65
+            threshold = 0.45//.35 //.65
             //small falloffs give us nice occasional mountainy cliffs
-            setFalloff(0.40)
+            falloff = 0.40
         }
 
-        val highlandMountainSelect2 = ModuleSelect().apply {
+        val highlandMountainSelect2 = NoiseSelect().apply {
             setLowSource(mountainTerrain2)
             setHighSource(highlandMountainSelect1)
             setControlSource(terrainTypeCache)
-            setThreshold(0.35)//.35 //.65
-            setFalloff(0.1)
+            threshold = 0.35//.35 //.65
+            falloff = 0.1
         }
 
-        val highlandLowlandSelect = ModuleSelect().apply {
+        val highlandLowlandSelect = NoiseSelect().apply {
             setLowSource(lowlandTerrain)
 //          setLowSource(lakeSelect) HACK
 //          setHighSource(highlandMountainSelect)
             setHighSource(highlandMountainSelect2)
             setControlSource(terrainTypeCache)
-            setThreshold(0.09)//.15 //.19 ?
-            setFalloff(0.1) // .5
+            threshold = 0.09//.15 //.19 ?
+            falloff = 0.1 // .5
         }
 
-        val highlandLowlandSelectCache = ModuleCache()
-        highlandLowlandSelectCache.setSource(highlandLowlandSelect)
+        val highlandLowlandSelectCache = NoiseCache()
+        highlandLowlandSelectCache.source = highlandLowlandSelect
 
-        val groundSelect = ModuleSelect().apply {
+        val groundSelect = NoiseSelect().apply {
             setLowSource(0.0)
             setHighSource(1.0)
-            setThreshold(0.14)
+            threshold = 0.14
             setControlSource(highlandLowlandSelectCache)
         }
 
@@ -846,53 +1037,53 @@ class WorldGenerator(private val world: OreWorld) {
 
     private fun generateCavesThreaded(worldSize: OreWorld.WorldSize,
                                       inputSeed: Long,
-                                      highlandLowlandSelectCache: Module,
-                                      groundSelect: Module): Module {
-        val caveShape = ModuleFractal(ModuleFractal.FractalType.RIDGEMULTI, ModuleBasisFunction.BasisType.GRADIENT,
-                                      ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(1)
-            setFrequency(8.0)
+                                      highlandLowlandSelectCache: NoiseNode,
+                                      groundSelect: NoiseNode): NoiseNode {
+        val caveShape = NoiseFractal(ModuleFractal.FractalType.RIDGEMULTI, ModuleBasisFunction.BasisType.GRADIENT,
+                                     ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 1
+            frequency = 8.0
             seed = inputSeed
         }
 
-        val caveAttenuateBias = ModuleBias(0.95).apply {
-            setSource(highlandLowlandSelectCache)
+        val caveAttenuateBias = NoiseBias(0.95).apply {
+            source = highlandLowlandSelectCache
         }
 
-        val caveShapeAttenuate = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val caveShapeAttenuate = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, caveShape)
             setSource(1, caveAttenuateBias)
         }
 
-        val cavePerturbFractal = ModuleFractal(ModuleFractal.FractalType.FBM,
-                                               ModuleBasisFunction.BasisType.GRADIENT,
-                                               ModuleBasisFunction.InterpolationType.QUINTIC).apply {
-            setNumOctaves(6)
-            setFrequency(3.0)
+        val cavePerturbFractal = NoiseFractal(ModuleFractal.FractalType.FBM,
+                                              ModuleBasisFunction.BasisType.GRADIENT,
+                                              ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+            numOctaves = 6
+            frequency = 3.0
             seed = inputSeed + 1
         }
 
-        val cavePerturbScale = ModuleScaleOffset().apply {
-            setScale(0.75)
-            setOffset(0.0)
-            setSource(cavePerturbFractal)
+        val cavePerturbScale = NoiseScaleOffset().apply {
+            scale = 0.75
+            offset = 0.0
+            source = cavePerturbFractal
         }
 
-        val cavePerturb = ModuleTranslateDomain().apply {
+        val cavePerturb = NoiseTranslateDomain().apply {
             setAxisXSource(cavePerturbScale)
-            setSource(caveShapeAttenuate)
+            source = caveShapeAttenuate
         }
 
-        val caveSelect = ModuleSelect().apply {
+        val caveSelect = NoiseSelect().apply {
             setLowSource(1.0)
             setHighSource(0.0)
             setControlSource(cavePerturb)
-            setThreshold(0.9)
-            setFalloff(0.0)
+            threshold = 0.9
+            falloff = 0.0
         }
 
         //final step
-        val groundCaveMultiply = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val groundCaveMultiply = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, caveSelect)
             setSource(1, groundSelect)
         }
@@ -905,256 +1096,256 @@ class WorldGenerator(private val world: OreWorld) {
      */
     private fun generateOresThreaded(worldSize: OreWorld.WorldSize,
                                      inputSeed: Long,
-                                     groundCaveMultiply: Module,
-                                     mountain: Module): Module {
+                                     groundCaveMultiply: NoiseNode,
+                                     mountain: NoiseNode): NoiseNode {
 
         /////////////////////////////////////////////////////
-        val mainGradient = ModuleGradient()
+        val mainGradient = NoiseGradient()
         mainGradient.setGradient(0.0, 0.0, 0.0, 1.0)
 
-        val copperFBM = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                      ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val copperFBM = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                     ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed
-            setNumOctaves(4)
-            setFrequency(450.0)
+            numOctaves = 4
+            frequency = 450.0
         }
 
-//            val copperFBMRemap = ModuleScaleOffset()
-//            copperFBMRemap.setSource(copperFBM)
-//            copperFBMRemap.setScale(0.5)
-//            copperFBMRemap.setOffset(0.5)
+//            val copperFBMRemap = NoiseScaleOffset()
+//            copperFBMRemap.source = copperFBM
+//            copperFBMRemap.scale = 0.5
+//            copperFBMRemap.offset = 0.5
 
         //copper or stone. higher density == more stone. fuck if i know why.
 //            val COPPER_DENSITY = 0.58
         val COPPER_DENSITY = 0.2
-        val copperSelect = ModuleSelect().apply {
+        val copperSelect = NoiseSelect().apply {
             setLowSource(OreBlock.BlockType.Stone.oreValue.toDouble())
             setHighSource(OreBlock.BlockType.Copper.oreValue.toDouble())
             setControlSource(copperFBM)
-            setThreshold(COPPER_DENSITY)
-            setFalloff(0.1)
+            threshold = COPPER_DENSITY
+            falloff = 0.1
         }
 
 
         //////////////////////////////////////////////// COAL
 
-        val coalFBM = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                    ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val coalFBM = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                   ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed + 1
-            setNumOctaves(7)
-            setFrequency(250.0)
+            numOctaves = 7
+            frequency = 250.0
         }
 
-        val coalSelect = ModuleSelect().apply {
+        val coalSelect = NoiseSelect().apply {
             setLowSource(copperSelect)
             setHighSource(OreBlock.BlockType.Coal.oreValue.toDouble())
             setControlSource(coalFBM)
-            setThreshold(0.5)
-            setFalloff(0.0)
+            threshold = 0.5
+            falloff = 0.0
         }
 
         /////////////////////////////////////////////// IRON
-        val ironFBM = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                    ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val ironFBM = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                   ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed + 2
-            setNumOctaves(5)
-            setFrequency(250.0)
+            numOctaves = 5
+            frequency = 250.0
         }
 
-        val ironSelect = ModuleSelect().apply {
+        val ironSelect = NoiseSelect().apply {
             setLowSource(coalSelect)
             setHighSource(OreBlock.BlockType.Iron.oreValue.toDouble())
             setControlSource(ironFBM)
-            setThreshold(0.5)
-            setFalloff(0.0)
+            threshold = 0.5
+            falloff = 0.0
         }
 
         ///////////////////////////////////////////////////////////////////////
 
         ///////////////////////////////////////////////////////// SILVER
 
-        val silverFBM = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                      ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val silverFBM = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                     ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed + 3
-            setNumOctaves(5)
-            setFrequency(550.0)
+            numOctaves = 5
+            frequency = 550.0
         }
 
         //limit this ore only part way down (vertically) the world, it's a slightly more rare tier
-        val silverRestrictSelect = ModuleSelect().apply {
+        val silverRestrictSelect = NoiseSelect().apply {
             setLowSource(0.0)
             setHighSource(1.0)
             setControlSource(mainGradient)
-            setThreshold(0.5)
-            setFalloff(0.0)
+            threshold = 0.5
+            falloff = 0.0
         }
 
-        val silverRestrictMult = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val silverRestrictMult = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, silverFBM)
             setSource(1, silverRestrictSelect)
         }
 
-        val silverSelect = ModuleSelect().apply {
+        val silverSelect = NoiseSelect().apply {
             setLowSource(ironSelect)
             setHighSource(OreBlock.BlockType.Silver.oreValue.toDouble())
             setControlSource(silverRestrictMult)
-            setThreshold(0.5)
-            setFalloff(0.0)
+            threshold = 0.5
+            falloff = 0.0
         }
 
         ////////////////////////////////////////////////////////////
-        val goldFBM = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                    ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val goldFBM = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                   ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed + 4
-            setNumOctaves(5)
-            setFrequency(550.0)
+            numOctaves = 5
+            frequency = 550.0
         }
 
         //limit this ore only part way down (vertically) the world, it's a slightly more rare tier
-        val goldRestrictSelect = ModuleSelect().apply {
+        val goldRestrictSelect = NoiseSelect().apply {
             setLowSource(0.0)
             setHighSource(1.0)
             setControlSource(mainGradient)
-            setThreshold(0.7)
-            setFalloff(0.0)
+            threshold = 0.7
+            falloff = 0.0
         }
 
-        val goldRestrictMult = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val goldRestrictMult = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, silverFBM)
             setSource(1, silverRestrictSelect)
         }
 
-        val goldSelect = ModuleSelect().apply {
+        val goldSelect = NoiseSelect().apply {
             setLowSource(silverSelect)
             setHighSource(OreBlock.BlockType.Gold.oreValue.toDouble())
             setControlSource(goldRestrictMult)
-            setThreshold(0.55)
-            setFalloff(0.0)
+            threshold = 0.55
+            falloff = 0.0
         }
 
         ////////////////////////////////////////////////////////////////////
 
-        val uraniumFBM = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                       ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val uraniumFBM = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                      ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed + 5
-            setNumOctaves(5)
-            setFrequency(950.0)
+            numOctaves = 5
+            frequency = 950.0
         }
 
         //limit this ore only part way down (vertically) the world, it's a slightly more rare tier
-        val uraniumRestrictSelect = ModuleSelect().apply {
+        val uraniumRestrictSelect = NoiseSelect().apply {
             setLowSource(0.0)
             setHighSource(1.0)
             setControlSource(mainGradient)
-            setThreshold(0.7)
-            setFalloff(0.6)
+            threshold = 0.7
+            falloff = 0.6
         }
 
-        val uraniumRestrictMult = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val uraniumRestrictMult = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, uraniumFBM)
             setSource(1, uraniumRestrictSelect)
         }
 
-        val uraniumSelect = ModuleSelect().apply {
+        val uraniumSelect = NoiseSelect().apply {
             setLowSource(goldSelect)
             setHighSource(OreBlock.BlockType.Uranium.oreValue.toDouble())
             setControlSource(uraniumRestrictMult)
-            setThreshold(0.5)
-            setFalloff(0.0)
+            threshold = 0.5
+            falloff = 0.0
         }
 
         ///////////////////////////////////////////////////////////////////////
 
-        val diamondFBM = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                       ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val diamondFBM = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                      ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed + 6
-            setNumOctaves(5)
-            setFrequency(650.0)
+            numOctaves = 5
+            frequency = 650.0
         }
 
         //limit this ore only part way down (vertically) the world, it's a slightly more rare tier
-        val diamondRestrictSelect = ModuleSelect().apply {
+        val diamondRestrictSelect = NoiseSelect().apply {
             setLowSource(0.0)
             setHighSource(1.0)
             setControlSource(mainGradient)
-            setThreshold(0.3)
-            setFalloff(0.8)
+            threshold = 0.3
+            falloff = 0.8
         }
 
-        val diamondRestrictMult = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val diamondRestrictMult = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, diamondFBM)
             setSource(1, diamondRestrictSelect)
         }
 
-        val diamondSelect = ModuleSelect().apply {
+        val diamondSelect = NoiseSelect().apply {
             setLowSource(uraniumSelect)
             setHighSource(OreBlock.BlockType.Diamond.oreValue.toDouble())
             setControlSource(diamondRestrictMult)
-            setThreshold(0.65)
-            setFalloff(0.0)
+            threshold = 0.65
+            falloff = 0.0
         }
 
         ////////////////////////////// DIRT
-        val dirtGradient = ModuleGradient().apply {
+        val dirtGradient = NoiseGradient().apply {
             setGradient(0.0, 0.0, 0.0, 1.0)
         }
 
         val DIRT_THRESHOLD = 0.32
 
-        val dirtRestrict = ModuleSelect().apply {
+        val dirtRestrict = NoiseSelect().apply {
             setControlSource(dirtGradient)
             setLowSource(0.2)
             setHighSource(1.0)
-            setThreshold(DIRT_THRESHOLD)
-            setFalloff(0.4)
-            //dirtRestrict.setFalloff(0.00)
+            threshold = DIRT_THRESHOLD
+            falloff = 0.4
+            //dirtRestrict.falloff = 0.00
         }
 
-        val dirtSelect = ModuleSelect().apply {
+        val dirtSelect = NoiseSelect().apply {
             setControlSource(dirtRestrict)
             setLowSource(OreBlock.BlockType.Dirt.oreValue.toDouble())
             setHighSource(diamondSelect)
-            setThreshold(DIRT_THRESHOLD)
-            setFalloff(0.08)
-            //setFalloff(0.8)
+            threshold = DIRT_THRESHOLD
+            falloff = 0.08
+            //falloff = 0.8
         }
 
 
         ///////////////////MOUNTAIN ORE SELECT
         /*
-        val stoneMountainFbm = ModuleFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
-                                      ModuleBasisFunction.InterpolationType.QUINTIC).apply {
+        val stoneMountainFbm = NoiseFractal(ModuleFractal.FractalType.FBM, ModuleBasisFunction.BasisType.GRADIENT,
+                                     ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             seed = inputSeed + 3
-            setNumOctaves(5)
-            setFrequency(550.0)
+            numOctaves = 5
+            frequency = 550.0
         }
 
-        val silverRestrictMult = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val silverRestrictMult = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, silverFBM)
             setSource(1, silverRestrictSelect)
         }
         */
 
         //compose mountains of some stone, but not entirely..generally
-        val mountainRestrictSelect = ModuleSelect().apply {
+        val mountainRestrictSelect = NoiseSelect().apply {
             setLowSource(0.2)
             setHighSource(mountain)
             setControlSource(mainGradient)
-            setThreshold(0.10)
-            setFalloff(0.0)
+            threshold = 0.10
+            falloff = 0.0
         }
 
-        val mountainOreSelect = ModuleSelect().apply {
+        val mountainOreSelect = NoiseSelect().apply {
             setControlSource(mountainRestrictSelect)
             setLowSource(OreBlock.BlockType.Stone.oreValue.toDouble())
             setHighSource(dirtSelect)
-            setThreshold(0.12)
-            setFalloff(0.0)
-            //setFalloff(0.8)
+            threshold = 0.12
+            falloff = 0.0
+            //falloff = 0.8
         }
 
         /*
-        val oreMountainMultiply = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val oreMountainMultiply = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
 
             setSource(0, mountain)
             //setSource(1, dirtSelect)
@@ -1164,17 +1355,17 @@ class WorldGenerator(private val world: OreWorld) {
 
         /*
         not needed
-        val groundSelect = ModuleSelect()
+        val groundSelect = NoiseSelect()
         groundSelect.setControlSource(mainGradientRemap)
         groundSelect.setLowSource(Open.toDouble())
         groundSelect.setHighSource(dirtStoneSelect)
-        groundSelect.setThreshold(0.000000)
-        groundSelect.setFalloff(0.0)
+        groundSelect.threshold = 0.000000
+        groundSelect.falloff = 0.0
         */
 
         //now combine with the cave/world, to cut out all the places where
         //we do not want ores to be
-        val oreCaveMultiply = ModuleCombiner(ModuleCombiner.CombinerType.MULT).apply {
+        val oreCaveMultiply = NoiseCombiner(ModuleCombiner.CombinerType.MULT).apply {
             setSource(0, groundCaveMultiply)
             //    setSource(1, dirtSelect)
             setSource(1, mountainOreSelect)
@@ -1182,9 +1373,9 @@ class WorldGenerator(private val world: OreWorld) {
 
 //            val finalGen = rareFBMRemap
 //            val finalGen = rareSelect
-        //var finalGen: Module = dirtSelect
-        var finalGen: Module = dirtSelect
-        //var finalGen: Module = coalSelect
+        //var finalGen: NoiseNode = dirtSelect
+        var finalGen: NoiseNode = dirtSelect
+        //var finalGen: NoiseNode = coalSelect
 
         //hack
         val showCaves = true
@@ -1197,73 +1388,38 @@ class WorldGenerator(private val world: OreWorld) {
     }
 
     /**
-     * renders a handy legend on the output world image
+     * evaluates one tile of the noise program, a row at a time, and outputs it
+     * to the world array. tiles don't overlap, so this is called from many
+     * threads at once, with an evaluator each
      */
-    private fun writeWorldImageLegendImprint(bufferedImage: BufferedImage) {
-        val graphics = bufferedImage.graphics
-        graphics.font = Font("SansSerif", Font.PLAIN, 9)
-
-        val leftX = 5
-        val startY = 8
-        var index = 0
-        for ((oreValue, oreColor) in OreBlock.OreNoiseColorMap) {
-            val y = startY + index * 8
-
-            val oreLegendRectSize = 2
-
-            graphics.color = oreColor
-            graphics.fillRect(leftX, y, oreLegendRectSize, oreLegendRectSize)
-
-            graphics.color = Color.MAGENTA
-
-            val oreName = OreBlock.BlockType.values().first { it -> it.oreValue == oreValue }.name
-            graphics.drawString(oreName, leftX + oreLegendRectSize * 2, y + 3)
+    private fun outputGeneratedTileToBlockArray(evaluator: NoiseProgram.Evaluator,
+                                                worldSize: OreWorld.WorldSize,
+                                                tileX: Int,
+                                                tileY: Int) {
+        val startX = tileX * WORLDGEN_TILE_SIZE
+        val startY = tileY * WORLDGEN_TILE_SIZE
+        val endX = Math.min(startX + WORLDGEN_TILE_SIZE, worldSize.width)
+        val endY = Math.min(startY + WORLDGEN_TILE_SIZE, worldSize.height)
 
-            ++index
+        val xRatio = worldSize.width.toDouble() / worldSize.height.toDouble()
+        val columns = DoubleArray(endX - startX) { i ->
+            (startX + i).toDouble() / worldSize.width.toDouble() * xRatio
         }
-    }
-
-    /**
-     * samples from the final module, outputs it to the world array.
-     * meant to be called in a threaded fashion. (since each module.get()
-     * call on each of the indices in the world, takes a lot of time due
-     * to all the module chaining)
-     * Meant to be called from multiple threads, automatically partitions
-     * each worker into exclusive regions which they operate on the world with
-     */
-    private fun outputGeneratedWorldToBlockArrayThreaded(finalModule: Module,
-                                                         worldSize: OreWorld.WorldSize,
-                                                         threadCount: Int,
-                                                         threadNumber: Int) {
-        //divide the world into n threads, so that each can write to their own region simultaneously
-        val partitionedHeight = worldSize.height / threadCount
-
-        val startY = (threadNumber - 1) * partitionedHeight
-        val endY = startY + partitionedHeight
-        //fixme i'm very skeptical what happens if given an odd number of world size...maybe we need to use the remainder?
-        //don't want to be accidentally squishing 1 block per thread, or stretching by 1 block
+        evaluator.startTile(columns, columns.size)
 
         for (y in startY until endY) {
-            for (x in 0 until worldSize.width) {
-
-                val xRatio = worldSize.width.toDouble() / worldSize.height.toDouble()
-                val value = finalModule.get(x.toDouble() / worldSize.width.toDouble() * xRatio,
-                                            y.toDouble() / worldSize.height.toDouble())
+            val values = evaluator.evaluateRow(y.toDouble() / worldSize.height.toDouble())
 
+            for (x in startX until endX) {
                 //NOTE: we truncate the double to a byte. we don't care if it's 3.0 or 3.1 for an ore value,
                 //but obviously we need it to be a flat number.
                 //the reasoning for this happening in the first place, is due to falloff and the range of the
                 //modules, i believe.
 
-                //           assert (value == value.toInt().toDouble()) {
-                //              "output to world array, but units aren't in round numbers -- invalid ore types obtained from noise generator"
-                //         }
-
                 //things like water and stuff are never generated by noise. so it'll just be e.g. air
-                world.setBlockType(x, y, value.toByte())
+                world.setBlockType(x, y, values[x - startX].toByte())
             }
         }
-        logger.debug { "WORLDGEN one thread output finished" }
     }
 
     //fixme don't use relative upward, fix game so it doesn't require working dir
@@ -1272,52 +1428,23 @@ class WorldGenerator(private val world: OreWorld) {
     private val WORLD_OUTPUT_IMAGE_BASE_PATH = "../saveData/worldImages/"
 
     /**
-     * output the entire world to a png.
+     * output the entire world to a png, plus the mipmaps asked for.
      *
      * right now only blocks are handled. in the future, more stuff will be done
      */
-    fun writeWorldImage(worldGenInfo: WorldGenOutputInfo) {
-//hack         val xRatio = worldGenInfo.worldSize.width.toDouble() / worldSize.height.toDouble()
-
-        val bufferedImage = BufferedImage(worldGenInfo.worldSize.width, worldGenInfo.worldSize.height,
-                                          BufferedImage.TYPE_INT_RGB)
-        val graphics = bufferedImage.graphics
-
-        for (x in 0 until worldGenInfo.worldSize.width) {
-            for (y in 0 until worldGenInfo.worldSize.height) {
-                val blockType = world.blockType(x, y)
-
-                val colorForOre = OreBlock.OreNoiseColorMap[blockType]!!
-
-                val final = colorForOre
-                bufferedImage.setRGB(x, y, final.rgb)
-            }
-        }
-
-        graphics.color = Color.magenta
-        graphics.drawLine(0, 200, worldGenInfo.worldSize.width, 200)
-
-        graphics.font = Font("SansSerif", Font.PLAIN, 8)
-        graphics.drawString("world seed: ${worldGenInfo.seed}", 200, 10)
-        graphics.drawString("date: ${Date.from(Instant.now()).toString()}", 200, 20)
-
-        graphics.drawString("y=200", 10, 190)
-
-        var fileUrl = WORLD_OUTPUT_IMAGE_BASE_PATH
-        val dir = File(fileUrl)
+    fun writeWorldImage(worldGenInfo: WorldGenOutputInfo, pool: ForkJoinPool = ForkJoinPool.commonPool()) {
+        val dir = File(WORLD_OUTPUT_IMAGE_BASE_PATH)
         if (!dir.exists()) {
             dir.mkdirs()
         }
 
-        if (worldGenInfo.useUniqueImageName) {
-            fileUrl += "worldgeneration-${worldGenInfo.seed}.png"
+        val fileName = if (worldGenInfo.useUniqueImageName) {
+            "worldgeneration-${worldGenInfo.seed}.png"
         } else {
-            fileUrl += "worldgeneration.png"
+            "worldgeneration.png"
         }
 
-        writeWorldImageLegendImprint(bufferedImage)
-
-        ImageIO.write(bufferedImage, "png", File(fileUrl))
+        WorldImageExporter(world).export(File(dir, fileName), worldGenInfo.seed, worldGenInfo.mipmapLevels, pool)
     }
 
     class PeakResult() {
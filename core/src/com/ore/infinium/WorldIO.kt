@@ -1,56 +1,443 @@
 package com.ore.infinium
 
-import java.io.FileOutputStream
+import kotlinx.coroutines.experimental.CommonPool
+import kotlinx.coroutines.experimental.async
+import kotlinx.coroutines.experimental.runBlocking
+import mu.KLogging
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import kotlin.system.measureTimeMillis
 
 class WorldIO(val oreWorld: OreWorld) {
-    fun loadWorld() {
-    }
+    companion object : KLogging()
 
     val FILESAVE_BASE_PATH = "../saveData/"
 
-    fun saveWorld() {
-        val saveFilePath = FILESAVE_BASE_PATH + "worldsave.save"
+    val saveFilePath: Path = Paths.get(FILESAVE_BASE_PATH, "world.region")
+
+    fun saveFileExists() = saveFilePath.toFile().exists()
+
+    val journalDirectory: Path = saveFilePath.parent
+
+    private val entityPersistence by lazy { EntityPersistence(oreWorld) }
+
+    /**
+     * the entity batches as they were last written, by chunk index. entities don't
+     * mark their chunk dirty when they change, so autosave compares against these.
+     */
+    private var savedEntityBatches: Map<Int, ByteArray> = emptyMap()
+
+    /**
+     * loads the blocks and entities of every chunk in the save file. the file is
+     * memory mapped and the blocks are decoded in parallel, every thread taking
+     * its own range of chunks. entities get created afterwards, on this thread.
+     *
+     * @return false if there is no save to load
+     * @throws IOException if there is a save, but it can't be loaded. one that is
+     * unreadable gets moved aside first (see moveSaveAside), one for a different world
+     * size is left where it is. either way it never gets overwritten by a new world
+     */
+    fun loadWorld(): Boolean {
+        if (!saveFileExists()) {
+            return false
+        }
+
+        val reader = try {
+            RegionFile.Reader(saveFilePath)
+        } catch (e: IOException) {
+            throw unloadableSave(e)
+        }
+
+        val ms = measureTimeMillis {
+            reader.use {
+                checkHeaderMatchesWorld(reader.header)
+
+                try {
+                    readChunksAndEntities(reader)
+                } catch (e: IOException) {
+                    reader.close()
+                    throw unloadableSave(e)
+                }
+            }
+
+            //replayed chunks get marked dirty again, so they can be written on their own
+            oreWorld.blocks.clearAllDirty()
+
+            val replayed = replayJournal()
+
+            oreWorld.blocks.compact()
+
+            if (replayed > 0) {
+                foldJournalIntoSave()
+            }
+        }
+
+        logger.debug { "world load took $ms ms" }
+        return true
+    }
+
+    private fun readChunksAndEntities(reader: RegionFile.Reader) {
+        oreWorld.worldSeed = reader.header.seed
+        oreWorld.lazyWorldGenerator?.let { generateMissingStrips(reader, it) }
+
+        val chunkCount = reader.header.chunkCount
+        val threadCount = Runtime.getRuntime().availableProcessors().coerceAtMost(chunkCount)
+        val jobs = List(threadCount) { threadId ->
+            async(CommonPool) {
+                reader.newDecoder().use { decoder ->
+                    for (chunkIndex in chunkCount * threadId / threadCount until
+                            chunkCount * (threadId + 1) / threadCount) {
+                        decoder.readChunk(chunkIndex, oreWorld.blocks)
+                    }
+                }
+            }
+        }
+
+        //await rethrows whatever failed in a decoder thread
+        runBlocking { jobs.forEach { it.await() } }
+
+        val entityBatches = HashMap<Int, ByteArray>()
+        var entityCount = 0
+        for (chunkIndex in 0 until chunkCount) {
+            val entityBatch = reader.readEntityBatch(chunkIndex) ?: continue
+            entityCount += entityPersistence.loadEntityBatch(entityBatch)
+            entityBatches[chunkIndex] = entityBatch
+        }
+
+        savedEntityBatches = entityBatches
+        logger.debug { "loaded $entityCount entities" }
+    }
 
-        val fs = FileOutputStream(saveFilePath).use { fs ->
+    /**
+     * writes the chunks the journal changed into the region file, so it doesn't have
+     * to be replayed again. goes through the same appending path as an autosave, the
+     * reader's mapping may still be around (until gc), and on windows a mapped file
+     * can't be replaced
+     */
+    private fun foldJournalIntoSave() {
+        autosaveDirtyChunks()
+        waitForAutosave()
 
-            //writeWorldHeader(fs)
-            writeWorldData(fs)
+        //no journal is open yet, so all of it is covered now. unless the write failed,
+        //then it stays, for the next load to replay again
+        if (failedAutosaveChunks.isEmpty()) {
+            deleteJournalBefore(null)
         }
     }
 
-    private fun writeWorldHeader(fs: FileOutputStream) {
-        val header = PbWorldHeader.newBuilder().apply {
-            sizeX = oreWorld.worldSize.width
-            sizeY = oreWorld.worldSize.height
-            worldName = "TEST WORLD NAME"
-            worldSeed = 123456789L
-        }.build()
+    /**
+     * moves the save out of the way (so it doesn't get lost), for a save that can't be loaded
+     *
+     * @return the exception to abort loading with
+     */
+    private fun unloadableSave(cause: IOException): IOException {
+        val movedTo = try {
+            moveSaveAside()
+        } catch (e: IOException) {
+            logger.error(e) { "world save can't be moved aside" }
+            return IOException("world save can't be loaded, left it at $saveFilePath", cause)
+        }
 
-        header.writeTo(fs)
+        return IOException("world save can't be loaded, moved it to $movedTo", cause)
     }
 
-    private fun writeWorldData(fs: FileOutputStream) {
-        val blocks = PbBlocks.newBuilder()
-        for (y in 0 until oreWorld.worldSize.width) {
-            for (x in 0 until oreWorld.worldSize.width) {
-                val blockType = oreWorld.blockType(x, y).toInt()
-                blocks.addBlockTypes(blockType)
+    /**
+     * moves the region file and its journal into a new directory next to them
+     *
+     * @return that directory
+     */
+    private fun moveSaveAside(): Path {
+        val aside = journalDirectory.resolve("unloadable-${System.currentTimeMillis()}")
+        Files.createDirectories(aside)
 
-                val blockWallType = oreWorld.blockWallType(x, y).toInt()
-                blocks.addBlockWallTypes(blockWallType)
+        for (path in BlockJournal.segments(journalDirectory) + saveFilePath) {
+            Files.move(path, aside.resolve(path.fileName))
+        }
+
+        return aside
+    }
 
-                val blockFlags = oreWorld.blockFlags(x, y).toInt()
-                blocks.addBlockFlags(blockFlags)
+    /**
+     * strips the save has every chunk of count as generated. strips it has only some
+     * chunks of (a crash between autosaves) get generated again, the saved chunks are
+     * decoded over them afterwards. strips without any saved chunk stay lazy.
+     */
+    private fun generateMissingStrips(reader: RegionFile.Reader, lazyWorldGenerator: LazyWorldGenerator) {
+        val presentChunks = IntArray(lazyWorldGenerator.stripCount)
+        val stripChunks = IntArray(lazyWorldGenerator.stripCount)
+        for (chunkIndex in 0 until reader.header.chunkCount) {
+            val strip = lazyWorldGenerator.stripOfChunk(chunkIndex)
+            ++stripChunks[strip]
+            if (reader.isChunkPresent(chunkIndex)) {
+                ++presentChunks[strip]
+            }
+        }
 
-                val blockLightLevel = oreWorld.blockLightLevel(x, y).toInt()
-                blocks.addBlockLightLevel(blockLightLevel)
+        for (strip in 0 until lazyWorldGenerator.stripCount) {
+            when (presentChunks[strip]) {
+                0 -> {
+                }
+                stripChunks[strip] -> lazyWorldGenerator.markStripGenerated(strip)
+                else -> lazyWorldGenerator.generateStrip(strip)
             }
         }
+    }
 
-        val b = PbWorldSave.newBuilder().setBlocks(blocks).build()
+    /**
+     * applies the block changes journaled since the region file was last saved.
+     * changes can be in strips that were generated after that save, so those
+     * get generated first.
+     *
+     * @return number of changes replayed
+     */
+    private fun replayJournal(): Int {
+        val blocks = oreWorld.blocks
+        val replayed = BlockJournal.replay(journalDirectory) { x, y, field, value ->
+            if (x in 0 until blocks.width && y in 0 until blocks.height) {
+                oreWorld.ensureGenerated(x, x)
+                blocks[x, y, field] = value
+            }
+        }
 
-        b.writeTo(fs)
+        if (replayed > 0) {
+            logger.debug { "replayed $replayed journaled block changes" }
+        }
 
+        return replayed
     }
 
+    /**
+     * from now on, every change to the saved block fields gets journaled,
+     * until the next save picks it up
+     */
+    fun openJournal() {
+        oreWorld.blockJournal = BlockJournal(journalDirectory)
+    }
+
+    /**
+     * the journal up to segment is covered by a save that is now on disk.
+     * with no journal open, there's nothing newer either, so all of it goes.
+     */
+    private fun deleteJournalBefore(segment: Long?) {
+        if (segment != null) {
+            oreWorld.blockJournal?.deleteSegmentsBefore(segment)
+            return
+        }
+
+        for (path in BlockJournal.segments(journalDirectory)) {
+            Files.deleteIfExists(path)
+        }
+    }
+
+    private fun checkHeaderMatchesWorld(header: RegionFile.Header) {
+        if (header.worldWidth != oreWorld.worldSize.width || header.worldHeight != oreWorld.worldSize.height) {
+            throw IOException("world save is ${header.worldWidth}x${header.worldHeight}, but world is " +
+                                      "${oreWorld.worldSize.width}x${oreWorld.worldSize.height}. start with the " +
+                                      "matching world size, or move $saveFilePath away for a new world")
+        }
+    }
+
+    /**
+     * full, synchronous save of every chunk. also reclaims the space
+     * autosaves leave behind in the file.
+     */
+    fun saveWorld() {
+        File(FILESAVE_BASE_PATH).mkdirs()
+
+        //can't replace the file while an autosave is still appending to it
+        waitForAutosave()
+
+        val ms = measureTimeMillis {
+            val journalSegment = oreWorld.blockJournal?.startNewSegment()
+
+            val entityBatches = entityPersistence.serializeEntityBatches()
+            val lazyWorldGenerator = oreWorld.lazyWorldGenerator
+            RegionFile.write(saveFilePath, oreWorld.blocks, oreWorld.worldSeed, entityBatches) { chunkIndex ->
+                lazyWorldGenerator?.isChunkGenerated(chunkIndex) ?: true
+            }
+            oreWorld.blocks.clearAllDirty()
+            savedEntityBatches = entityBatches
+
+            deleteJournalBefore(journalSegment)
+        }
+
+        logger.debug { "world save took $ms ms" }
+    }
+
+    /**
+     * created on first autosave, clients never need it
+     */
+    private var autosaveExecutor: ExecutorService? = null
+
+    private var pendingAutosave: Future<*>? = null
+
+    /**
+     * chunks whose background write failed, to be marked dirty again
+     * on the next autosave (by the game thread, which owns the blocks)
+     */
+    private val failedAutosaveChunks = ConcurrentLinkedQueue<Int>()
+
+    /**
+     * saves only the chunks that changed since they were last saved.
+     *
+     * called from the game thread; the only work done here is copying the dirty
+     * chunks out (a few KB each). compressing and writing them happens on the
+     * autosave thread. if the previous autosave is still busy, this one is skipped
+     * and its chunks stay dirty for the next.
+     */
+    fun autosaveDirtyChunks() {
+        if (!saveFileExists()) {
+            //first save has to be a full one, there's no chunk table to update yet
+            saveWorld()
+            return
+        }
+
+        if (pendingAutosave?.isDone == false) {
+            logger.debug { "previous autosave still running, skipping this one" }
+            return
+        }
+
+        val blocks = oreWorld.blocks
+        while (true) {
+            val failedChunk = failedAutosaveChunks.poll() ?: break
+            blocks.markChunkDirty(failedChunk)
+        }
+
+        val entityBatches = entityPersistence.serializeEntityBatches()
+        markChangedEntityChunksDirty(entityBatches)
+        savedEntityBatches = entityBatches
+
+        val chunkIndices = mutableListOf<Int>()
+        val snapshots = mutableListOf<ByteArray>()
+        val entitySnapshots = mutableListOf<ByteArray?>()
+
+        var chunkIndex = blocks.nextDirtyChunk(0)
+        while (chunkIndex != -1) {
+            val snapshot = ByteArray(RegionFile.RAW_CHUNK_SIZE)
+            RegionFile.snapshotChunk(blocks, chunkIndex, snapshot)
+
+            chunkIndices.add(chunkIndex)
+            snapshots.add(snapshot)
+            entitySnapshots.add(entityBatches[chunkIndex])
+            blocks.clearChunkDirty(chunkIndex)
+
+            chunkIndex = blocks.nextDirtyChunk(chunkIndex + 1)
+        }
+
+        if (chunkIndices.isEmpty()) {
+            return
+        }
+
+        //changes journaled from here on aren't in this autosave
+        val journalSegment = oreWorld.blockJournal?.startNewSegment()
+
+        val executor = autosaveExecutor ?: Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "world autosave").apply { isDaemon = true }
+        }
+        autosaveExecutor = executor
+
+        pendingAutosave = executor.submit {
+            if (writeChunkSnapshots(chunkIndices, snapshots, entitySnapshots) && journalSegment != null) {
+                oreWorld.blockJournal?.deleteSegmentsBefore(journalSegment)
+            }
+        }
+    }
+
+    /**
+     * chunks that gained, lost or changed entities since the last save
+     * have to be rewritten too, even if none of their blocks changed
+     */
+    private fun markChangedEntityChunksDirty(entityBatches: Map<Int, ByteArray>) {
+        val blocks = oreWorld.blocks
+        for ((chunkIndex, entityBatch) in entityBatches) {
+            if (!Arrays.equals(savedEntityBatches[chunkIndex], entityBatch)) {
+                blocks.markChunkDirty(chunkIndex)
+            }
+        }
+
+        for (chunkIndex in savedEntityBatches.keys) {
+            if (chunkIndex !in entityBatches) {
+                blocks.markChunkDirty(chunkIndex)
+            }
+        }
+    }
+
+    /**
+     * autosave thread only
+     *
+     * @return true if the chunks are on disk
+     */
+    private fun writeChunkSnapshots(chunkIndices: List<Int>,
+                                    snapshots: List<ByteArray>,
+                                    entitySnapshots: List<ByteArray?>): Boolean {
+        try {
+            val ms = measureTimeMillis {
+                val encoded = RegionFile.encodeChunks(chunkIndices.size) { index, raw ->
+                    System.arraycopy(snapshots[index], 0, raw, 0, RegionFile.RAW_CHUNK_SIZE)
+                }
+
+                val needsCompacting = RegionFile.Updater(saveFilePath).use { updater ->
+                    for (i in chunkIndices.indices) {
+                        updater.appendChunk(chunkIndices[i], encoded[i], entitySnapshots[i])
+                    }
+
+                    updater.commit()
+
+                    updater.deadBytes > updater.liveBytes
+                }
+
+                //chunks that keep changing (liquid, lights) get appended again every time,
+                //so without this the file would only ever grow during a session
+                if (needsCompacting) {
+                    compactSave()
+                }
+            }
+
+            logger.debug { "autosaved ${chunkIndices.size} chunks in $ms ms" }
+            return true
+        } catch (e: Exception) {
+            logger.error(e) { "autosave of ${chunkIndices.size} chunks failed, retrying them next time" }
+            failedAutosaveChunks.addAll(chunkIndices)
+            return false
+        }
+    }
+
+    /**
+     * autosave thread only. the chunks are already on disk by now, so failing this
+     * (e.g. on windows, while a load's mapping is still around) only costs space,
+     * and the next autosave tries again
+     */
+    private fun compactSave() {
+        try {
+            RegionFile.compact(saveFilePath)
+            logger.debug { "compacted world save" }
+        } catch (e: IOException) {
+            logger.error(e) { "compacting world save failed, trying again next autosave" }
+        }
+    }
+
+    private fun waitForAutosave() {
+        pendingAutosave?.get()
+        pendingAutosave = null
+    }
+
+    /**
+     * finishes any autosave that's in flight, and stops the autosave thread
+     */
+    fun shutdown() {
+        waitForAutosave()
+        autosaveExecutor?.apply {
+            shutdown()
+            awaitTermination(10, TimeUnit.SECONDS)
+        }
+    }
 }
@@ -0,0 +1,242 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import com.ore.infinium.util.PngStreamWriter
+import mu.KLogging
+import java.awt.Color
+import java.awt.Font
+import java.awt.Graphics
+import java.awt.image.BufferedImage
+import java.io.File
+import java.time.Instant
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+
+/**
+ * writes the world's blocks out as png images, for looking over seeds.
+ *
+ * the image is rendered in bands of BAND_HEIGHT rows, in parallel, and streamed
+ * to the png encoder in order. only a few bands per thread are ever in memory,
+ * so this works for any world size. optionally writes mipmaps too, each half the
+ * size of the one before, for a quick overview. those get downsampled from
+ * the same bands, on the same pass.
+ */
+class WorldImageExporter(private val world: OreWorld) {
+    companion object : KLogging() {
+        const val BAND_HEIGHT = 64
+
+        /**
+         * a band of the smallest mipmap is still one row high
+         */
+        const val MAX_MIPMAP_LEVELS = 6
+
+        /**
+         * rows at the top that get the seed, legend etc drawn over them
+         */
+        private const val ANNOTATED_ROWS = 210
+
+        private const val MARKER_Y = 200
+
+        /**
+         * colors of every block type, indexed by its unsigned value.
+         * unknown types show up magenta
+         */
+        private val palette = IntArray(256) { Color.MAGENTA.rgb and 0xffffff }.apply {
+            for ((oreValue, color) in OreBlock.OreNoiseColorMap) {
+                this[oreValue.toInt() and 0xff] = color.rgb and 0xffffff
+            }
+        }
+    }
+
+    private class Band(val levels: List<IntArray>)
+
+    /**
+     * @param file the full size image. mipmap level n goes next to it, as name-mipn.png
+     * @param mipmapLevels number of mipmaps to write along with it
+     */
+    fun export(file: File,
+               seed: Long,
+               mipmapLevels: Int = 0,
+               pool: ForkJoinPool = ForkJoinPool.commonPool()) {
+        require(mipmapLevels in 0..MAX_MIPMAP_LEVELS) { "at most $MAX_MIPMAP_LEVELS mipmap levels" }
+
+        val width = world.worldSize.width
+        val height = world.worldSize.height
+        val bandCount = (height + BAND_HEIGHT - 1) / BAND_HEIGHT
+        val date = Date.from(Instant.now())
+
+        val writers = (0..mipmapLevels).map { level ->
+            PngStreamWriter(mipmapFile(file, level), levelSize(width, level), levelSize(height, level))
+        }
+
+        //bounds memory, while keeping every thread busy
+        val maxBandsInFlight = pool.parallelism * 2
+        val inFlight = ArrayDeque<ForkJoinTask<Band>>()
+        try {
+            var nextBand = 0
+            while (nextBand < bandCount || inFlight.isNotEmpty()) {
+                while (nextBand < bandCount && inFlight.size < maxBandsInFlight) {
+                    val band = nextBand++
+                    inFlight.add(pool.submit(Callable { renderBand(band, seed, date, mipmapLevels) }))
+                }
+
+                val band = inFlight.removeFirst().join()
+                for ((level, pixels) in band.levels.withIndex()) {
+                    val writer = writers[level]
+                    writer.writeRows(pixels, pixels.size / writer.width)
+                }
+            }
+        } finally {
+            inFlight.forEach { it.cancel(false) }
+            writers.forEach { it.close() }
+        }
+    }
+
+    private fun mipmapFile(file: File, level: Int): File {
+        if (level == 0) {
+            return file
+        }
+
+        return File(file.parentFile, "${file.nameWithoutExtension}-mip$level.${file.extension}")
+    }
+
+    private fun levelSize(size: Int, level: Int) = (size + (1 shl level) - 1) shr level
+
+    private fun renderBand(band: Int, seed: Long, date: Date, mipmapLevels: Int): Band {
+        val width = world.worldSize.width
+        val startY = band * BAND_HEIGHT
+        val rows = Math.min(BAND_HEIGHT, world.worldSize.height - startY)
+
+        val pixels = IntArray(width * rows)
+        for (y in 0 until rows) {
+            for (x in 0 until width) {
+                pixels[y * width + x] = palette[world.blockType(x, startY + y).toInt() and 0xff]
+            }
+        }
+
+        if (startY < ANNOTATED_ROWS) {
+            annotate(pixels, width, rows, startY, seed, date)
+        }
+
+        val levels = ArrayList<IntArray>(mipmapLevels + 1)
+        levels.add(pixels)
+
+        var levelWidth = width
+        var levelRows = rows
+        for (level in 1..mipmapLevels) {
+            levels.add(downsample(levels.last(), levelWidth, levelRows))
+            levelWidth = (levelWidth + 1) shr 1
+            levelRows = (levelRows + 1) shr 1
+        }
+
+        return Band(levels)
+    }
+
+    /**
+     * averages every 2x2 pixels into one. odd edges average what's there
+     */
+    private fun downsample(pixels: IntArray, width: Int, rows: Int): IntArray {
+        val halfWidth = (width + 1) shr 1
+        val halfRows = (rows + 1) shr 1
+        val half = IntArray(halfWidth * halfRows)
+
+        for (y in 0 until halfRows) {
+            for (x in 0 until halfWidth) {
+                var red = 0
+                var green = 0
+                var blue = 0
+                var count = 0
+                for (sourceY in y * 2..Math.min(y * 2 + 1, rows - 1)) {
+                    for (sourceX in x * 2..Math.min(x * 2 + 1, width - 1)) {
+                        val rgb = pixels[sourceY * width + sourceX]
+                        red += (rgb shr 16) and 0xff
+                        green += (rgb shr 8) and 0xff
+                        blue += rgb and 0xff
+                        ++count
+                    }
+                }
+
+                half[y * halfWidth + x] = ((red / count) shl 16) or ((green / count) shl 8) or (blue / count)
+            }
+        }
+
+        return half
+    }
+
+    /**
+     * draws the seed, date, legend etc over a band at the top of the image. every
+     * band draws all of it, offset by where it is, and keeps the part that falls in it
+     */
+    private fun annotate(pixels: IntArray, width: Int, rows: Int, startY: Int, seed: Long, date: Date) {
+        val image = BufferedImage(width, rows, BufferedImage.TYPE_INT_RGB)
+        image.setRGB(0, 0, width, rows, pixels, 0, width)
+
+        val graphics = image.graphics
+        graphics.translate(0, -startY)
+
+        graphics.color = Color.magenta
+        graphics.drawLine(0, MARKER_Y, width, MARKER_Y)
+
+        graphics.font = Font("SansSerif", Font.PLAIN, 8)
+        graphics.drawString("world seed: $seed", 200, 10)
+        graphics.drawString("date: $date", 200, 20)
+
+        graphics.drawString("y=$MARKER_Y", 10, 190)
+
+        drawLegend(graphics)
+        graphics.dispose()
+
+        image.getRGB(0, 0, width, rows, pixels, 0, width)
+        for (i in pixels.indices) {
+            pixels[i] = pixels[i] and 0xffffff
+        }
+    }
+
+    private fun drawLegend(graphics: Graphics) {
+        graphics.font = Font("SansSerif", Font.PLAIN, 9)
+
+        val leftX = 5
+        val startY = 8
+        var index = 0
+        for ((oreValue, oreColor) in OreBlock.OreNoiseColorMap) {
+            val y = startY + index * 8
+
+            val oreLegendRectSize = 2
+
+            graphics.color = oreColor
+            graphics.fillRect(leftX, y, oreLegendRectSize, oreLegendRectSize)
+
+            graphics.color = Color.MAGENTA
+
+            val oreName = OreBlock.BlockType.values().first { it -> it.oreValue == oreValue }.name
+            graphics.drawString(oreName, leftX + oreLegendRectSize * 2, y + 3)
+
+            ++index
+        }
+    }
+}
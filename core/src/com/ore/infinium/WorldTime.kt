@@ -26,43 +26,77 @@ package com.ore.infinium
 
 import java.time.LocalTime
 
+/**
+ * the time of day in the world. the server's is the real one, it gets sent to
+ * the clients every now and then, who keep ticking theirs along in between.
+ *
+ * sunlight is stored at full daylight (see [OreBlock.BLOCK_BYTE_FIELD_INDEX_SUNLIGHT_LEVEL]),
+ * and only scaled by [sunlightFactor] when it gets combined with the block light.
+ * so night falling doesn't relight or resend anything.
+ */
 class WorldTime {
-    private var time: LocalTime? = null
+    companion object {
+        const val SECONDS_PER_DAY = 24 * 60 * 60
 
-    fun setTime(hour: Int, minute: Int, second: Int) {
-        time = LocalTime.of(hour, minute, second)
+        /**
+         * world seconds that pass every real second. a day lasts 24 real minutes
+         */
+        const val WORLD_SECONDS_PER_SECOND = 60.0
+
+        /**
+         * what's left of the sunlight at night, so it's not pitch black
+         */
+        const val NIGHT_SUNLIGHT_FACTOR = 0.2f
+
+        //the sun rises from 5 until 7, and sets from 18 until 20
+        private const val DAWN_START = 5 * 60 * 60
+        private const val DAWN_END = 7 * 60 * 60
+        private const val DUSK_START = 18 * 60 * 60
+        private const val DUSK_END = 20 * 60 * 60
     }
 
-    fun tick(elapsedTime: Double) {
+    /**
+     * starts at noon
+     */
+    private var secondOfDay = 12.0 * 60 * 60
 
-        /*
-            uint8_t interval = 1;
-    minute += interval;
+    val hour: Int
+        get() = secondOfDay.toInt() / (60 * 60)
 
-    if (second >= 60) {
-        ++minute;
-        second -= 60;
-    }
+    val minute: Int
+        get() = secondOfDay.toInt() / 60 % 60
 
-    if (minute >= 60) {
-        ++hour;
-        minute -= 60;
-    }
+    val second: Int
+        get() = secondOfDay.toInt() % 60
 
-    if (hour >= 24) {
-        hour -= 24;
+    fun setTime(hour: Int, minute: Int, second: Int) {
+        secondOfDay = LocalTime.of(hour, minute, second).toSecondOfDay().toDouble()
     }
 
-    assert(minute <= 59 && second <= 59)
-    assert(hour <= 23)
-}
-
-         */
+    /**
+     * @param elapsedTime real seconds since the last tick
+     */
+    fun tick(elapsedTime: Double) {
+        secondOfDay = (secondOfDay + elapsedTime * WORLD_SECONDS_PER_SECOND) % SECONDS_PER_DAY
+    }
 
+    /**
+     * how much of the (full daylight) sunlight reaches the world right now.
+     * 1 during the day, [NIGHT_SUNLIGHT_FACTOR] at night, fading in between
+     */
+    fun sunlightFactor(): Float {
+        val seconds = secondOfDay.toInt()
+        val daylight = when {
+            seconds < DAWN_START || seconds >= DUSK_END -> 0f
+            seconds < DAWN_END -> (seconds - DAWN_START).toFloat() / (DAWN_END - DAWN_START)
+            seconds < DUSK_START -> 1f
+            else -> 1f - (seconds - DUSK_START).toFloat() / (DUSK_END - DUSK_START)
+        }
+
+        return NIGHT_SUNLIGHT_FACTOR + (1f - NIGHT_SUNLIGHT_FACTOR) * daylight
     }
 
     fun timeString(): String {
-        return time!!.toString()
+        return LocalTime.ofSecondOfDay(secondOfDay.toLong()).toString()
     }
 }
-
@@ -30,6 +30,7 @@ import com.ore.infinium.OreWorld
 import com.ore.infinium.components.ItemComponent
 import com.ore.infinium.components.SpriteComponent
 import com.ore.infinium.components.ToolComponent
+import com.ore.infinium.systems.server.LiquidSimulationSystem
 import com.ore.infinium.systems.server.ServerNetworkSystem
 import com.ore.infinium.util.allOf
 import com.ore.infinium.util.mapper
@@ -44,6 +45,7 @@ class ExplosiveSystem(private val oreWorld: OreWorld) : IteratingSystem(allOf())
     private val mSprite by mapper<SpriteComponent>()
 
     private val serverNetworkSystem by system<ServerNetworkSystem>()
+    private val liquidSimulationSystem by system<LiquidSimulationSystem>()
 
     override fun process(entityId: Int) {
         val cItem = mItem.get(entityId)
@@ -80,6 +82,8 @@ class ExplosiveSystem(private val oreWorld: OreWorld) : IteratingSystem(allOf())
                 }
             }
 
+            liquidSimulationSystem.wakeRegion(left = left, right = right, top = top, bottom = bottom)
+
             oreWorld.serverDestroyEntity(entityId)
             serverNetworkSystem.sendBlockRegionInterestedPlayers(left = left, right = right, top = top, bottom = bottom)
         }
@@ -43,5 +43,6 @@ class GameTickSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
     override fun processSystem() {
         ticks += 1
+        oreWorld.worldTime.tick(world.delta.toDouble())
     }
 }
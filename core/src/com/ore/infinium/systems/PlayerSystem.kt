@@ -28,11 +28,14 @@ import com.artemis.Aspect
 import com.artemis.annotations.Wire
 import com.artemis.systems.IteratingSystem
 import com.badlogic.gdx.math.Vector2
+import com.ore.infinium.LazyWorldGenerator
 import com.ore.infinium.OreTimer
 import com.ore.infinium.OreWorld
 import com.ore.infinium.components.PlayerComponent
 import com.ore.infinium.components.SpriteComponent
+import com.ore.infinium.systems.server.LiquidSimulationSystem
 import com.ore.infinium.systems.server.ServerNetworkSystem
+import com.ore.infinium.systems.server.TileLightingSystem
 import com.ore.infinium.util.mapper
 import com.ore.infinium.util.require
 import com.ore.infinium.util.system
@@ -44,9 +47,16 @@ class PlayerSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.all(
     private val mSprite by mapper<SpriteComponent>()
 
     private val serverNetworkSystem by system<ServerNetworkSystem>()
+    private val liquidSimulationSystem by system<LiquidSimulationSystem>()
 
     private val chunkTimer = OreTimer()
 
+    /**
+     * players whose viewport is (partly) on strips that are still being generated.
+     * they get their blocks once those are in the world, see stripGenerated
+     */
+    private val playersAwaitingBlocks = mutableSetOf<Int>()
+
     override fun inserted(entityId: Int) {
         super.inserted(entityId)
 
@@ -55,11 +65,26 @@ class PlayerSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.all(
             return
         }
 
-        //initial spawn, send region
-        calculateLoadedViewport(entityId)
+        //initial spawn, send region. they can't do anything without their blocks, so don't make them wait for it
+        calculateLoadedViewport(entityId, waitForBlocks = true)
         sendPlayerBlockRegion(entityId)
     }
 
+    override fun removed(entityId: Int) {
+        super.removed(entityId)
+
+        playersAwaitingBlocks.remove(entityId)
+    }
+
+    override fun begin() {
+        if (oreWorld.isClient) {
+            return
+        }
+
+        //strips that got done generating in the background since last tick
+        oreWorld.lazyWorldGenerator?.installGeneratedStrips()
+    }
+
     override fun process(entityId: Int) {
         if (oreWorld.isClient) {
             return
@@ -87,15 +112,34 @@ class PlayerSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.all(
         }
     }
 
-    private fun calculateLoadedViewport(playerEntity: Int) {
+    private fun calculateLoadedViewport(playerEntity: Int, waitForBlocks: Boolean = false) {
         val cPlayer = mPlayer.get(playerEntity)
         val cSprite = mSprite.get(playerEntity)
 
         val loadedViewport = cPlayer.loadedViewport
+        val previousRegion = loadedViewport.blockRegionInViewport()
 
         val center = Vector2(cSprite.sprite.x, cSprite.sprite.y)
         loadedViewport.centerOn(center, oreWorld)
 
+        //first time anyone sees these blocks, they may still need generating. that starts
+        //a strip ahead of where they're looking, so it's usually done before they get there
+        //(region.width and height are the right and bottom edge, not sizes)
+        val region = loadedViewport.blockRegionInViewport()
+        if (waitForBlocks) {
+            oreWorld.ensureGenerated(region.x, region.width)
+        }
+        oreWorld.lazyWorldGenerator?.requestStrips(region.x - LazyWorldGenerator.STRIP_WIDTH,
+                                                   region.width + LazyWorldGenerator.STRIP_WIDTH)
+
+        if (region.x != previousRegion.x || region.y != previousRegion.y ||
+                region.width != previousRegion.width || region.height != previousRegion.height) {
+            //water that was still flowing when the world got saved, or that
+            //got generated without settling, only starts moving once woken
+            liquidSimulationSystem.wakeRegion(left = region.x, right = region.width,
+                                              top = region.y, bottom = region.height)
+        }
+
         serverNetworkSystem.sendPlayerLoadedViewportMoved(playerEntity)
 
         //todo send only partials depending on direction they're traveling(distance from origin).
@@ -108,7 +152,35 @@ class PlayerSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.all(
 
         val region = loadedViewport.blockRegionInViewport()
 
+        //placeholder air until it's generated, they get sent the real blocks then instead
+        if (oreWorld.lazyWorldGenerator?.isGenerated(region.x, region.width) == false) {
+            playersAwaitingBlocks.add(playerEntity)
+            return
+        }
+
+        playersAwaitingBlocks.remove(playerEntity)
+
         serverNetworkSystem.sendPlayerBlockRegion(playerEntity, region.x, region.width, region.y,
                                                   region.height)
     }
+
+    /**
+     * a strip got generated (see LazyWorldGenerator), with the block columns fromX until toX.
+     * players waiting for it get their blocks, and so does everyone looking at it, or at
+     * the columns around it that the lighting changed of
+     */
+    fun stripGenerated(fromX: Int, toX: Int) {
+        val left = fromX - TileLightingSystem.MAX_TILE_LIGHT_LEVEL
+        val right = toX - 1 + TileLightingSystem.MAX_TILE_LIGHT_LEVEL
+
+        for (player in oreWorld.players()) {
+            val region = mPlayer.get(player).loadedViewport.blockRegionInViewport()
+            if (player in playersAwaitingBlocks || (region.x <= right && region.width >= left)) {
+                //the water of the new blocks hasn't been moving yet either
+                liquidSimulationSystem.wakeRegion(left = region.x, right = region.width,
+                                                  top = region.y, bottom = region.height)
+                sendPlayerBlockRegion(player)
+            }
+        }
+    }
 }
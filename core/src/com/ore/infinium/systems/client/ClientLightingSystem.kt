@@ -0,0 +1,328 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.systems.client
+
+import com.artemis.BaseSystem
+import com.artemis.annotations.Wire
+import com.artemis.managers.TagManager
+import com.artemis.utils.IntBag
+import com.ore.infinium.LightPropagator
+import com.ore.infinium.Network
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import com.ore.infinium.components.*
+import com.ore.infinium.systems.server.TileLightingSystem
+import com.ore.infinium.systems.server.TileLightingSystem.Companion.MAX_TILE_LIGHT_LEVEL
+import com.ore.infinium.util.*
+
+/**
+ * the server never sends sunlight, and with --clientLighting no block light either.
+ * this lights the blocks of the loaded viewport instead, with the same propagation
+ * the server uses, from the sky heights that come with every block region and
+ * (with --clientLighting) the lights the client knows about.
+ *
+ * changes (blocks, lights added, removed or toggled) are collected into one dirty
+ * rectangle, which gets relit on the next tick, along with as far as light reaches
+ * from it. the whole viewport only gets relit when it moves.
+ */
+@Wire
+class ClientLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
+    private val mPlayer by mapper<PlayerComponent>()
+    private val mLight by mapper<LightComponent>()
+    private val mItem by mapper<ItemComponent>()
+    private val mSprite by mapper<SpriteComponent>()
+    private val mDevice by mapper<PowerDeviceComponent>()
+
+    private val tagManager by system<TagManager>()
+
+    companion object {
+        /**
+         * how far down from the top of the world the sky lights things up
+         */
+        const val SUNLIGHT_DEPTH = 200
+    }
+
+    private val lightPropagator = LightPropagator(oreWorld)
+    private val sunlightPropagator = LightPropagator(oreWorld, OreBlock.BLOCK_BYTE_FIELD_INDEX_SUNLIGHT_LEVEL,
+                                                     openAirAttenuation = 0)
+
+    /**
+     * of the columns we got blocks for. open all the way down until then
+     */
+    private val skyHeights = IntArray(oreWorld.worldSize.width) { oreWorld.worldSize.height }
+
+    /**
+     * set once the server sends blocks without their light, from then on
+     * the block light is up to us too
+     */
+    var lightsBlocks = false
+        private set
+
+    /**
+     * bounds (inclusive) of what changed since the last relight.
+     * left is greater than right if nothing did
+     */
+    private var dirtyLeft = Int.MAX_VALUE
+    private var dirtyRight = Int.MIN_VALUE
+    private var dirtyTop = Int.MAX_VALUE
+    private var dirtyBottom = Int.MIN_VALUE
+
+    /**
+     * the viewport it was lit for last, -1 before the first time
+     */
+    private var litLeft = -1
+    private var litRight = -1
+    private var litTop = -1
+    private var litBottom = -1
+
+    override fun initialize() {
+        val subscription = world.aspectSubscriptionManager.get(allOf(LightComponent::class))
+        subscription.addSubscriptionListener(object : OreEntitySubscriptionListener {
+            override fun inserted(entities: IntBag) = entities.forEach { lightChanged(it) }
+            override fun removed(entities: IntBag) = entities.forEach { lightChanged(it) }
+        })
+    }
+
+    fun blockRegionReceived(region: Network.Shared.BlockRegion) {
+        if (!region.includesLight) {
+            lightsBlocks = true
+        }
+
+        val regionSkyHeights = region.skyHeights
+        System.arraycopy(regionSkyHeights, 0, skyHeights, region.x, regionSkyHeights.size)
+
+        markDirty(region.x, region.x2, region.y, region.y2)
+    }
+
+    /**
+     * a light got added, removed or toggled
+     */
+    fun lightChanged(light: Int) {
+        val cSprite = mSprite.opt(light) ?: return
+        val x = cSprite.sprite.x.toInt()
+        val y = cSprite.sprite.y.toInt()
+        markDirty(x, x, y, y)
+    }
+
+    private fun markDirty(left: Int, right: Int, top: Int, bottom: Int) {
+        dirtyLeft = minOf(dirtyLeft, left)
+        dirtyRight = maxOf(dirtyRight, right)
+        dirtyTop = minOf(dirtyTop, top)
+        dirtyBottom = maxOf(dirtyBottom, bottom)
+    }
+
+    override fun processSystem() {
+        val player = tagManager.getEntity(OreWorld.s_mainPlayer) ?: return
+        val region = mPlayer.get(player.id).loadedViewport.blockRegionInViewport()
+        if (region.width <= region.x || region.height <= region.y) {
+            //don't know where we are yet
+            return
+        }
+
+        if (region.x != litLeft || region.width != litRight || region.y != litTop || region.height != litBottom) {
+            //what got lit at the old edges didn't know about anything past them
+            litLeft = region.x
+            litRight = region.width
+            litTop = region.y
+            litBottom = region.height
+            markDirty(litLeft, litRight, litTop, litBottom)
+        }
+
+        if (dirtyLeft > dirtyRight) {
+            return
+        }
+
+        val reach = MAX_TILE_LIGHT_LEVEL.toInt()
+        relightSunlight(left = maxOf(dirtyLeft - reach, litLeft), right = minOf(dirtyRight + reach, litRight),
+                        top = maxOf(dirtyTop - reach, litTop), bottom = minOf(dirtyBottom + reach, litBottom))
+
+        if (lightsBlocks) {
+            relightBlocks(left = dirtyLeft - reach, right = dirtyRight + reach,
+                          top = dirtyTop - reach, bottom = dirtyBottom + reach)
+        }
+
+        dirtyLeft = Int.MAX_VALUE
+        dirtyRight = Int.MIN_VALUE
+        dirtyTop = Int.MAX_VALUE
+        dirtyBottom = Int.MIN_VALUE
+    }
+
+    private fun sunlitHeight(x: Int) = minOf(skyHeights[x], SUNLIGHT_DEPTH)
+
+    /**
+     * relights the sunlight of left..right, top..bottom, within the viewport. we don't know
+     * where the sky is outside of it, it would just spread into nothing.
+     *
+     * a change can't reach farther than MAX_TILE_LIGHT_LEVEL through anything that dims
+     * light. in open air without walls sunlight doesn't fade though, so the sunlight of
+     * a big open area under an overhang can be stale past that, until the viewport moves
+     */
+    private fun relightSunlight(left: Int, right: Int, top: Int, bottom: Int) {
+        if (left > right || top > bottom) {
+            return
+        }
+
+        for (y in top..bottom) {
+            for (x in left..right) {
+                oreWorld.setBlockSunlightLevel(x, y, 0)
+            }
+        }
+
+        sunlightPropagator.limitTo(left, right, top, bottom)
+        addEdgeSources(sunlightPropagator, OreBlock.BLOCK_BYTE_FIELD_INDEX_SUNLIGHT_LEVEL, left, right, top, bottom,
+                       litLeft, litRight, litTop, litBottom)
+        sunlightPropagator.addSky(left, right, top, bottom, MAX_TILE_LIGHT_LEVEL.toInt(), this::sunlitHeight)
+        sunlightPropagator.propagate()
+    }
+
+    /**
+     * relights the block light of left..right, top..bottom, as far as it's within the
+     * viewport plus the brightest light's reach (lights out there still shine into
+     * the viewport). the blocks there are whatever we last got of them, which may
+     * be out of date, or air if we never got them, so it's only as right as they are
+     */
+    private fun relightBlocks(left: Int, right: Int, top: Int, bottom: Int) {
+        val reach = MAX_TILE_LIGHT_LEVEL.toInt()
+        val lightLeft = (litLeft - reach).coerceAtLeast(0)
+        val lightRight = (litRight + reach).coerceAtMost(oreWorld.worldSize.width - 1)
+        val lightTop = (litTop - reach).coerceAtLeast(0)
+        val lightBottom = (litBottom + reach).coerceAtMost(oreWorld.worldSize.height - 1)
+
+        val relitLeft = maxOf(left, lightLeft)
+        val relitRight = minOf(right, lightRight)
+        val relitTop = maxOf(top, lightTop)
+        val relitBottom = minOf(bottom, lightBottom)
+        if (relitLeft > relitRight || relitTop > relitBottom) {
+            return
+        }
+
+        for (y in relitTop..relitBottom) {
+            for (x in relitLeft..relitRight) {
+                oreWorld.setBlockLightLevel(x, y, 0)
+            }
+        }
+
+        lightPropagator.limitTo(relitLeft, relitRight, relitTop, relitBottom)
+        addEdgeSources(lightPropagator, OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL,
+                       relitLeft, relitRight, relitTop, relitBottom,
+                       lightLeft, lightRight, lightTop, lightBottom)
+
+        oreWorld.getEntitiesWithComponent<LightComponent>().forEach { light ->
+            val cItem = mItem.opt(light)
+            if (cItem == null || cItem.state != ItemComponent.State.InWorldState ||
+                    oreWorld.shouldIgnoreClientEntityTag(light)) {
+                return@forEach
+            }
+
+            val cSprite = mSprite.get(light)
+            val x = cSprite.sprite.x.toInt()
+            val y = cSprite.sprite.y.toInt()
+            if (x !in relitLeft..relitRight || y !in relitTop..relitBottom) {
+                return@forEach
+            }
+
+            val running = mDevice.opt(light)?.running ?: false
+            val lightLevel = TileLightingSystem.lightLevelForLight(deviceRunning = running,
+                                                                   lightRadius = mLight.get(light).radius)
+            if (lightLevel > 0) {
+                lightPropagator.addLight(x, y, lightLevel.toInt())
+            }
+        }
+
+        lightPropagator.propagate()
+    }
+
+    /**
+     * the lit tiles right outside of left..right, top..bottom (but within knownLeft..knownRight,
+     * knownTop..knownBottom, nothing is lit outside of that) shine back into it, once it's
+     * been darkened. they're queued as sources, for the propagator's next propagate
+     */
+    private fun addEdgeSources(propagator: LightPropagator, field: Int, left: Int, right: Int, top: Int, bottom: Int,
+                               knownLeft: Int, knownRight: Int, knownTop: Int, knownBottom: Int) {
+        for (x in intArrayOf(left - 1, right + 1)) {
+            if (x < knownLeft || x > knownRight) {
+                continue
+            }
+
+            for (y in top..bottom) {
+                if (oreWorld.blocks[x, y, field] > 0) {
+                    propagator.addSource(x, y)
+                }
+            }
+        }
+
+        for (y in intArrayOf(top - 1, bottom + 1)) {
+            if (y < knownTop || y > knownBottom) {
+                continue
+            }
+
+            for (x in left..right) {
+                if (oreWorld.blocks[x, y, field] > 0) {
+                    propagator.addSource(x, y)
+                }
+            }
+        }
+    }
+
+    /**
+     * keeps the sky heights up to date like SkyHeightmap.blockChanged does on the server,
+     * for blocks that came in one at a time. if the top of a column got dug out, what's
+     * below it is only looked for in the blocks we have
+     */
+    fun blocksChanged(update: Network.Shared.SparseBlockUpdate) {
+        for (sparseBlock in update.blocks) {
+            val x = sparseBlock.x
+            val y = sparseBlock.y
+            val skyHeight = skyHeights[x]
+            if (blocksSky(x, y)) {
+                if (y < skyHeight) {
+                    skyHeights[x] = y
+                }
+            } else if (y == skyHeight) {
+                skyHeights[x] = firstBlockingFrom(x, y + 1)
+            }
+
+            if (skyHeights[x] != skyHeight) {
+                //it moved from or to y, the column is lit differently down to the other one
+                markDirty(x, x, y, maxOf(y, minOf(maxOf(skyHeight, skyHeights[x]), SUNLIGHT_DEPTH)))
+            } else {
+                markDirty(x, x, y, y)
+            }
+        }
+    }
+
+    private fun blocksSky(x: Int, y: Int) =
+            oreWorld.isBlockSolid(x, y) || oreWorld.blockWallType(x, y) != OreBlock.WallType.Air.oreValue
+
+    private fun firstBlockingFrom(x: Int, fromY: Int): Int {
+        for (y in fromY until oreWorld.worldSize.height) {
+            if (blocksSky(x, y)) {
+                return y
+            }
+        }
+
+        return oreWorld.worldSize.height
+    }
+}
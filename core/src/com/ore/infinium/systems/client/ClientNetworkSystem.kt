@@ -72,10 +72,12 @@ class ClientNetworkSystem(private val oreWorld: OreWorld) : BaseSystem() {
     private val mAir by mapper<AirComponent>()
     private val mHealth by mapper<HealthComponent>()
     private val mDoor by mapper<DoorComponent>()
+    private val mDevice by mapper<PowerDeviceComponent>()
 
     private val tagManager by system<TagManager>()
     private val tileRenderSystem by system<TileRenderSystem>()
     private val soundSystem by system<SoundSystem>()
+    private val clientLightingSystem by system<ClientLightingSystem>()
 
     private val netQueue = ConcurrentLinkedQueue<Any>()
 
@@ -243,7 +245,9 @@ class ClientNetworkSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
             is Network.Server.ChatMessage -> receiveChatMessage(receivedObject)
             is Network.Server.PlayerAirChanged -> receiveAirChanged(receivedObject)
+            is Network.Server.WorldTimeChanged -> receiveWorldTimeChanged(receivedObject)
             is Network.Server.DoorOpen -> receiveDoorOpen(receivedObject)
+            is Network.Server.DeviceToggle -> receiveDeviceToggle(receivedObject)
 
             is FrameworkMessage.Ping -> {
             }
@@ -269,6 +273,18 @@ class ClientNetworkSystem(private val oreWorld: OreWorld) : BaseSystem() {
         }
     }
 
+    /**
+     * only sent with client lighting, for lights turning on and off
+     */
+    private fun receiveDeviceToggle(toggle: Network.Server.DeviceToggle) {
+        val localId = entityForNetworkId[toggle.entityId] ?: return
+        mDevice.ifPresent(localId) { device ->
+            device.running = toggle.running
+        }
+
+        clientLightingSystem.lightChanged(localId)
+    }
+
     /**
      * door was toggled state, open/closed
      */
@@ -295,6 +311,10 @@ class ClientNetworkSystem(private val oreWorld: OreWorld) : BaseSystem() {
         }
     }
 
+    private fun receiveWorldTimeChanged(worldTimeChanged: Network.Server.WorldTimeChanged) {
+        oreWorld.worldTime.setTime(worldTimeChanged.hour, worldTimeChanged.minute, worldTimeChanged.second)
+    }
+
     private fun receiveAirChanged(airChanged: Network.Server.PlayerAirChanged) {
         val player = tagManager.getEntity(OreWorld.s_mainPlayer).id
 
@@ -540,6 +560,7 @@ class ClientNetworkSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
     private fun receiveSparseBlockUpdate(sparseBlockUpdate: Network.Shared.SparseBlockUpdate) {
         oreWorld.loadSparseBlockUpdate(sparseBlockUpdate)
+        clientLightingSystem.blocksChanged(sparseBlockUpdate)
     }
 
     private fun receiveDisconnectReason(disconnectReason: Network.Shared.DisconnectReason) {
@@ -576,26 +597,8 @@ class ClientNetworkSystem(private val oreWorld: OreWorld) : BaseSystem() {
     }
 
     private fun receiveBlockRegion(region: Network.Shared.BlockRegion) {
-        var sourceIndex = 0
-        for (y in region.y..region.y2) {
-            for (x in region.x..region.x2) {
-                val blockType = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE]
-                oreWorld.setBlockType(x, y, blockType)
-
-                val wallType = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE]
-                oreWorld.setBlockWallType(x, y, wallType)
-
-                val lightLevel = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_LIGHT_LEVEL]
-                oreWorld.setBlockLightLevel(x, y, lightLevel)
-
-                val flags = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS]
-                oreWorld.setBlockFlags(x, y, flags)
-
-                ++sourceIndex
-            }
-        }
-
-        //log("client block region", "received/loaded $sourceIndex tiles from server");
+        oreWorld.loadBlockRegion(region)
+        clientLightingSystem.blockRegionReceived(region)
 
         //fixme should re transition tiles in this area
     }
@@ -256,7 +256,7 @@ class DebugTextRenderSystem(camera: OrthographicCamera,
         val hasGrass = oreWorld.blockHasFlag(x, y, OreBlock.BlockFlags.GrassBlock)
 
         val damagedBlockHealth = clientBlockDiggingSystem.blockHealthAtIndex(x, y)
-        val totalBlockHealth = OreBlock.blockAttributes[blockType]!!.blockTotalHealth
+        val totalBlockHealth = OreBlock.totalHealth(blockType)
 
         drawNextLeftString("blockHealth: $damagedBlockHealth / $totalBlockHealth")
 
@@ -267,11 +267,13 @@ class DebugTextRenderSystem(camera: OrthographicCamera,
         }
 
         val lightLevel = oreWorld.blockLightLevel(x, y)
+        val sunlightLevel = oreWorld.blockSunlightLevel(x, y)
         val maxLight = TileLightingSystem.MAX_TILE_LIGHT_LEVEL
-        val computedLightLevel = tileRenderSystem.computeLightValueColor(lightLevel)
+        val computedLightLevel = tileRenderSystem.computeLightValueColor(tileRenderSystem.combinedLightLevel(x, y))
         val s = """tile($x, $y), block type: $blockTypeName,
             |mesh: $blockMeshType, walltype: $blockWallType
             |texture: $texture , LightLevel: $lightLevel/$maxLight,
+            |sunlight: $sunlightLevel/$maxLight at ${oreWorld.worldTime.timeString()},
             |computed rgb: $computedLightLevel""".toSingleLine()
 
         drawNextLeftString(s)
@@ -57,6 +57,13 @@ class TileRenderSystem(private val camera: OrthographicCamera,
     var debugRenderTileLighting = true
     var debugTilesInViewCount: Int = 0
 
+    /**
+     * how much of the sunlight there is right now, for this frame
+     * @see WorldTime.sunlightFactor
+     */
+    var sunlightFactor = 1f
+        private set
+
     var blockAtlas: TextureAtlas = TextureAtlas("packed/blocks.atlas")
     var tilesAtlas: TextureAtlas = TextureAtlas("packed/tiles.atlas")
 
@@ -159,6 +166,9 @@ class TileRenderSystem(private val camera: OrthographicCamera,
 
         batch.projectionMatrix = camera.combined
 
+        //day and night only change how the sunlight gets combined in, nothing gets relit
+        sunlightFactor = oreWorld.worldTime.sunlightFactor()
+
         renderTiles()
         renderLightMap()
         renderBlendLightMapOnTop()
@@ -373,9 +383,18 @@ class TileRenderSystem(private val camera: OrthographicCamera,
         }
     }
 
+    /**
+     * the block light, or the sunlight dimmed by the time of day, whichever is brighter
+     */
+    fun combinedLightLevel(x: Int, y: Int): Byte {
+        val sunlightLevel = (oreWorld.blockSunlightLevel(x, y) * sunlightFactor).toInt()
+
+        return maxOf(oreWorld.blockLightLevel(x, y).toInt(), sunlightLevel).toByte()
+    }
+
     fun debugLightLevel(x: Int, y: Int): Byte {
         if (debugRenderTileLighting) {
-            return oreWorld.blockLightLevel(x, y)
+            return combinedLightLevel(x, y)
         } else {
             return TileLightingSystem.MAX_TILE_LIGHT_LEVEL
         }
@@ -100,8 +100,13 @@ class TileTransitionSystem(private val camera: OrthographicCamera, private val o
 
         val player = tagManager.getEntity(OreWorld.s_mainPlayer).id
         val cPlayer = mPlayer.get(player)
-        val blockRegion = cPlayer.loadedViewport.blockRegionInViewport()
+        transitionRegion(cPlayer.loadedViewport.blockRegionInViewport())
+    }
 
+    /**
+     * sets the mesh type of every block in the region, according to its neighbours
+     */
+    fun transitionRegion(blockRegion: LoadedViewport.PlayerViewportBlockRegion) {
         transitionTiles(blockRegion)
         transitionGrass(blockRegion)
     }
@@ -149,7 +154,7 @@ class TileTransitionSystem(private val camera: OrthographicCamera, private val o
                     val bottomLeftEmpty = bottomLeftBlockType == OreBlock.BlockType.Air.oreValue
                     val bottomRightEmpty = bottomRightBlockType == OreBlock.BlockType.Air.oreValue
 
-                    val leftOre = OreBlock.blockAttributes[leftBlockType]!!.category == OreBlock.BlockAttributes.BlockCategory.Ore
+                    val leftOre = OreBlock.isOre(leftBlockType)
 
                     var finalMesh: Byte = -1
 
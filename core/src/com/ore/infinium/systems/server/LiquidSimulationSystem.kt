@@ -27,20 +27,59 @@ package com.ore.infinium.systems.server
 import com.artemis.BaseSystem
 import com.artemis.annotations.Wire
 import com.badlogic.gdx.math.RandomXS128
-import com.badlogic.gdx.math.Rectangle
+import com.ore.infinium.ActiveCellSet
+import com.ore.infinium.ChunkedBlockStorage.Companion.CHUNK_MASK
+import com.ore.infinium.ChunkedBlockStorage.Companion.CHUNK_SHIFT
+import com.ore.infinium.Network
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreSettings
 import com.ore.infinium.OreWorld
 import com.ore.infinium.components.PlayerComponent
-import com.ore.infinium.systems.PlayerSystem
 import com.ore.infinium.util.*
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+import com.badlogic.gdx.utils.IntArray as GdxIntArray
 
 @Wire
-class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
+class LiquidSimulationSystem(private val oreWorld: OreWorld,
+                             private val pool: ForkJoinPool = ForkJoinPool.commonPool()) : BaseSystem() {
     private val mPlayer by mapper<PlayerComponent>()
 
     private val serverNetworkSystem by system<ServerNetworkSystem>()
-    private val playerSystem by system<PlayerSystem>()
+
+    /**
+     * water cells that may still be able to flow somewhere. only these get
+     * simulated, everything else is assumed settled. a cell drops out once
+     * it's processed without moving any liquid, and gets woken back up by
+     * liquid moving next to it or by block edits around it.
+     */
+    private lateinit var activeCells: ActiveCellSet
+
+    /**
+     * swapped with [activeCells] each tick, so cells woken while processing
+     * land in the next tick's set
+     */
+    private lateinit var spareCells: ActiveCellSet
+
+    /**
+     * cells liquid moved into or out of this tick, to be sent
+     * to the players that can see them at the end of it
+     */
+    private lateinit var changedCells: ActiveCellSet
+
+    /**
+     * chunks within any player's loaded viewport, this tick. liquid only gets
+     * simulated in these, active cells anywhere else are kept until someone
+     * comes by. overlapping viewports share their chunks, so each chunk gets
+     * simulated once per tick, no matter how many players are looking at it.
+     */
+    private val simulatedChunks = BitSet()
 
     override fun initialize() {
+        activeCells = ActiveCellSet(oreWorld.worldSize.width, oreWorld.worldSize.height)
+        spareCells = ActiveCellSet(oreWorld.worldSize.width, oreWorld.worldSize.height)
+        changedCells = ActiveCellSet(oreWorld.worldSize.width, oreWorld.worldSize.height)
     }
 
     companion object {
@@ -49,42 +88,380 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
          * values 1 through 16.
          */
         const val MAX_LIQUID_LEVEL: Byte = 16
+
+        /**
+         * about what one block in a sparse block update costs on the wire
+         * (position, type, wall type and flags, plus kryo's overhead)
+         */
+        internal const val SPARSE_BLOCK_BYTES = 12
+
+        /**
+         * whether changedCount changed cells, all within left..right, top..bottom (inclusive),
+         * take fewer bytes as a block region of those bounds, than one by one in a sparse update
+         */
+        internal fun isRegionSmaller(changedCount: Int, left: Int, right: Int, top: Int, bottom: Int,
+                                     includesLight: Boolean): Boolean {
+            val regionBytes = (right - left + 1) * (bottom - top + 1) *
+                    Network.Shared.BlockRegion.fieldCount(includesLight)
+
+            return regionBytes <= changedCount * SPARSE_BLOCK_BYTES
+        }
     }
 
+    val activeCellCount: Int
+        get() = activeCells.size
+
     override fun processSystem() {
+        if (activeCells.isEmpty()) {
+            return
+        }
+
+        updateSimulatedChunks()
+        simulateTick()
+
+        //simulated once for everyone, now hand the changes to whoever can see them
+        if (!changedCells.isEmpty()) {
+            for (player in oreWorld.players()) {
+                sendChangedCells(player)
+            }
+
+            changedCells.clear()
+        }
+    }
+
+    /**
+     * runs ticks ticks of the simulation over every active cell, whether a player
+     * can see it or not, without sending anything. for when there are no players
+     */
+    fun simulateEverywhere(ticks: Int) {
+        repeat(ticks) {
+            simulatedChunks.set(0, activeCells.chunkCountX * activeCells.chunkCountY)
+            simulateTick()
+            changedCells.clear()
+        }
+    }
+
+    /**
+     * one tick, of the active cells in the simulated chunks
+     */
+    private fun simulateTick() {
+        val processing = activeCells
+        activeCells = spareCells
+        spareCells = processing
+
+        //nobody is around to see these flow, they'll have to wait
+        processing.moveChunksNotIn(simulatedChunks, activeCells)
+
+        simulateChunks(processing)
+
+        processing.clear()
+    }
+
+    /**
+     * sends a player every changed cell within their viewport. per chunk, whichever
+     * is smaller: a block region of the changed cells' bounds, or the cells one by
+     * one in a sparse update (one for all of those chunks)
+     */
+    private fun sendChangedCells(player: Int) {
+        val viewport = mPlayer.get(player).loadedViewport.blockRegionInViewport()
+        val chunkCountY = changedCells.chunkCountY
+        val sparseUpdate = Network.Shared.SparseBlockUpdate()
+
+        changedCells.forEachChunk { chunkIndex ->
+            val chunkLeft = (chunkIndex / chunkCountY) shl CHUNK_SHIFT
+            val chunkTop = (chunkIndex % chunkCountY) shl CHUNK_SHIFT
+            if (chunkLeft > viewport.width || chunkLeft + CHUNK_MASK < viewport.x ||
+                    chunkTop > viewport.height || chunkTop + CHUNK_MASK < viewport.y) {
+                return@forEachChunk
+            }
+
+            var count = 0
+            var left = Int.MAX_VALUE
+            var right = Int.MIN_VALUE
+            var top = Int.MAX_VALUE
+            var bottom = Int.MIN_VALUE
+            changedCells.forEachInChunkBottomUp(chunkIndex) { x, y ->
+                if (x >= viewport.x && x <= viewport.width && y >= viewport.y && y <= viewport.height) {
+                    ++count
+                    left = minOf(left, x)
+                    right = maxOf(right, x)
+                    top = minOf(top, y)
+                    bottom = maxOf(bottom, y)
+                }
+            }
+
+            if (count == 0) {
+                return@forEachChunk
+            }
+
+            if (isRegionSmaller(count, left, right, top, bottom, includesLight = !OreSettings.clientLighting)) {
+                serverNetworkSystem.sendPlayerBlockRegion(playerEntityId = player, left = left, right = right,
+                                                          top = top, bottom = bottom)
+            } else {
+                changedCells.forEachInChunkBottomUp(chunkIndex) { x, y ->
+                    if (x >= viewport.x && x <= viewport.width && y >= viewport.y && y <= viewport.height) {
+                        sparseUpdate.blocks.add(Network.Shared.SingleSparseBlock(x, y, oreWorld.blockType(x, y),
+                                                                                 oreWorld.blockWallType(x, y),
+                                                                                 oreWorld.blockFlags(x, y)))
+                    }
+                }
+            }
+        }
+
+        if (sparseUpdate.blocks.isNotEmpty()) {
+            serverNetworkSystem.sendPlayerSparseBlockUpdate(player, sparseUpdate)
+        }
+    }
+
+    /**
+     * simulates the active cells a chunk at a time, in 4 phases. liquid only moves
+     * from a cell to the left, right or below it, so chunks of the same phase
+     * (every other chunk, both across and down) never touch the same cells, and
+     * can be simulated in any order, or at once on the pool with --parallelLiquidSim.
+     * either way each phase only wakes cells, and journals and collects its changes
+     * once it's done, in chunk order, so the outcome doesn't depend on the thread count.
+     */
+    private fun simulateChunks(cells: ActiveCellSet) {
+        val chunkCountY = cells.chunkCountY
+        val phases = Array(4) { mutableListOf<Int>() }
+        cells.forEachChunk { chunkIndex ->
+            val chunkX = chunkIndex / chunkCountY
+            val chunkY = chunkIndex % chunkCountY
+            phases[(chunkX and 1) + (chunkY and 1) * 2].add(chunkIndex)
+        }
+
+        val journal = oreWorld.blockJournal
+        for (phase in phases) {
+            if (phase.isEmpty()) {
+                continue
+            }
+
+            val parallel = OreSettings.parallelLiquidSim && phase.size > 1
+            val jobs = phase.map { ChunkJob(cells, it, journaling = parallel && journal != null) }
+
+            if (parallel) {
+                prepareChunksForWorkers(phase, cells.chunkCountX, chunkCountY)
+
+                //the journal is game thread only, the jobs record their changes themselves
+                oreWorld.blockJournal = null
+                try {
+                    pool.invokeAll(jobs).forEach { it.get() }
+                } finally {
+                    oreWorld.blockJournal = journal
+                }
+            } else {
+                jobs.forEach { it.call() }
+            }
+
+            for (job in jobs) {
+                for (i in 0 until job.movedCells.size step 2) {
+                    wakeAround(job.movedCells.get(i), job.movedCells.get(i + 1))
+                }
+
+                for (i in 0 until job.changedCells.size step 2) {
+                    changedCells.add(job.changedCells.get(i), job.changedCells.get(i + 1))
+                }
+
+                for (i in 0 until job.fieldChanges.size step 5) {
+                    journal!!.record(x = job.fieldChanges.get(i), y = job.fieldChanges.get(i + 1),
+                                     field = job.fieldChanges.get(i + 2),
+                                     old = job.fieldChanges.get(i + 3).toByte(),
+                                     new = job.fieldChanges.get(i + 4).toByte())
+                }
+            }
+        }
+    }
+
+    /**
+     * copying shared chunks on write, and the storage's chunk dirty bits, aren't
+     * safe to do from several threads at once. so every chunk a phase may write to
+     * (each of its chunks, and the ones left, right and below those) gets its own
+     * copy and is marked dirty beforehand, leaving the workers only plain byte writes.
+     */
+    private fun prepareChunksForWorkers(chunkIndices: List<Int>, chunkCountX: Int, chunkCountY: Int) {
+        val blocks = oreWorld.blocks
+        fun prepare(chunkIndex: Int) {
+            blocks.unshareChunks(chunkIndex, chunkIndex + 1)
+            blocks.markChunkDirty(chunkIndex)
+        }
+
+        for (chunkIndex in chunkIndices) {
+            val chunkX = chunkIndex / chunkCountY
+            val chunkY = chunkIndex % chunkCountY
+
+            prepare(chunkIndex)
+            if (chunkX > 0) {
+                prepare(chunkIndex - chunkCountY)
+            }
+            if (chunkX < chunkCountX - 1) {
+                prepare(chunkIndex + chunkCountY)
+            }
+            if (chunkY < chunkCountY - 1) {
+                prepare(chunkIndex + 1)
+            }
+        }
+    }
+
+    /**
+     * simulates the active cells of one chunk, and remembers what it did
+     * for [simulateChunks] to apply afterwards
+     *
+     * @param journaling record every block field change in [fieldChanges], for
+     * when the block journal is detached while running on the pool
+     */
+    private inner class ChunkJob(private val cells: ActiveCellSet,
+                                 private val chunkIndex: Int,
+                                 private val journaling: Boolean) : Callable<ChunkJob> {
+        /**
+         * x, y of every cell liquid moved out of
+         */
+        val movedCells = GdxIntArray()
+
+        /**
+         * x, y of every cell liquid moved into or out of (may repeat)
+         */
+        val changedCells = GdxIntArray()
+
+        /**
+         * x, y, field, old value, new value of every block field change, when journaling
+         */
+        val fieldChanges = GdxIntArray()
+
+        //the cells processLiquidTile may write to, the cell itself, left, right and below,
+        //and their type and flags (which hold the liquid level) from before it ran
+        private val touchedX = IntArray(4)
+        private val touchedY = IntArray(4)
+        private val typesBefore = ByteArray(4)
+        private val flagsBefore = ByteArray(4)
+
+        override fun call(): ChunkJob {
+            cells.forEachInChunkBottomUp(chunkIndex) { x, y ->
+                //may have already flowed away, or been built over, since it was woken
+                if (oreWorld.isWater(x, y)) {
+                    rememberTouched(x, y)
+
+                    if (processLiquidTile(x, y)) {
+                        movedCells.add(x)
+                        movedCells.add(y)
+
+                        recordTouchedChanges()
+                    }
+                }
+            }
+
+            return this
+        }
+
+        private fun rememberTouched(x: Int, y: Int) {
+            touchedX[0] = x
+            touchedY[0] = y
+            touchedX[1] = oreWorld.blockXSafe(x - 1)
+            touchedY[1] = y
+            touchedX[2] = oreWorld.blockXSafe(x + 1)
+            touchedY[2] = y
+            touchedX[3] = x
+            touchedY[3] = oreWorld.blockYSafe(y + 1)
+
+            for (i in 0 until 4) {
+                typesBefore[i] = oreWorld.blocks[touchedX[i], touchedY[i], OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE]
+                flagsBefore[i] = oreWorld.blocks[touchedX[i], touchedY[i], OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS]
+            }
+        }
+
+        private fun recordTouchedChanges() {
+            for (i in 0 until 4) {
+                //at the edges of the world, a neighbour can be the cell itself
+                if (i > 0 && touchedX[i] == touchedX[0] && touchedY[i] == touchedY[0]) {
+                    continue
+                }
+
+                val typeChanged = recordIfChanged(i, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, typesBefore[i])
+                val flagsChanged = recordIfChanged(i, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS, flagsBefore[i])
+                if (typeChanged || flagsChanged) {
+                    changedCells.add(touchedX[i])
+                    changedCells.add(touchedY[i])
+                }
+            }
+        }
+
+        /**
+         * @return true if the field changed
+         */
+        private fun recordIfChanged(touched: Int, field: Int, old: Byte): Boolean {
+            val new = oreWorld.blocks[touchedX[touched], touchedY[touched], field]
+            if (new == old) {
+                return false
+            }
+
+            if (journaling) {
+                fieldChanges.add(touchedX[touched])
+                fieldChanges.add(touchedY[touched])
+                fieldChanges.add(field)
+                fieldChanges.add(old.toInt())
+                fieldChanges.add(new.toInt())
+            }
+
+            return true
+        }
+    }
+
+    private fun updateSimulatedChunks() {
+        simulatedChunks.clear()
+
+        val chunkCountY = activeCells.chunkCountY
         for (player in oreWorld.players()) {
-            val cPlayer = mPlayer.get(player)
-            val rect = cPlayer.loadedViewport.rect
-            simulateFluidsInRegion(rect, player)
+            val region = mPlayer.get(player).loadedViewport.blockRegionInViewport()
+            val leftChunk = oreWorld.blockXSafe(region.x) shr CHUNK_SHIFT
+            val rightChunk = oreWorld.blockXSafe(region.width) shr CHUNK_SHIFT
+            val topChunk = oreWorld.blockYSafe(region.y) shr CHUNK_SHIFT
+            val bottomChunk = oreWorld.blockYSafe(region.height) shr CHUNK_SHIFT
+
+            for (chunkX in leftChunk..rightChunk) {
+                simulatedChunks.set(chunkX * chunkCountY + topChunk, chunkX * chunkCountY + bottomChunk + 1)
+            }
         }
     }
 
-    //probably want something better. like a region that self expands
-    //when modifications are done outside of it.
-    private var dirty = false
-    private var dirtyRegion = Rectangle()
-    private fun simulateFluidsInRegion(rect: Rectangle, player: Int) {
-        val startX = oreWorld.blockXSafe(rect.lefti)
-        val startY = oreWorld.blockYSafe(rect.topi)
-        val endX = oreWorld.blockXSafe(rect.righti)
-        val endY = oreWorld.blockYSafe(rect.bottomi)
-
-        for (y in endY downTo startY) {
-            for (x in startX until endX) {
+    /**
+     * wakes the water at this cell and the 4 cells around it, for when
+     * something changed there (liquid moved, block dug or placed) that
+     * may let it flow again
+     */
+    fun wakeAround(x: Int, y: Int) {
+        wake(x, y)
+        wake(x - 1, y)
+        wake(x + 1, y)
+        wake(x, y - 1)
+        wake(x, y + 1)
+    }
+
+    /**
+     * wakes all water within this (inclusive) region, plus the cells bordering it.
+     * e.g. for explosions, or a player's viewport moving over water that
+     * might not have settled before the world got saved.
+     */
+    fun wakeRegion(left: Int, right: Int, top: Int, bottom: Int) {
+        val leftSafe = oreWorld.blockXSafe(left - 1)
+        val rightSafe = oreWorld.blockXSafe(right + 1)
+        val topSafe = oreWorld.blockYSafe(top - 1)
+        val bottomSafe = oreWorld.blockYSafe(bottom + 1)
+
+        for (y in topSafe..bottomSafe) {
+            for (x in leftSafe..rightSafe) {
                 if (oreWorld.isWater(x, y)) {
-                    processLiquidTile(x, y)
+                    activeCells.add(x, y)
                 }
             }
         }
+    }
 
-        if (dirty) {
-            playerSystem.sendPlayerBlockRegion(player)
-//            serverNetworkSystem.sendBlockRegionInterestedPlayers(oreWorld.blockXSafe(dirtyRegion.lefti),
-            //                                                                oreWorld.blockYSafe(dirtyRegion.topi),
-            //                                                               oreWorld.blockXSafe(dirtyRegion.righti - 1),
-            //                                                              oreWorld.blockYSafe(dirtyRegion.bottomi - 1))
+    private fun wake(x: Int, y: Int) {
+        if (x < 0 || y < 0 || x >= oreWorld.worldSize.width || y >= oreWorld.worldSize.height) {
+            return
+        }
 
-            dirty = false
+        if (oreWorld.isWater(x, y)) {
+            activeCells.add(x, y)
         }
     }
 
@@ -110,18 +487,20 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
         Right
     }
 
-    fun processLiquidTile(x: Int, y: Int) {
+    /**
+     * @return true if any liquid moved out of this cell
+     */
+    fun processLiquidTile(x: Int, y: Int): Boolean {
         val sourceAmount = oreWorld.liquidLevel(x, y)
 
         if (sourceAmount <= 0) {
-            print("zero")
-
             error("zero?")
         }
 
         val bottomSafeY = oreWorld.blockYSafe(y + 1)
         val bottomSolid = oreWorld.isBlockSolid(x, bottomSafeY)
 
+        var moved = false
         var newSourceAmount = sourceAmount.toInt()
         if (!bottomSolid) {
             val bottomLiquid = oreWorld.liquidLevel(x, bottomSafeY)
@@ -129,12 +508,13 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
                 newSourceAmount = moveLiquidToBottom(sourceX = x, sourceY = y,
                                                      sourceAmount = sourceAmount,
                                                      bottomLiquid = bottomLiquid)
+                moved = true
             }
         }
 
         //none left to disperse
         if (newSourceAmount == 0) {
-            return
+            return moved
         }
 
         //now try other 2 sides (left/right, or both)
@@ -170,7 +550,11 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
                                 sourceAmount = sourceAmount,
                                 rightLiquid = rightLiquid)
             }
+
+            else -> return moved
         }
+
+        return true
     }
 
     private fun moveLiquidRight(sourceX: Int, sourceY: Int, sourceAmount: Byte, rightLiquid: Byte) {
@@ -185,8 +569,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
         //fill right
         oreWorld.setLiquidLevelWaterNotEmpty(rightSafeX, sourceY, (amountToSplit + remainder).toByte())
-
-        updateDirtyRegion(sourceX, sourceY)
     }
 
     private fun moveLiquidLeft(sourceX: Int, sourceY: Int, sourceAmount: Byte, leftLiquid: Byte) {
@@ -200,8 +582,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
         //fill left
         oreWorld.setLiquidLevelWaterNotEmpty(leftSafeX, sourceY, (amountToSpread + remainder).toByte())
-
-        updateDirtyRegion(sourceX, sourceY)
     }
 
     private val rand = RandomXS128()
@@ -254,8 +634,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
         //empty current as much as possible (there still may be some left here, the source)
         oreWorld.setLiquidLevelClearIfEmpty(sourceX, sourceY, amountToSpread.toByte())
-
-        updateDirtyRegion(sourceX, sourceY)
     }
 
     /**
@@ -282,22 +660,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
         //fill bottom
         oreWorld.setLiquidLevelWaterNotEmpty(sourceX, bottomSafeY, (amountToMove + bottomLiquid).toByte())
 
-        updateDirtyRegion(sourceX, sourceY)
-
         return newSourceAmount
     }
-
-    private fun updateDirtyRegion(x: Int, y: Int) {
-        //hack
-        if (!dirty) {
-            dirtyRegion = Rectangle(oreWorld.posXSafe(x - 1).toFloat(),
-                                    oreWorld.posYSafe(y - 1).toFloat(),
-                                    1f,
-                                    1f)
-            dirty = true
-        } else {
-            dirtyRegion.merge(oreWorld.posXSafe(x), oreWorld.posYSafe(y))
-            val a = 2
-        }
-    }
 }
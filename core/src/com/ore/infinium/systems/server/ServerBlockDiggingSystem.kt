@@ -51,6 +51,7 @@ class ServerBlockDiggingSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
     private val serverNetworkSystem by system<ServerNetworkSystem>()
     private val tileLightingSystem by system<TileLightingSystem>()
+    private val liquidSimulationSystem by system<LiquidSimulationSystem>()
     private val gameTickSystem by system<GameTickSystem>()
 
     class BlockToDig(
@@ -100,7 +101,7 @@ class ServerBlockDiggingSystem(private val oreWorld: OreWorld) : BaseSystem() {
         //this queued request will now be canceled.
         val cTool = mTool.opt(equippedItemEntityId) ?: return true
 
-        val totalBlockHealth = OreBlock.blockAttributes[blockType]!!.blockTotalHealth
+        val totalBlockHealth = OreBlock.totalHealth(blockType)
 
         val damagePerTick = cTool.blockDamage * getWorld().getDelta()
 
@@ -149,12 +150,10 @@ class ServerBlockDiggingSystem(private val oreWorld: OreWorld) : BaseSystem() {
         }
 
         oreWorld.destroyBlock(x, y)
+        liquidSimulationSystem.wakeAround(x, y)
 
-        //update lighting in the area, has to be less than the existing block lighting,
-        //or digging anywhere actually lights up that area
-        val lightLevel = (oreWorld.blockLightLevel(x, y) - 1).coerceAtLeast(0)
-
-        tileLightingSystem.updateTileLighting(x, y, lightLevel.toByte())
+        //update lighting in the area
+        tileLightingSystem.updateLightingForDestroyedBlock(x, y)
 
         //hack, this is a big region, and we'd have to calculate actual lights in this, as well i think.
         //but we wouldn't want it to be bigger than the affected region
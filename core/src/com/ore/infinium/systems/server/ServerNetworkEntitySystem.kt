@@ -50,7 +50,33 @@ import mu.KLogging
 
  */
 class ServerNetworkEntitySystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.all()) {
-    companion object : KLogging()
+    companion object : KLogging() {
+        /**
+         * compares the entities a client knows about with the ones actually in its
+         * viewport. players are left out of both, they're spawned on their own
+         */
+        fun diffViewport(knownEntities: List<Int>,
+                         entitiesInRegion: List<Int>,
+                         isPlayer: (entityId: Int) -> Boolean): ViewportDiff {
+            //entity doesn't exist in known entities, but does in actual. send spawn
+            val entitiesToSpawn = entitiesInRegion.filter { entityInRegion ->
+                !knownEntities.contains(entityInRegion) &&
+                        //hack ignore players for now, we don't spawn them via this mechanisms..it'd get hairy
+                        //gotta rethink player spawn/destroying
+                        !isPlayer(entityInRegion)
+            }
+
+            //list of entities we'll need to tell the client we no longer want him to have
+            //remove from known, tell client he needs to delete that.
+            val entitiesToDestroy = knownEntities.filter { knownEntity ->
+                !entitiesInRegion.contains(knownEntity) && !isPlayer(knownEntity)
+            }
+
+            return ViewportDiff(entitiesToSpawn, entitiesToDestroy)
+        }
+    }
+
+    class ViewportDiff(val entitiesToSpawn: List<Int>, val entitiesToDestroy: List<Int>)
 
     private val mSprite by require<SpriteComponent>()
     private val mPlayer by mapper<PlayerComponent>()
@@ -148,19 +174,9 @@ class ServerNetworkEntitySystem(private val oreWorld: OreWorld) : IteratingSyste
             //hack copy to intarray only because the quadtree uses an intbag
             val entitiesInRegion = fill.toMutableList()
 
-            //entity doesn't exist in known entities, but does in actual. send spawn
-            val entitiesToSpawn = entitiesInRegion.filter { entityInRegion ->
-                !playerEntity.knownEntities.contains(entityInRegion) &&
-                        //hack ignore players for now, we don't spawn them via this mechanisms..it'd get hairy
-                        //gotta rethink player spawn/destroying
-                        !mPlayer.has(entityInRegion)
-            }
-
-            //list of entities we'll need to tell the client we no longer want him to have
-            //remove from known, tell client he needs to delete that.
-            val entitiesToDestroy = playerEntity.knownEntities.filter { knownEntity ->
-                !entitiesInRegion.contains(knownEntity) && !mPlayer.has(knownEntity)
-            }
+            val diff = diffViewport(playerEntity.knownEntities, entitiesInRegion) { mPlayer.has(it) }
+            val entitiesToSpawn = diff.entitiesToSpawn
+            val entitiesToDestroy = diff.entitiesToDestroy
 
             //update our status
             playerEntity.knownEntities.addAll(entitiesToSpawn)
@@ -66,6 +66,7 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
     private val serverBlockDiggingSystem by system<ServerBlockDiggingSystem>()
     private val serverNetworkEntitySystem by system<ServerNetworkEntitySystem>()
     private val tileLightingSystem by system<TileLightingSystem>()
+    private val liquidSimulationSystem by system<LiquidSimulationSystem>()
 
     val serverKryo: Server
     private val netQueue = ConcurrentLinkedQueue<NetworkJob>()
@@ -79,6 +80,12 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
      */
     private val debugPacketFrequencyByType = mutableMapOf<String, Int>()
 
+    /**
+     * clients tick their world time along on their own, it only gets
+     * corrected once every world hour, so they don't drift off
+     */
+    private var lastSentWorldHour = -1
+
     private val connectionListeners = Array<NetworkServerConnectionListener>()
 
     internal class PlayerConnection : Connection() {
@@ -184,8 +191,29 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
 
     override fun processSystem() {
         processNetworkQueue()
+
+        val worldHour = oreWorld.worldTime.hour
+        if (worldHour != lastSentWorldHour) {
+            lastSentWorldHour = worldHour
+            serverKryo.sendToAllTCP(createWorldTimeChanged())
+        }
     }
 
+    /**
+     * so the player starts off in the same time of day, until the next hourly sync
+     */
+    fun sendPlayerWorldTime(playerEntityId: Int) {
+        val cPlayer = mPlayer.get(playerEntityId)
+        serverKryo.sendToTCP(cPlayer.connectionPlayerId, createWorldTimeChanged())
+    }
+
+    private fun createWorldTimeChanged() =
+            Network.Server.WorldTimeChanged().apply {
+                hour = oreWorld.worldTime.hour
+                minute = oreWorld.worldTime.minute
+                second = oreWorld.worldTime.second
+            }
+
     /**
      * broadcasts to all clients that this player has spawned.
      * note this gets sent to the player who spawned, too (himself).
@@ -494,6 +522,11 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         }
 
         tileLightingSystem.updateLightingForLight(entity)
+
+        if (OreSettings.clientLighting) {
+            //the clients have to know it's on or off, to light it themselves
+            sendToAllPlayersEntityVisible(entity, Network.Server.DeviceToggle(entity, mDevice.get(entity).running))
+        }
     }
 
     private fun receiveDoorOpen(job: NetworkJob,
@@ -664,6 +697,7 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         if (!oreWorld.isWater(tileX, tileY)) {
             //fill with water
             oreWorld.setLiquidLevelWaterNotEmpty(tileX, tileY, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
+            liquidSimulationSystem.wakeAround(tileX, tileY)
 
             for (player in oreWorld.players()) {
                 this.sendPlayerSingleBlock(player, tileX, tileY)
@@ -851,7 +885,11 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         val item = cPlayer.equippedPrimaryItem
         val cBlock = mBlock.get(item)
 
-        oreWorld.attemptBlockPlacement(blockPlace.x, blockPlace.y, cBlock.blockType)
+        if (oreWorld.attemptBlockPlacement(blockPlace.x, blockPlace.y, cBlock.blockType)) {
+            //it may have been placed over water
+            liquidSimulationSystem.wakeAround(blockPlace.x, blockPlace.y)
+            tileLightingSystem.updateLightingForPlacedBlock(blockPlace.x, blockPlace.y)
+        }
     }
 
     /**
@@ -955,6 +993,10 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         //fixme add to a send list and do it only every tick or so...obviously right now this defeats part of the
         // purpose of this, whcih is to reduce the need to send an entire packet for 1 block. queue them up.
         // so put it in a queue, etc so we can deliver it when we need to..
+        sendPlayerSparseBlockUpdate(playerEntityId, sparseBlockUpdate)
+    }
+
+    fun sendPlayerSparseBlockUpdate(playerEntityId: Int, sparseBlockUpdate: Network.Shared.SparseBlockUpdate) {
         val cPlayer = mPlayer.get(playerEntityId)
         serverKryo.sendToTCP(cPlayer.connectionPlayerId, sparseBlockUpdate)
     }
@@ -987,23 +1029,28 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         val blockRegion = Network.Shared.BlockRegion(left, top, right, bottom)
         val count = (right - left + 1) * (bottom - top + 1)
 
-        blockRegion.blocks = ByteArray(count * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT)
+        //the client lights its blocks by the sky itself (and with client lighting, by the lights too)
+        val includesLight = !OreSettings.clientLighting
+        blockRegion.includesLight = includesLight
+        val skyHeightmap = oreWorld.skyHeightmap!!
+        blockRegion.skyHeights = IntArray(right - left + 1) { column -> skyHeightmap.skyHeight(left + column) }
+
+        val fieldCount = blockRegion.fieldCount
+        blockRegion.blocks = ByteArray(count * fieldCount)
         var blockIndex = 0
         for (blockY in top..bottom) {
             for (blockX in left..right) {
-
                 //note we never send mesh type. that is not serialized to net, client side only
 
                 //NOTE: order should be *ascending* (to hopefully avoid a bit of thrashing)
-                val blockType = oreWorld.blockType(blockX, blockY)
-                val wallType = oreWorld.blockWallType(blockX, blockY)
-                val lightLevel = oreWorld.blockLightLevel(blockX, blockY)
-                val flags = oreWorld.blockFlags(blockX, blockY)
-
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE] = blockType
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE] = wallType
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_LIGHT_LEVEL] = lightLevel
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS] = flags
+                val offset = blockIndex * fieldCount
+                blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE] = oreWorld.blockType(blockX, blockY)
+                blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE] = oreWorld.blockWallType(blockX, blockY)
+                blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS] = oreWorld.blockFlags(blockX, blockY)
+
+                if (includesLight) {
+                    blockRegion.blocks[offset + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_LIGHT_LEVEL] = oreWorld.blockLightLevel(blockX, blockY)
+                }
                 ++blockIndex
             }
         }
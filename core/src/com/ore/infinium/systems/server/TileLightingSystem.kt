@@ -27,7 +27,8 @@ package com.ore.infinium.systems.server
 import com.artemis.BaseSystem
 import com.artemis.annotations.Wire
 import com.artemis.utils.IntBag
-import com.ore.infinium.OreBlock
+import com.ore.infinium.LightPropagator
+import com.ore.infinium.OreSettings
 import com.ore.infinium.OreWorld
 import com.ore.infinium.components.*
 import com.ore.infinium.util.*
@@ -46,9 +47,11 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
     private var initialized = false
 
-    // todo find a good number, this is a complete guess.
-    // this happens when the world is mostly air, stack overflow otherwise
-    val MAX_LIGHTING_DEPTH = 20
+    /**
+     * block light only. sunlight is lit by the clients, from the sky heights
+     * they get with the blocks (see ClientLightingSystem)
+     */
+    private val lightPropagator = LightPropagator(oreWorld)
 
     companion object : KLogging() {
         /**
@@ -59,6 +62,16 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
          * haven't decided what for
          */
         const val MAX_TILE_LIGHT_LEVEL: Byte = 18
+
+        /**
+         * returns the proper light level for a light, depending on whether it is running or not
+         */
+        fun lightLevelForLight(deviceRunning: Boolean, lightRadius: Int): Byte =
+                if (deviceRunning) {
+                    lightRadius.toByte()
+                } else {
+                    0.toByte()
+                }
     }
 
     override fun initialize() {
@@ -68,169 +81,38 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
     }
 
     /**
-     * for first-run initialization,
-     * runs through the entire world tiles and finds and sets light levels
-     * of each tile according to access to sunlight.
-     *
-     * doesn't factor in actual lights, just the global light (sunlight)
-     *
-     * sunlight bleeds through empty walls in the background.
-     * this will not happen underground, because walls cannot
-     * be removed underground. they are a permanent part of the world
+     * for first-run initialization, lights the entire world from scratch, by
+     * every light in it. light isn't journaled, so whatever a loaded save had
+     * of it may be older than its (replayed) blocks
      */
     private fun computeWorldTileLighting() {
-        //TODO incorporate sunlight..this is all theoretical approaches.
-        //check if light is greater than sunlight and if so don't touch it..
-        //sets the flag to indicate it is caused by sunlight
-
-        //todo max y should be a reasonable base level, not far below ground, just as an optimization step
-        for (y in 0 until 200) {
-            for (x in 0 until oreWorld.worldSize.width) {
-                if (!oreWorld.isBlockSolid(x, y) && oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
-                    oreWorld.setBlockLightLevel(x, y, MAX_TILE_LIGHT_LEVEL)
-                }
-            }
-        }
-
-        for (y in 0 until 200) {
-            for (x in 0 until oreWorld.worldSize.width) {
-                if (!oreWorld.isBlockSolid(x, y) && oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
-                    val lightLevel = oreWorld.blockLightLevel(x, y)
-
-                    //ambient/sunlight
-                    updateTileLighting(x, y, lightLevel)
-
-//                    diamondSunlightFloodFill(x, y, lightLevel)
-                    //                   diamondSunlightFloodFill(x, y, lightLevel)
-                }
-            }
-        }
-    }
-
-    private fun recomputeLighting(startX: Int, endX: Int, startY: Int, endY: Int) {
-        //todo max y should be a reasonable base level, not far below ground
-        for (y in startY..endY) {
-            for (x in startX..endX) {
-                if (!oreWorld.isBlockSolid(x, y) && oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
-                    oreWorld.setBlockLightLevel(x, y, MAX_TILE_LIGHT_LEVEL)
-                }
-            }
-        }
-
-        for (y in startY..endY) {
-            for (x in startX..endX) {
-                if (!oreWorld.isBlockSolid(x, y) && oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
-                    val lightLevel = oreWorld.blockLightLevel(x, y)
-
-                    //ambient/sunlight
-                    updateTileLighting(x, y, lightLevel)
-
-//                    diamondSunlightFloodFill(x, y, lightLevel)
-                    //                   diamondSunlightFloodFill(x, y, lightLevel)
-                }
-            }
-        }
+        relightColumns(0, oreWorld.worldSize.width - 1)
     }
 
     /**
      * updates tile lighting for a region
      */
     fun updateTileLighting(x: Int, y: Int, lightLevel: Byte) {
-        diamondSunlightFloodFill(x - 1, y, lightLevel)
-        diamondSunlightFloodFill(x + 1, y, lightLevel)
-        diamondSunlightFloodFill(x, y + 1, lightLevel)
-        diamondSunlightFloodFill(x, y - 1, lightLevel)
-    }
-
-    fun updateTileLightingRemove(x: Int, y: Int, lightLevel: Byte) {
-        diamondFloodFillLightRemove(x - 1, y, lightLevel)
-        diamondFloodFillLightRemove(x + 1, y, lightLevel)
-        diamondFloodFillLightRemove(x, y + 1, lightLevel)
-        diamondFloodFillLightRemove(x, y - 1, lightLevel)
+        lightPropagator.addAround(x, y, lightLevel.toInt())
+        lightPropagator.propagate()
     }
 
     /**
-     * @param depth current depth the function is going to (so we don't blow out the stack)
+     * lets the light around a dug out block into it. it's spread around a bit
+     * dimmer than it was, or digging anywhere would light up the area
      */
-    private fun diamondSunlightFloodFill(x: Int,
-                                         y: Int,
-                                         lastLightLevel: Byte,
-                                         firstRun: Boolean = true,
-                                         depth: Int = 0) {
-        if (oreWorld.blockXSafe(x) != x || oreWorld.blockYSafe(y) != y) {
-            //out of world bounds, abort
-            return
-        }
-
-        val blockType = oreWorld.blockType(x, y)
-        val wallType = oreWorld.blockWallType(x, y)
-
-        var lightAttenuation = when {
-        //fixme: this can't be right? 0? what if we change this to 1 too? how does this affect regular lights
-            blockType == OreBlock.BlockType.Air.oreValue && wallType == OreBlock.WallType.Air.oreValue -> 0
-        //dug-out underground bleeds off, but not as quickly as a solid block
-            blockType == OreBlock.BlockType.Air.oreValue && wallType != OreBlock.WallType.Air.oreValue -> 1
-        //solid block underground
-            else -> 2
-        }
-
-        if (firstRun) {
-            lightAttenuation = 0
-        }
-
-        //light bleed off value
-        val newLightLevel = (lastLightLevel - lightAttenuation).toByte()
-
-        val currentLightLevel = oreWorld.blockLightLevel(x, y)
-
-        //don't overwrite previous light values that were greater
-        if (newLightLevel <= currentLightLevel) {
-            return
-        }
-
-        oreWorld.setBlockLightLevel(x, y, newLightLevel)
-
-        if (depth == MAX_LIGHTING_DEPTH) {
-            return
-        }
-
-        val newDepth = depth + 1
-        diamondSunlightFloodFill(x - 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondSunlightFloodFill(x + 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondSunlightFloodFill(x, y - 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondSunlightFloodFill(x, y + 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
+    fun updateLightingForDestroyedBlock(x: Int, y: Int) {
+        updateTileLighting(x, y, (oreWorld.blockLightLevel(x, y) - 1).coerceAtLeast(0).toByte())
     }
 
-    private fun diamondFloodFillLightRemove(x: Int,
-                                            y: Int,
-                                            lastLightLevel: Byte,
-                                            firstRun: Boolean = true,
-                                            depth: Int = 0) {
-        if (oreWorld.blockXSafe(x) != x || oreWorld.blockYSafe(y) != y) {
-            //out of world bounds, abort
-            return
-        }
-        //logger.debug {"tiles lighting system - diamondFloodFillLightRemove", "begin, depth: $depth")
-
-        val blockType = oreWorld.blockType(x, y)
-        val wallType = oreWorld.blockWallType(x, y)
-
-        //light bleed off value
-        val newLightLevel = 0.toByte()
-
-        oreWorld.setBlockLightLevel(x, y, newLightLevel)
-
-        if (depth == 5 + 3 /*MAX_LIGHTING_DEPTH*/) {
-            return
-        }
-
-        //logger.debug {"tiles lighting system - diamondFloodFillLightRemove", "recursive calls being made, depth: $depth")
-
-        val newDepth = depth + 1
-        diamondFloodFillLightRemove(x - 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondFloodFillLightRemove(x + 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondFloodFillLightRemove(x, y - 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondFloodFillLightRemove(x, y + 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
+    /**
+     * a block got placed, it takes the light that went through it back out,
+     * that light comes back around it from wherever else it can
+     */
+    fun updateLightingForPlacedBlock(x: Int, y: Int) {
+        resetChangedBounds()
+        removeLight(x, y, removedLight = INVALID_ENTITY_ID)
+        sendChangedLighting()
     }
 
     override fun processSystem() {
@@ -239,12 +121,6 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
             initialized = true
         }
 
-        //oreWorld.players().forEach {
-        //    val cPlayer = mPlayer.get(it)
-        //    val rect = cPlayer.loadedViewport.rect
-        //    recomputeLighting(oreWorld.blockXSafe(rect.left.toInt()), oreWorld.blockXSafe(rect.right.toInt()),
-        //                      oreWorld.blockYSafe(rect.top.toInt()), oreWorld.blockYSafe(rect.bottom.toInt()))
-        //}
     }
 
     /**
@@ -257,7 +133,7 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
      * the exception being if a light is removed (deleted from the world)
      * that is the case that will automatically be handled properly.
      */
-    fun updateLightingForLight(entityId: Int, sendUpdate: Boolean = true) {
+    fun updateLightingForLight(entityId: Int) {
         val cItem = mItem.get(entityId)
         if (cItem.state != ItemComponent.State.InWorldState) {
             return
@@ -272,39 +148,126 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
         val x = cSprite.sprite.x.toInt()
         val y = cSprite.sprite.y.toInt()
 
-        val currentLightLevel = oreWorld.blockLightLevel(x, y)
-
         //hack: radius actually should be intensity...or something. we could have both?
         //hack or is what we want to affect, actually attenuation? that would affect the radius..
-        //hack we need to be sure the lighting calculation functions (updateTileLighting) do not override
-        //hack light of a lower value!
-        //ensure tile where the light is, is at least this well lit up
         val lightLevel = lightLevelForLight(deviceRunning = cDevice.running, lightRadius = cLight.radius)
-                .coerceAtLeast(currentLightLevel)
 
-        oreWorld.setBlockLightLevel(x, y, lightLevel)
+        resetChangedBounds()
 
         if (lightLevel == 0.toByte()) {
-//            updateTileLightingRemove(x, y, lightLevel)
+            removeLight(x, y, removedLight = entityId)
         } else {
-            updateTileLighting(x, y, lightLevel)
+            lightPropagator.addLight(x, y, lightLevel.toInt())
+            lightPropagator.propagate()
         }
 
-        if (sendUpdate) {
-            serverNetworkSystem.sendBlockRegionInterestedPlayers(left = x - 20, right = x + 20, top = y - 20,
-                                                                 bottom = y + 20)
+        sendChangedLighting()
+    }
+
+    /**
+     * takes away the light of a light source that was at x, y (turned off,
+     * or removed), and relights the darkened area from whatever else lights it
+     */
+    private fun removeLight(x: Int, y: Int, removedLight: Int) {
+        lightPropagator.removeLight(x, y)
+        if (!lightPropagator.hasChanged()) {
+            return
         }
+
+        //lights in (or right next to) the darkened area may have been darkened too
+        addLightsIn(left = lightPropagator.changedLeft - 1, right = lightPropagator.changedRight + 1,
+                    top = lightPropagator.changedTop - 1, bottom = lightPropagator.changedBottom + 1,
+                    exceptLight = removedLight)
+
+        lightPropagator.propagate()
     }
 
     /**
-     * returns the proper light level for a light, depending on whether it is running or not
+     * adds every running light placed within left..right, top..bottom (but exceptLight)
+     * to the light propagator, to be spread by the next propagate
      */
-    private fun lightLevelForLight(deviceRunning: Boolean, lightRadius: Int): Byte =
-            if (deviceRunning) {
-                lightRadius.toByte()
-            } else {
-                0.toByte()
+    private fun addLightsIn(left: Int, right: Int, top: Int, bottom: Int, exceptLight: Int = INVALID_ENTITY_ID) {
+        oreWorld.getEntitiesWithComponent<LightComponent>().forEach { light ->
+            if (light == exceptLight || mItem.get(light).state != ItemComponent.State.InWorldState) {
+                return@forEach
+            }
+
+            val cSprite = mSprite.get(light)
+            val lightX = cSprite.sprite.x.toInt()
+            val lightY = cSprite.sprite.y.toInt()
+            val lightLevel = lightLevelForLight(deviceRunning = mDevice.get(light).running,
+                                                lightRadius = mLight.get(light).radius)
+            if (lightLevel > 0 && lightX in left..right && lightY in top..bottom) {
+                lightPropagator.addLight(lightX, lightY, lightLevel.toInt())
             }
+        }
+    }
+
+    /**
+     * a strip of the world got generated (see LazyWorldGenerator), replacing the placeholder
+     * air of the columns fromX until toX. lights them, and the columns around them that
+     * light got into through that air (or should now get into from them)
+     */
+    fun stripGenerated(fromX: Int, toX: Int) {
+        //the first run lights up the whole world anyway
+        if (!initialized) {
+            return
+        }
+
+        relightColumns(fromX - MAX_TILE_LIGHT_LEVEL, toX - 1 + MAX_TILE_LIGHT_LEVEL)
+    }
+
+    /**
+     * throws away all the light of the columns startX..endX and lights them from
+     * scratch: by the lights in them, and by what's lit right next to them
+     */
+    private fun relightColumns(startX: Int, endX: Int) {
+        val left = oreWorld.blockXSafe(startX)
+        val right = oreWorld.blockXSafe(endX)
+        val bottom = oreWorld.worldSize.height - 1
+
+        for (x in left..right) {
+            for (y in 0..bottom) {
+                oreWorld.setBlockLightLevel(x, y, 0)
+            }
+        }
+
+        for (x in intArrayOf(left - 1, right + 1)) {
+            if (x < 0 || x >= oreWorld.worldSize.width) {
+                continue
+            }
+
+            for (y in 0..bottom) {
+                if (oreWorld.blockLightLevel(x, y) > 0) {
+                    lightPropagator.addSource(x, y)
+                }
+            }
+        }
+
+        addLightsIn(left, right, 0, bottom)
+
+        lightPropagator.propagate()
+    }
+
+    private fun resetChangedBounds() {
+        lightPropagator.resetChangedBounds()
+    }
+
+    /**
+     * sends every tile whose block light changed, since the last reset of the changed bounds.
+     * sunlight isn't sent, the clients light by the sky heights themselves
+     */
+    private fun sendChangedLighting() {
+        //the clients light it themselves
+        if (OreSettings.clientLighting || !lightPropagator.hasChanged()) {
+            return
+        }
+
+        serverNetworkSystem.sendBlockRegionInterestedPlayers(left = lightPropagator.changedLeft,
+                                                             right = lightPropagator.changedRight,
+                                                             top = lightPropagator.changedTop,
+                                                             bottom = lightPropagator.changedBottom)
+    }
 
     inner class LightingEntitySubscriptionListener : OreEntitySubscriptionListener {
         override fun removed(entities: IntBag) {
@@ -325,34 +288,11 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
                 val x = cSprite.sprite.x.toInt()
                 val y = cSprite.sprite.y.toInt()
-                //updateTileLightingRemove(x, y, 0)
 
-                //wipe the lighting
-                //todo, only do it in sane region
-                for (x2 in 0 until oreWorld.worldSize.width) {
-                    for (y2 in 0 until oreWorld.worldSize.height) {
-                        oreWorld.setBlockLightLevel(x2, y2, 0)
-                    }
-                }
-//                recomputeLighting(startX = x - 100, endX = x + 100, startY = y - 100, endY = y + 100)
-                computeWorldTileLighting()
-
-                updateAllLightsWithoutSending()
-                //               computeWorldTileLighting()
-
-//                updateLightingForLight(entity)
-                serverNetworkSystem.sendBlockRegionInterestedPlayers(left = x - 100, right = x + 100, top = y - 100,
-                                                                     bottom = y + 100)
+                resetChangedBounds()
+                removeLight(x, y, removedLight = entity)
+                sendChangedLighting()
             }
-
-            //fixme
-            //TODO("remove lighting in the area of this light/update that area")
-        }
-    }
-
-    private fun updateAllLightsWithoutSending() {
-        val lights = oreWorld.getEntitiesWithComponent<LightComponent>().forEach { light ->
-            updateLightingForLight(entityId = light, sendUpdate = false)
         }
     }
 }
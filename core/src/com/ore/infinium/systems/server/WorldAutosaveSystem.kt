@@ -0,0 +1,63 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium.systems.server
+
+import com.artemis.BaseSystem
+import com.artemis.annotations.Wire
+import com.ore.infinium.OreSettings
+import com.ore.infinium.OreTimer
+import com.ore.infinium.OreWorld
+import mu.KLogging
+
+/**
+ * flushes the block journal once per tick, and periodically hands the
+ * chunks that changed since the last save to the world io, which compresses
+ * and appends them to the region file off the tick thread.
+ */
+@Wire
+class WorldAutosaveSystem(private val oreWorld: OreWorld) : BaseSystem() {
+    companion object : KLogging()
+
+    private val autosaveTimer = OreTimer()
+
+    override fun initialize() {
+        autosaveTimer.start()
+    }
+
+    override fun checkProcessing() = OreSettings.saveLoadWorld
+
+    override fun processSystem() {
+        oreWorld.blockJournal?.flush()
+
+        val interval = OreSettings.autosaveIntervalSeconds
+        if (interval > 0 && autosaveTimer.resetIfExpired(interval * 1000L)) {
+            oreWorld.worldIO.autosaveDirtyChunks()
+        }
+    }
+
+    override fun dispose() {
+        oreWorld.blockJournal?.close()
+        oreWorld.worldIO.shutdown()
+    }
+}
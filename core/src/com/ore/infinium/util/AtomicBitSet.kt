@@ -0,0 +1,100 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.util
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * fixed size bitset whose bits can be set and cleared from any thread without
+ * losing each other, unlike java.util.BitSet, which read-modify-writes whole
+ * words. reads see whatever was set before them, there's no snapshot of the
+ * whole set.
+ */
+class AtomicBitSet(val size: Int) {
+    private val words = AtomicLongArray((size + 63) ushr 6)
+
+    operator fun get(index: Int) = words.get(index ushr 6) and (1L shl index) != 0L
+
+    fun set(index: Int) {
+        val word = index ushr 6
+        val bit = 1L shl index
+        while (true) {
+            val old = words.get(word)
+            if (old and bit != 0L || words.compareAndSet(word, old, old or bit)) {
+                return
+            }
+        }
+    }
+
+    fun clear(index: Int) {
+        val word = index ushr 6
+        val bit = 1L shl index
+        while (true) {
+            val old = words.get(word)
+            if (old and bit == 0L || words.compareAndSet(word, old, old and bit.inv())) {
+                return
+            }
+        }
+    }
+
+    fun clear() {
+        for (word in 0 until words.length()) {
+            words.set(word, 0L)
+        }
+    }
+
+    /**
+     * @return index of the first set bit at or after fromIndex, or -1 if none
+     */
+    fun nextSetBit(fromIndex: Int): Int {
+        if (fromIndex >= size) {
+            return -1
+        }
+
+        var word = fromIndex ushr 6
+        //drop the bits before fromIndex in its word
+        var bits = words.get(word) and (-1L shl fromIndex)
+        while (true) {
+            if (bits != 0L) {
+                return (word shl 6) + java.lang.Long.numberOfTrailingZeros(bits)
+            }
+
+            if (++word == words.length()) {
+                return -1
+            }
+
+            bits = words.get(word)
+        }
+    }
+
+    fun cardinality(): Int {
+        var count = 0
+        for (word in 0 until words.length()) {
+            count += java.lang.Long.bitCount(words.get(word))
+        }
+
+        return count
+    }
+}
@@ -0,0 +1,107 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium.util
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.Serializer
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import com.ore.infinium.ChunkCodec
+import com.ore.infinium.Network
+
+/**
+ * sends block regions with their fields split into planes and run length
+ * encoded, instead of as the raw interleaved bytes. a region is mostly a
+ * handful of long runs (air, stone, the same wall type underground), so
+ * this shrinks them a lot, for very little cpu.
+ *
+ * not deflated, it would cost more latency than it's worth here.
+ *
+ * reuses its buffers, so like kryo itself it is not thread safe.
+ */
+class BlockRegionSerializer : Serializer<Network.Shared.BlockRegion>() {
+    private val codec = ChunkCodec(deflate = false)
+    private var planes = ByteArray(0)
+
+    override fun write(kryo: Kryo, output: Output, region: Network.Shared.BlockRegion) {
+        output.writeInt(region.x, false)
+        output.writeInt(region.y, false)
+        output.writeInt(region.x2, false)
+        output.writeInt(region.y2, false)
+        output.writeBoolean(region.includesLight)
+
+        for (skyHeight in region.skyHeights) {
+            output.writeInt(skyHeight, true)
+        }
+
+        val fieldCount = region.fieldCount
+        val blocks = region.blocks
+        val blockCount = blocks.size / fieldCount
+        ensurePlanesCapacity(blocks.size)
+
+        for (block in 0 until blockCount) {
+            for (field in 0 until fieldCount) {
+                planes[field * blockCount + block] = blocks[block * fieldCount + field]
+            }
+        }
+
+        val length = codec.encode(planes, blocks.size, blockCount)
+
+        output.writeInt(blockCount, true)
+        output.writeInt(length, true)
+        output.writeBytes(codec.output, 0, length)
+    }
+
+    override fun read(kryo: Kryo, input: Input, type: Class<Network.Shared.BlockRegion>): Network.Shared.BlockRegion {
+        val region = Network.Shared.BlockRegion(input.readInt(false), input.readInt(false),
+                                                input.readInt(false), input.readInt(false))
+        region.includesLight = input.readBoolean()
+        region.skyHeights = IntArray(region.x2 - region.x + 1) { input.readInt(true) }
+
+        val blockCount = input.readInt(true)
+        val length = input.readInt(true)
+        val encoded = input.readBytes(length)
+
+        val fieldCount = region.fieldCount
+        val rawLength = blockCount * fieldCount
+        ensurePlanesCapacity(rawLength)
+        codec.decode(encoded, 0, length, planes, rawLength, blockCount)
+
+        val blocks = ByteArray(rawLength)
+        for (block in 0 until blockCount) {
+            for (field in 0 until fieldCount) {
+                blocks[block * fieldCount + field] = planes[field * blockCount + block]
+            }
+        }
+        region.blocks = blocks
+
+        return region
+    }
+
+    private fun ensurePlanesCapacity(capacity: Int) {
+        if (planes.size < capacity) {
+            planes = ByteArray(capacity)
+        }
+    }
+}
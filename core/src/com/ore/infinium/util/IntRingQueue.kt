@@ -0,0 +1,81 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.util
+
+/**
+ * fifo queue of primitive ints, in a ring buffer. allocated up front, and
+ * only reallocated (doubled) when more than its capacity is queued at once,
+ * so once it's grown to fit a workload, using it doesn't allocate at all.
+ * not thread safe.
+ */
+class IntRingQueue(initialCapacity: Int = 1024) {
+    private var items = IntArray(Integer.highestOneBit(Math.max(initialCapacity - 1, 1)) shl 1)
+    private var mask = items.size - 1
+    private var head = 0
+    private var tail = 0
+
+    val size: Int
+        get() = tail - head
+
+    fun isEmpty() = head == tail
+
+    fun isNotEmpty() = head != tail
+
+    fun add(value: Int) {
+        if (tail - head == items.size) {
+            grow()
+        }
+
+        items[tail and mask] = value
+        ++tail
+    }
+
+    fun remove(): Int {
+        if (head == tail) {
+            throw NoSuchElementException("queue is empty")
+        }
+
+        val value = items[head and mask]
+        ++head
+        return value
+    }
+
+    fun clear() {
+        head = 0
+        tail = 0
+    }
+
+    private fun grow() {
+        val grown = IntArray(items.size shl 1)
+        for (i in 0 until size) {
+            grown[i] = items[(head + i) and mask]
+        }
+
+        tail = size
+        head = 0
+        items = grown
+        mask = grown.size - 1
+    }
+}
@@ -0,0 +1,145 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium.util
+
+import java.io.*
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+
+/**
+ * writes an RGB png a band of rows at a time, so the whole image never
+ * has to be in memory (unlike a BufferedImage handed to ImageIO).
+ * rows must be written top to bottom, then closed. closing before every row
+ * was written leaves a truncated file behind (e.g. when rendering failed).
+ *
+ * the pixel data is one zlib stream split over IDAT chunks of
+ * IDAT_CHUNK_SIZE, rows are unfiltered. not thread safe.
+ */
+class PngStreamWriter(file: File,
+                      val width: Int,
+                      val height: Int,
+                      compressionLevel: Int = Deflater.BEST_SPEED) : Closeable {
+    companion object {
+        private val SIGNATURE = byteArrayOf(137.toByte(), 'P'.toByte(), 'N'.toByte(), 'G'.toByte(),
+                                            13, 10, 26, 10)
+
+        private const val COLOR_TYPE_RGB = 2
+        private const val FILTER_NONE = 0
+
+        const val IDAT_CHUNK_SIZE = 1 shl 16
+    }
+
+    private val output = DataOutputStream(BufferedOutputStream(FileOutputStream(file)))
+    private val deflater = Deflater(compressionLevel)
+    private val idat = DeflaterOutputStream(IdatOutputStream(), deflater, IDAT_CHUNK_SIZE)
+
+    private val row = ByteArray(1 + width * 3)
+    private var rowsWritten = 0
+
+    init {
+        output.write(SIGNATURE)
+
+        val header = ByteArrayOutputStream(13)
+        DataOutputStream(header).apply {
+            writeInt(width)
+            writeInt(height)
+            writeByte(8) //bit depth
+            writeByte(COLOR_TYPE_RGB)
+            writeByte(0) //compression method, deflate
+            writeByte(0) //filter method
+            writeByte(0) //no interlacing
+        }
+        writeChunk("IHDR", header.toByteArray(), header.size())
+    }
+
+    /**
+     * appends rows of 0xRRGGBB pixels, width pixels per row, rowCount rows
+     */
+    fun writeRows(pixels: IntArray, rowCount: Int) {
+        check(rowsWritten + rowCount <= height) { "png has only $height rows" }
+
+        row[0] = FILTER_NONE.toByte()
+        for (y in 0 until rowCount) {
+            var index = 1
+            for (x in y * width until (y + 1) * width) {
+                val rgb = pixels[x]
+                row[index] = (rgb shr 16).toByte()
+                row[index + 1] = (rgb shr 8).toByte()
+                row[index + 2] = rgb.toByte()
+                index += 3
+            }
+
+            idat.write(row)
+        }
+
+        rowsWritten += rowCount
+    }
+
+    override fun close() {
+        try {
+            if (rowsWritten == height) {
+                idat.finish()
+                writeChunk("IEND", ByteArray(0), 0)
+            }
+        } finally {
+            deflater.end()
+            output.close()
+        }
+    }
+
+    private fun writeChunk(type: String, data: ByteArray, length: Int) {
+        val typeBytes = type.toByteArray(Charsets.US_ASCII)
+
+        val crc = CRC32()
+        crc.update(typeBytes)
+        crc.update(data, 0, length)
+
+        output.writeInt(length)
+        output.write(typeBytes)
+        output.write(data, 0, length)
+        output.writeInt(crc.value.toInt())
+    }
+
+    /**
+     * turns whatever the deflater outputs into IDAT chunks
+     */
+    private inner class IdatOutputStream : OutputStream() {
+        override fun write(b: Int) {
+            write(byteArrayOf(b.toByte()), 0, 1)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            if (len == 0) {
+                return
+            }
+
+            if (off == 0) {
+                writeChunk("IDAT", b, len)
+            } else {
+                writeChunk("IDAT", b.copyOfRange(off, off + len), len)
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.ActiveCellSet
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+
+class ActiveCellSetTest {
+
+    /**
+     * cells spread over several chunks come back each exactly once,
+     * and never before the cell below them
+     */
+    @Test
+    fun visitsBottomUpAcrossChunks() {
+        val set = ActiveCellSet(200, 150)
+        val cells = listOf(Pair(0, 0), Pair(63, 64), Pair(64, 64), Pair(199, 149), Pair(5, 149),
+                           Pair(5, 148), Pair(130, 1), Pair(63, 63))
+
+        for ((x, y) in cells) {
+            assertTrue(set.add(x, y))
+        }
+        assertFalse(set.add(63, 64))
+        assertEquals(cells.size, set.size)
+
+        val visited = mutableListOf<Pair<Int, Int>>()
+        set.forEachBottomUp { x, y -> visited.add(Pair(x, y)) }
+
+        assertEquals(cells.toSet(), visited.toSet())
+        assertEquals(cells.size, visited.size)
+        assertTrue(visited.indexOf(Pair(5, 149)) < visited.indexOf(Pair(5, 148)))
+        assertTrue(visited.indexOf(Pair(63, 64)) < visited.indexOf(Pair(63, 63)))
+
+        set.clear()
+        assertTrue(set.isEmpty())
+        assertFalse(set.contains(64, 64))
+        set.forEachBottomUp { x, y -> error("visited $x, $y after clear") }
+    }
+
+    @Test
+    fun movesChunksNotKept() {
+        val set = ActiveCellSet(128, 128)
+        val dest = ActiveCellSet(128, 128)
+        set.add(1, 1)
+        set.add(2, 1)
+        set.add(100, 1)
+        dest.add(100, 1)
+        dest.add(101, 1)
+
+        //keep only the top left chunk
+        val keep = BitSet()
+        keep.set(set.chunkIndex(0, 0))
+        set.moveChunksNotIn(keep, dest)
+
+        assertEquals(2, set.size)
+        assertFalse(set.contains(100, 1))
+        assertEquals(2, dest.size)
+        assertTrue(dest.contains(100, 1) && dest.contains(101, 1))
+    }
+}
@@ -0,0 +1,77 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.util.AtomicBitSet
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AtomicBitSetTest {
+
+    @Test
+    fun nextSetBitAcrossWords() {
+        val bits = AtomicBitSet(200)
+        for (index in listOf(0, 63, 64, 130, 199)) {
+            bits.set(index)
+        }
+        bits.clear(64)
+
+        val found = mutableListOf<Int>()
+        var index = bits.nextSetBit(0)
+        while (index != -1) {
+            found.add(index)
+            index = bits.nextSetBit(index + 1)
+        }
+
+        assertEquals(listOf(0, 63, 130, 199), found)
+        assertEquals(4, bits.cardinality())
+        assertFalse(bits[64])
+        assertEquals(-1, bits.nextSetBit(200))
+    }
+
+    /**
+     * threads setting neighbouring bits (the same words) at once don't lose any of them,
+     * like world gen threads dirtying chunks next to each other
+     */
+    @Test
+    fun concurrentSetsAreNotLost() {
+        val threads = 8
+        val bits = AtomicBitSet(threads * 4096)
+        val pool = Executors.newFixedThreadPool(threads)
+        for (thread in 0 until threads) {
+            pool.execute {
+                for (index in thread until bits.size step threads) {
+                    bits.set(index)
+                }
+            }
+        }
+        pool.shutdown()
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS))
+
+        assertEquals(bits.size, bits.cardinality())
+    }
+}
@@ -0,0 +1,77 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import com.ore.infinium.Network
+import com.ore.infinium.util.BlockRegionSerializer
+import org.junit.Assert.*
+import org.junit.Test
+
+class BlockRegionSerializerTest {
+    private fun createRegion(includesLight: Boolean): Network.Shared.BlockRegion {
+        val region = Network.Shared.BlockRegion(10, 20, 13, 21)
+        region.includesLight = includesLight
+        region.skyHeights = intArrayOf(5, 6, 300, 7)
+
+        region.blocks = ByteArray(4 * 2 * region.fieldCount) { (it % 7).toByte() }
+
+        return region
+    }
+
+    private fun roundTrip(region: Network.Shared.BlockRegion): Network.Shared.BlockRegion {
+        val serializer = BlockRegionSerializer()
+        val output = Output(1024)
+        serializer.write(Kryo(), output, region)
+
+        return serializer.read(Kryo(), Input(output.toBytes()), Network.Shared.BlockRegion::class.java)
+    }
+
+    @Test
+    fun regionWithLight() {
+        val region = createRegion(includesLight = true)
+        val read = roundTrip(region)
+
+        assertTrue(read.includesLight)
+        assertEquals(Network.Shared.BlockRegion.BLOCK_FIELD_COUNT * 8, read.blocks.size)
+        assertArrayEquals(region.blocks, read.blocks)
+        assertArrayEquals(region.skyHeights, read.skyHeights)
+    }
+
+    /**
+     * client lighting, the light field is left out too
+     */
+    @Test
+    fun regionWithoutLight() {
+        val region = createRegion(includesLight = false)
+        val read = roundTrip(region)
+
+        assertFalse(read.includesLight)
+        assertEquals(Network.Shared.BlockRegion.BLOCK_FIELD_COUNT_WITHOUT_LIGHT * 8, read.blocks.size)
+        assertArrayEquals(region.blocks, read.blocks)
+        assertArrayEquals(region.skyHeights, read.skyHeights)
+        assertEquals(13, read.x2)
+    }
+}
@@ -0,0 +1,142 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.LightPropagator
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LightPropagatorTest {
+    internal var world = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize = OreWorld.WorldSize.TestTiny)
+
+    val tunnelY = 10
+
+    /**
+     * stone all around, so that light doesn't escape into open air
+     */
+    private fun digTunnel(world: OreWorld) {
+        for (x in 0 until 200) {
+            for (y in 0 until 40) {
+                world.setBlockType(x, y, OreBlock.BlockType.Stone.oreValue)
+            }
+        }
+
+        for (x in 0 until 120) {
+            world.setBlockType(x, tunnelY, OreBlock.BlockType.Air.oreValue)
+            world.setBlockWallType(x, tunnelY, OreBlock.WallType.DirtUnderground.oreValue)
+        }
+    }
+
+    /**
+     * a long dug out tunnel through stone, light loses 1 per tunnel tile and 2
+     * per stone tile. the recursive fill used to give up after 20 tiles
+     */
+    @Test
+    fun lightFallsOffAlongTunnel() {
+        digTunnel(world)
+
+        val propagator = LightPropagator(world)
+        world.setBlockLightLevel(0, tunnelY, 18)
+        propagator.addAround(0, tunnelY, 18)
+        propagator.propagate()
+
+        for (x in 1..17) {
+            //right next to the light gets all of it, then 1 less every tile
+            assertEquals("tunnel at $x", (19 - x).toByte(), world.blockLightLevel(x, tunnelY))
+        }
+        assertEquals(0.toByte(), world.blockLightLevel(19, tunnelY))
+
+        //the stone around it, lit from the tunnel and from around the light itself
+        assertEquals(12.toByte(), world.blockLightLevel(5, tunnelY + 1))
+        assertEquals(10.toByte(), world.blockLightLevel(5, tunnelY + 2))
+    }
+
+    /**
+     * a light in open air (no blocks, no walls) still loses 1 per tile,
+     * it only reaches as far as its level
+     */
+    @Test
+    fun lightFallsOffInOpenAir() {
+        val propagator = LightPropagator(world)
+        propagator.addAround(500, 500, 7)
+        propagator.propagate()
+
+        //right next to it gets all of it, then 1 less every tile, counted around corners
+        assertEquals(7.toByte(), world.blockLightLevel(501, 500))
+        assertEquals(5.toByte(), world.blockLightLevel(503, 500))
+        assertEquals(5.toByte(), world.blockLightLevel(502, 501))
+        assertEquals(1.toByte(), world.blockLightLevel(500, 507))
+        assertEquals(0.toByte(), world.blockLightLevel(500, 508))
+        assertEquals(0.toByte(), world.blockLightLevel(0, 0))
+    }
+
+    /**
+     * the sky doesn't fade crossing open air, sunlight has to reach everything.
+     * only clients have sunlight
+     */
+    @Test
+    fun sunlightHasNoDepthLimit() {
+        val clientWorld = OreWorld(null, null, OreWorld.WorldInstanceType.Client, worldSize = OreWorld.WorldSize.TestTiny)
+        val propagator = LightPropagator(clientWorld, OreBlock.BLOCK_BYTE_FIELD_INDEX_SUNLIGHT_LEVEL,
+                                         openAirAttenuation = 0)
+        propagator.addAround(500, 500, 7)
+        propagator.propagate()
+
+        assertEquals(7.toByte(), clientWorld.blockSunlightLevel(0, 0))
+        assertEquals(7.toByte(), clientWorld.blockSunlightLevel(1023, 1023))
+    }
+
+    /**
+     * removing one of two overlapping lights leaves exactly the
+     * lighting of the other one
+     */
+    @Test
+    fun removingLightLeavesTheOther() {
+        digTunnel(world)
+        val propagator = LightPropagator(world)
+        propagator.addLight(10, tunnelY, 18)
+        propagator.addLight(25, tunnelY, 12)
+        propagator.propagate()
+
+        propagator.resetChangedBounds()
+        propagator.removeLight(10, tunnelY)
+        //only around the removed light, up to where the other one is brighter
+        assertTrue(propagator.changedLeft >= 0 && propagator.changedRight < 25)
+        propagator.propagate()
+
+        val expected = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize = OreWorld.WorldSize.TestTiny)
+        digTunnel(expected)
+        val expectedPropagator = LightPropagator(expected)
+        expectedPropagator.addLight(25, tunnelY, 12)
+        expectedPropagator.propagate()
+
+        for (x in 0 until 200) {
+            for (y in 0 until 40) {
+                assertEquals("light at $x, $y", expected.blockLightLevel(x, y), world.blockLightLevel(x, y))
+            }
+        }
+    }
+}
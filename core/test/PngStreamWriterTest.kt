@@ -0,0 +1,66 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.util.PngStreamWriter
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import javax.imageio.ImageIO
+
+class PngStreamWriterTest {
+
+    /**
+     * written in uneven bands, and big enough to span several IDAT chunks,
+     * it has to read back exactly
+     */
+    @Test
+    fun writtenBandsReadBack() {
+        val width = 301
+        val height = 257
+        val pixels = IntArray(width * height) { i -> (i * 2654435761L).toInt() and 0xffffff }
+
+        val file = File.createTempFile("pngstreamwriter", ".png")
+        try {
+            PngStreamWriter(file, width, height).use { writer ->
+                var row = 0
+                while (row < height) {
+                    val rows = Math.min(37, height - row)
+                    writer.writeRows(pixels.copyOfRange(row * width, (row + rows) * width), rows)
+                    row += rows
+                }
+            }
+
+            val image = ImageIO.read(file)
+            assertEquals(width, image.width)
+            assertEquals(height, image.height)
+            for (y in 0 until height) {
+                for (x in 0 until width) {
+                    assertEquals("pixel at $x, $y", pixels[y * width + x], image.getRGB(x, y) and 0xffffff)
+                }
+            }
+        } finally {
+            file.delete()
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import com.ore.infinium.SkyHeightmap
+import org.junit.Assert.*
+import org.junit.Test
+
+class SkyHeightmapTest {
+    internal var world = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize = OreWorld.WorldSize.TestTiny)
+
+    val groundY = 50
+
+    /**
+     * flat stone ground, a wall starting a bit further down in column 1
+     */
+    private fun createHeightmap(): SkyHeightmap {
+        for (x in 0 until 10) {
+            for (y in groundY until groundY + 10) {
+                world.setBlockType(x, y, OreBlock.BlockType.Stone.oreValue)
+            }
+        }
+
+        world.setBlockWallType(1, groundY + 3, OreBlock.WallType.DirtUnderground.oreValue)
+
+        val heightmap = SkyHeightmap(world)
+        world.skyHeightmap = heightmap
+        heightmap.rebuild(0, 10)
+
+        return heightmap
+    }
+
+    @Test
+    fun rebuildFindsTheGround() {
+        val heightmap = createHeightmap()
+
+        assertEquals(groundY, heightmap.skyHeight(0))
+        assertEquals(world.worldSize.height, heightmap.skyHeight(10))
+        assertTrue(heightmap.isOpenToSky(0, groundY - 1))
+        assertFalse(heightmap.isOpenToSky(0, groundY))
+
+        assertTrue(world.blockHasFlag(0, groundY, OreBlock.BlockFlags.SunlightVisible))
+        assertFalse(world.blockHasFlag(0, groundY + 1, OreBlock.BlockFlags.SunlightVisible))
+        assertEquals(groundY - 1f, world.findSolidGround(0.5f))
+    }
+
+    @Test
+    fun diggingAndPlacingMovesTheSkyHeight() {
+        val heightmap = createHeightmap()
+
+        world.destroyBlock(0, groundY)
+        assertEquals(groundY + 1, heightmap.skyHeight(0))
+        assertTrue(world.blockHasFlag(0, groundY + 1, OreBlock.BlockFlags.SunlightVisible))
+
+        //the one below is still stone, the sky height stays put
+        world.destroyBlock(0, groundY + 5)
+        assertEquals(groundY + 1, heightmap.skyHeight(0))
+
+        assertTrue(world.attemptBlockPlacement(0, groundY - 10, OreBlock.BlockType.Dirt.oreValue))
+        assertEquals(groundY - 10, heightmap.skyHeight(0))
+        assertTrue(world.blockHasFlag(0, groundY - 10, OreBlock.BlockFlags.SunlightVisible))
+        assertFalse(world.blockHasFlag(0, groundY + 1, OreBlock.BlockFlags.SunlightVisible))
+    }
+
+    /**
+     * the wall keeps the sky out, even with the blocks above it dug out
+     */
+    @Test
+    fun wallsBlockTheSky() {
+        val heightmap = createHeightmap()
+
+        for (y in groundY..groundY + 3) {
+            world.destroyBlock(1, y)
+        }
+
+        assertEquals(groundY + 3, heightmap.skyHeight(1))
+        //not solid, so spawning looks further down
+        assertEquals(groundY + 3f, world.findSolidGround(1.5f))
+    }
+}
@@ -0,0 +1,164 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import com.ore.infinium.Network
+import com.ore.infinium.OreWorld
+import com.ore.infinium.systems.server.LiquidSimulationSystem
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+/**
+ * the sparse block updates liquid changes get sent as, when they're smaller than a block region
+ */
+class SparseBlockUpdateTest {
+    private fun createUpdate(count: Int): Network.Shared.SparseBlockUpdate {
+        val random = Random(1234L)
+        val update = Network.Shared.SparseBlockUpdate()
+        for (i in 0 until count) {
+            update.blocks.add(Network.Shared.SingleSparseBlock(4000 + i, 600 + i % 64,
+                                                               random.nextInt(16).toByte(),
+                                                               random.nextInt(16).toByte(),
+                                                               random.nextInt(17).toByte()))
+        }
+
+        return update
+    }
+
+    private fun serialize(update: Network.Shared.SparseBlockUpdate): ByteArray {
+        val kryo = Kryo()
+        Network.register(kryo)
+
+        val output = Output(1 shl 16)
+        kryo.writeObject(output, update)
+
+        return output.toBytes()
+    }
+
+    @Test
+    fun roundTrip() {
+        val update = createUpdate(3)
+
+        val kryo = Kryo()
+        Network.register(kryo)
+        val read = kryo.readObject(Input(serialize(update)), Network.Shared.SparseBlockUpdate::class.java)
+
+        assertEquals(update.blocks.size, read.blocks.size)
+        for ((written, readBlock) in update.blocks.zip(read.blocks)) {
+            assertEquals(written.x, readBlock.x)
+            assertEquals(written.y, readBlock.y)
+            assertEquals(written.block.type, readBlock.block.type)
+            assertEquals(written.block.wallType, readBlock.block.wallType)
+            assertEquals(written.block.flags, readBlock.block.flags)
+        }
+    }
+
+    /**
+     * the estimate the choice between the two is made with has to be about what kryo writes
+     */
+    @Test
+    fun sparseBlockBytesMatchesKryo() {
+        val count = 100
+        val bytesPerBlock = serialize(createUpdate(count)).size.toDouble() / count
+
+        val estimate = LiquidSimulationSystem.SPARSE_BLOCK_BYTES
+        assertTrue("$bytesPerBlock bytes per block, estimated $estimate",
+                   bytesPerBlock >= estimate * 0.5 && bytesPerBlock <= estimate * 1.5)
+    }
+
+    @Test
+    fun denseChangesGoInARegion() {
+        assertTrue(LiquidSimulationSystem.isRegionSmaller(changedCount = 64, left = 0, right = 7, top = 0, bottom = 7,
+                                                          includesLight = true))
+        assertTrue(LiquidSimulationSystem.isRegionSmaller(changedCount = 1, left = 5, right = 5, top = 5, bottom = 5,
+                                                          includesLight = true))
+    }
+
+    @Test
+    fun scatteredChangesGoSparse() {
+        assertFalse(LiquidSimulationSystem.isRegionSmaller(changedCount = 2, left = 0, right = 63, top = 0,
+                                                           bottom = 63, includesLight = true))
+    }
+
+    /**
+     * without the light field (client lighting) a region is smaller, so it wins sooner
+     */
+    @Test
+    fun regionWithoutLightWinsSooner() {
+        assertFalse(LiquidSimulationSystem.isRegionSmaller(changedCount = 2, left = 0, right = 6, top = 0, bottom = 0,
+                                                           includesLight = true))
+        assertTrue(LiquidSimulationSystem.isRegionSmaller(changedCount = 2, left = 0, right = 6, top = 0, bottom = 0,
+                                                          includesLight = false))
+    }
+
+    /**
+     * the client has to end up with the same blocks, whichever of the two the server picked
+     */
+    @Test
+    fun clientAppliesSparseLikeRegion() {
+        val left = 10
+        val top = 20
+        val right = 17
+        val bottom = 23
+
+        val region = Network.Shared.BlockRegion(left, top, right, bottom)
+        region.includesLight = false
+        region.skyHeights = IntArray(right - left + 1)
+        region.blocks = ByteArray((right - left + 1) * (bottom - top + 1) * region.fieldCount)
+
+        val sparse = Network.Shared.SparseBlockUpdate()
+        val random = Random(1234L)
+        var index = 0
+        for (y in top..bottom) {
+            for (x in left..right) {
+                val type = random.nextInt(16).toByte()
+                val wallType = random.nextInt(16).toByte()
+                val flags = random.nextInt(17).toByte()
+
+                region.blocks[index + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE] = type
+                region.blocks[index + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE] = wallType
+                region.blocks[index + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS] = flags
+                index += region.fieldCount
+
+                sparse.blocks.add(Network.Shared.SingleSparseBlock(x, y, type, wallType, flags))
+            }
+        }
+
+        val regionWorld = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize = OreWorld.WorldSize.TestTiny)
+        val sparseWorld = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize = OreWorld.WorldSize.TestTiny)
+        regionWorld.loadBlockRegion(region)
+        sparseWorld.loadSparseBlockUpdate(sparse)
+
+        for (y in top..bottom) {
+            for (x in left..right) {
+                assertEquals("type at $x, $y", regionWorld.blockType(x, y), sparseWorld.blockType(x, y))
+                assertEquals("wall at $x, $y", regionWorld.blockWallType(x, y), sparseWorld.blockWallType(x, y))
+                assertEquals("flags at $x, $y", regionWorld.blockFlags(x, y), sparseWorld.blockFlags(x, y))
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
  */
 
+import com.ore.infinium.ChunkedBlockStorage
 import com.ore.infinium.OreBlock
 import com.ore.infinium.OreWorld
 import org.junit.Assert.*
@@ -52,6 +53,16 @@ class WorldBlockTest {
         assertTrue(world.isBlockSolid(100, 100))
     }
 
+    @Test
+    fun testBlockPropertyTableMatchesAttributes() {
+        for ((type, attributes) in OreBlock.blockAttributes) {
+            assertEquals(attributes.collision == OreBlock.BlockAttributes.Collision.True, OreBlock.isSolid(type))
+            assertEquals(attributes.category == OreBlock.BlockAttributes.BlockCategory.Liquid, OreBlock.isLiquid(type))
+            assertEquals(attributes.category == OreBlock.BlockAttributes.BlockCategory.Ore, OreBlock.isOre(type))
+            assertEquals(attributes.blockTotalHealth, OreBlock.totalHealth(type), 0f)
+        }
+    }
+
     @Test
     fun testBlockLiquidLevelFields() {
         var level = 1.toByte()
@@ -121,6 +132,57 @@ class WorldBlockTest {
     }
     */
 
+    @Test
+    fun testUniformChunksCompactToShared() {
+        val blocks = ChunkedBlockStorage(256, 256)
+        assertEquals(0, blocks.allocatedChunkCount())
+
+        //fill one chunk entirely with stone, and put a single copper block in the next one
+        for (x in 0 until ChunkedBlockStorage.CHUNK_SIZE) {
+            for (y in 0 until ChunkedBlockStorage.CHUNK_SIZE) {
+                blocks[x, y, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE] = OreBlock.BlockType.Stone.oreValue
+            }
+        }
+        blocks[ChunkedBlockStorage.CHUNK_SIZE, 0, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE] =
+                OreBlock.BlockType.Copper.oreValue
+
+        assertEquals(2, blocks.allocatedChunkCount())
+        assertEquals(1, blocks.compact())
+        assertEquals(1, blocks.allocatedChunkCount())
+        assertTrue(blocks.isChunkShared(blocks.chunkIndex(0, 0)))
+
+        //writing to a shared chunk must not leak into the rest of it
+        blocks[1, 1, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE] = OreBlock.BlockType.Air.oreValue
+        assertEquals(OreBlock.BlockType.Air.oreValue, blocks[1, 1, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE])
+        assertEquals(OreBlock.BlockType.Stone.oreValue, blocks[2, 2, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE])
+        assertEquals(OreBlock.BlockType.Copper.oreValue,
+                     blocks[ChunkedBlockStorage.CHUNK_SIZE, 0, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE])
+    }
+
+    @Test
+    fun testPlanarLayoutMatchesInterleaved() {
+        val interleaved = ChunkedBlockStorage(128, 128, ChunkedBlockStorage.Layout.Interleaved)
+        val planar = ChunkedBlockStorage(128, 128, ChunkedBlockStorage.Layout.Planar)
+
+        for (x in 60 until 70) {
+            for (y in 60 until 70) {
+                for (field in 0 until OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+                    val value = (x + y * 3 + field * 7).toByte()
+                    interleaved[x, y, field] = value
+                    planar[x, y, field] = value
+                }
+            }
+        }
+
+        for (x in 0 until 128) {
+            for (y in 0 until 128) {
+                for (field in 0 until OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+                    assertEquals(interleaved[x, y, field], planar[x, y, field])
+                }
+            }
+        }
+    }
+
     @Test
     @Throws(Exception::class)
     fun testBlockAtSafely() {
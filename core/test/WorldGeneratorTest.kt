@@ -25,13 +25,18 @@ SOFTWARE.
 import com.artemis.World
 import com.artemis.WorldConfigurationBuilder
 import com.badlogic.gdx.utils.GdxNativesLoader
-import com.ore.infinium.OreWorld
-import com.ore.infinium.WorldGenerator
+import com.ore.infinium.*
 import com.ore.infinium.systems.server.LiquidSimulationSystem
+import com.sudoplay.joise.module.Module
+import com.sudoplay.joise.module.ModuleCombiner
 import kotlinx.coroutines.experimental.channels.Channel
 import kotlinx.coroutines.experimental.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
 import org.junit.Ignore
 import org.junit.Test
+import java.util.*
+import java.util.concurrent.ForkJoinPool
 
 class WorldGeneratorTest {
 
@@ -52,10 +57,169 @@ class WorldGeneratorTest {
         val worldgen = WorldGenerator(world = world)
 
         runBlocking {
-            worldgen.generateWorld(worldSize, Channel<String>())
+            worldgen.generateWorld(worldSize, Channel<String>(Channel.UNLIMITED))
         }
     }
 
+    /**
+     * the compiled noise program has to give the same world as the joise graph
+     * it came from, exactly. the joise graph shares the program's fractal and
+     * auto correct modules, so both have the same auto correct ranges
+     */
+    @Test
+    fun compiledNoiseMatchesJoise() {
+        GdxNativesLoader.load()
+
+        val worldSize = OreWorld.WorldSize.TestTiny
+        val world = OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                             worldSize = worldSize)
+        world.artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(world)).build())
+
+        val graph = WorldGenerator(world).generateNoiseGraph(worldSize, WorldGenerator.DEFAULT_SEED)
+        val modules = IdentityHashMap<NoiseNode, Module>()
+        val evaluator = NoiseProgram.compile(graph, lanes = WorldGenerator.WORLDGEN_TILE_SIZE,
+                                             modules = modules).Evaluator()
+        val module = graph.toModule(modules)
+
+        val xRatio = worldSize.width.toDouble() / worldSize.height.toDouble()
+        val tileSize = WorldGenerator.WORLDGEN_TILE_SIZE
+        //every 4th tile, to keep it quick
+        val sampledTiles = (0 until worldSize.width / tileSize step 4)
+
+        var points = 0
+        var mismatches = 0
+        for (tileX in sampledTiles) {
+            for (tileY in sampledTiles) {
+                val columns = DoubleArray(tileSize) { i ->
+                    (tileX * tileSize + i).toDouble() / worldSize.width.toDouble() * xRatio
+                }
+                evaluator.startTile(columns, tileSize)
+
+                for (y in tileY * tileSize until (tileY + 1) * tileSize) {
+                    val rowY = y.toDouble() / worldSize.height.toDouble()
+                    val row = evaluator.evaluateRow(rowY)
+                    for (i in 0 until tileSize) {
+                        ++points
+                        if (row[i] != module.get(columns[i], rowY)) {
+                            ++mismatches
+                        }
+                    }
+                }
+            }
+        }
+
+        assertEquals("$mismatches of $points points differ from joise", 0, mismatches)
+    }
+
+    /**
+     * what the program has no row operation for is left to joise,
+     * constants under it included
+     */
+    @Test
+    fun uncompilableNodesFallBackToJoise() {
+        val gradient = NoiseGradient().apply { setGradient(0.0, 0.0, 0.0, 1.0) }
+        val min = NoiseCombiner(ModuleCombiner.CombinerType.MIN).apply {
+            setSource(0, gradient)
+            setSource(1, NoiseConstant(0.5))
+        }
+        val graph = NoiseScaleOffset().apply {
+            source = min
+            scale = 2.0
+        }
+
+        val evaluator = NoiseProgram.compile(graph, lanes = 4).Evaluator()
+        evaluator.startTile(doubleArrayOf(0.0, 0.25, 0.5, 0.75), 4)
+
+        val module = graph.toModule()
+        for (y in doubleArrayOf(0.0, 0.25, 0.5, 0.75, 1.0)) {
+            val row = evaluator.evaluateRow(y)
+            for (i in 0 until 4) {
+                assertEquals("at row $y", module.get(i * 0.25, y), row[i], 0.0)
+                assertEquals("at row $y", 2.0 * Math.min(y, 0.5), row[i], 0.0)
+            }
+        }
+    }
+
+    /**
+     * lazily generated strips may only depend on the seed, not on which
+     * strip a player happened to walk into first. that's all that's promised,
+     * features don't have to line up across seams (see LazyWorldGenerator)
+     */
+    @Test
+    fun lazyStripsDontDependOnVisitOrder() {
+        GdxNativesLoader.load()
+
+        for (seed in longArrayOf(WorldGenerator.DEFAULT_SEED, 1L, -0x6b5f2c3a9d1e8f47L)) {
+            assertVisitOrderDoesntMatter(OreWorld.WorldSize.Smallest, seed)
+        }
+
+        assertVisitOrderDoesntMatter(OreWorld.WorldSize.Small, WorldGenerator.DEFAULT_SEED)
+    }
+
+    private fun assertVisitOrderDoesntMatter(worldSize: OreWorld.WorldSize, seed: Long) {
+        fun generatedHash(visitOrder: (stripCount: Int) -> List<Int>): Long {
+            val world = OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                                 worldSize = worldSize)
+            world.artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(world)).build())
+            world.worldSeed = seed
+
+            val lazyGenerator = LazyWorldGenerator(world)
+            val strips = visitOrder(lazyGenerator.stripCount)
+            assertTrue("need more than one strip to visit out of order", strips.size > 1)
+            strips.forEach { lazyGenerator.generateStrip(it) }
+
+            return world.blocks.contentHash()
+        }
+
+        val forward = generatedHash { stripCount -> (0 until stripCount).toList() }
+        val backward = generatedHash { stripCount -> (stripCount - 1 downTo 0).toList() }
+        //from the middle outward
+        val middleOut = generatedHash { stripCount -> (0 until stripCount).sortedBy { Math.abs(2 * it - (stripCount - 1)) } }
+
+        assertEquals("$worldSize, seed $seed: forward vs backward", forward, backward)
+        assertEquals("$worldSize, seed $seed: forward vs middle out", forward, middleOut)
+    }
+
+    /**
+     * the parallel passes must give the same blocks on any number of threads,
+     * and on every run
+     */
+    @Test
+    fun generationIsDeterministic() {
+        GdxNativesLoader.load()
+
+        val threads = Math.max(2, Runtime.getRuntime().availableProcessors())
+
+        val singleThreaded = generatedBlocksHash(threads = 1)
+        val parallel = generatedBlocksHash(threads)
+        val parallelAgain = generatedBlocksHash(threads)
+
+        assertEquals("1 vs $threads threads", singleThreaded, parallel)
+        assertEquals("2 runs on $threads threads", parallel, parallelAgain)
+    }
+
+    /**
+     * generates a fresh TestTiny world on a pool of threads workers, headless
+     */
+    private fun generatedBlocksHash(threads: Int): Long {
+        val worldSize = OreWorld.WorldSize.TestTiny
+        val world = OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                             worldSize = worldSize)
+        world.artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(world)).build())
+
+        val pool = ForkJoinPool(threads)
+        try {
+            runBlocking {
+                WorldGenerator(world).generateWorld(worldSize, Channel<String>(Channel.UNLIMITED),
+                                                    WorldGenerator.DEFAULT_SEED, pool, headless = true)
+            }
+        } finally {
+            pool.shutdown()
+        }
+
+        return world.blocks.contentHash()
+    }
+
     @Test
     @Ignore
     @Throws(Exception::class)
@@ -22,9 +22,25 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
  */
 
+import com.artemis.World
+import com.artemis.WorldConfigurationBuilder
+import com.ore.infinium.BlockJournal
+import com.ore.infinium.ChunkCodec
+import com.ore.infinium.EntityPersistence
+import com.ore.infinium.OreBlock
 import com.ore.infinium.OreWorld
+import com.ore.infinium.RegionFile
+import com.ore.infinium.components.DoorComponent
+import com.ore.infinium.components.ItemComponent
+import com.ore.infinium.components.SpriteComponent
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
 import org.junit.Ignore
 import org.junit.Test
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import java.util.*
 
 class WorldIOTest {
     internal var world = OreWorld(null, null, OreWorld.WorldInstanceType.Server, OreWorld.WorldSize.TestTiny)
@@ -52,5 +68,187 @@ class WorldIOTest {
 //        }
     }
 
+    @Test
+    fun regionFileRoundTrip() {
+        val worldSize = OreWorld.WorldSize.TestTiny
+        for (x in 0 until worldSize.width step 3) {
+            for (y in 0 until worldSize.height step 7) {
+                world.setBlockType(x, y, OreBlock.BlockType.Diamond.oreValue)
+                world.setBlockWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
+                world.setBlockLightLevel(x, y, (x % 16).toByte())
+                world.setBlockFlags(x, y, OreBlock.BlockFlags.GrassBlock)
+            }
+        }
+
+        val file = Files.createTempFile("worldiotest", ".region")
+        try {
+            RegionFile.write(file, world.blocks, 1234L)
+
+            //small windows, so that blobs cross from one into the next
+            for (mapWindowSize in intArrayOf(RegionFile.MAP_WINDOW_SIZE, 1000)) {
+                val loaded = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize)
+                RegionFile.Reader(file, mapWindowSize).use { reader ->
+                    assertEquals(1234L, reader.header.seed)
+                    assertEquals(worldSize.width, reader.header.worldWidth)
+
+                    for (chunkIndex in 0 until reader.header.chunkCount) {
+                        reader.readChunk(chunkIndex, loaded.blocks)
+                    }
+                }
+
+                for (x in 0 until worldSize.width) {
+                    for (y in 0 until worldSize.height) {
+                        assertEquals(world.blockType(x, y), loaded.blockType(x, y))
+                        assertEquals(world.blockWallType(x, y), loaded.blockWallType(x, y))
+                        assertEquals(world.blockLightLevel(x, y), loaded.blockLightLevel(x, y))
+                        assertEquals(world.blockFlags(x, y), loaded.blockFlags(x, y))
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file)
+        }
+    }
+
+    @Test
+    fun regionFileCompactsReplacedChunks() {
+        val worldSize = OreWorld.WorldSize.TestTiny
+        val file = Files.createTempFile("worldiotest", ".region")
+        try {
+            RegionFile.write(file, world.blocks, 1234L)
+            val fullSize = Files.size(file)
+
+            val raw = ByteArray(RegionFile.RAW_CHUNK_SIZE)
+            for (value in 1..3) {
+                world.setBlockType(5, 5, value.toByte())
+                RegionFile.Updater(file).use { updater ->
+                    RegionFile.snapshotChunk(world.blocks, 0, raw)
+                    val blob = RegionFile.encodeChunks(1) { _, dest -> System.arraycopy(raw, 0, dest, 0, raw.size) }[0]
+                    updater.appendChunk(0, blob, null)
+                    updater.commit()
+
+                    assertEquals(Files.size(file) - updater.header.firstBlobOffset() - updater.liveBytes,
+                                 updater.deadBytes)
+                }
+            }
+
+            assertTrue(Files.size(file) > fullSize)
+
+            RegionFile.compact(file)
+            RegionFile.Updater(file).use { assertEquals(0L, it.deadBytes) }
+
+            val loaded = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize)
+            RegionFile.Reader(file).use { reader ->
+                for (chunkIndex in 0 until reader.header.chunkCount) {
+                    reader.readChunk(chunkIndex, loaded.blocks)
+                }
+            }
+
+            assertEquals(3.toByte(), loaded.blockType(5, 5))
+        } finally {
+            Files.deleteIfExists(file)
+        }
+    }
+
+    @Test
+    fun chunkCodecRoundTrip() {
+        val planeSize = 4096
+        val raw = ByteArray(planeSize * 3)
+        val random = Random(99L)
+
+        //uniform plane, a few long runs, and noise with too many values for a palette
+        Arrays.fill(raw, 0, planeSize, 7.toByte())
+        for (i in planeSize until planeSize * 2) {
+            raw[i] = (i / 300 % 5).toByte()
+        }
+        for (i in planeSize * 2 until planeSize * 3) {
+            raw[i] = random.nextInt(256).toByte()
+        }
+
+        for (deflate in arrayOf(false, true)) {
+            ChunkCodec(deflate).use { codec ->
+                val length = codec.encode(raw, raw.size, planeSize)
+                val encoded = codec.output.copyOf(length)
+
+                val decoded = ByteArray(raw.size)
+                codec.decode(encoded, 0, length, decoded, decoded.size, planeSize)
+
+                assertArrayEquals(raw, decoded)
+            }
+        }
+    }
+
+    @Test
+    fun entityBatchRoundTrip() {
+        val artemisWorld = World(WorldConfigurationBuilder().build())
+        world.artemisWorld = artemisWorld
+        val persistence = EntityPersistence(world)
+
+        val door = artemisWorld.create()
+        artemisWorld.getMapper(SpriteComponent::class.java).create(door).apply {
+            sprite.setSize(1f, 3f)
+            sprite.setPosition(100f, 200f)
+            textureName = "door-closed-16x36"
+        }
+        artemisWorld.getMapper(ItemComponent::class.java).create(door).name = "Door"
+        artemisWorld.getMapper(DoorComponent::class.java).create(door).state = DoorComponent.DoorState.Open
+        artemisWorld.process()
+
+        val batches = persistence.serializeEntityBatches()
+        val chunkIndex = world.blocks.chunkIndex(100, 200)
+        assertEquals(setOf(chunkIndex), batches.keys)
+
+        artemisWorld.delete(door)
+        artemisWorld.process()
+
+        assertEquals(1, persistence.loadEntityBatch(batches[chunkIndex]!!))
+        artemisWorld.process()
+
+        val doors = world.getEntitiesWithComponent<DoorComponent>()
+        assertEquals(1, doors.size())
+
+        val loaded = doors[0]
+        assertEquals(DoorComponent.DoorState.Open, artemisWorld.getMapper(DoorComponent::class.java).get(loaded).state)
+        assertEquals("Door", artemisWorld.getMapper(ItemComponent::class.java).get(loaded).name)
+
+        val sprite = artemisWorld.getMapper(SpriteComponent::class.java).get(loaded)
+        assertEquals(100f, sprite.sprite.x, 0f)
+        assertEquals(200f, sprite.sprite.y, 0f)
+        assertEquals(3f, sprite.sprite.height, 0f)
+        assertEquals("door-closed-16x36", sprite.textureName)
+    }
+
+    @Test
+    fun blockJournalReplaysIntactFrames() {
+        val directory = Files.createTempDirectory("worldiotest")
+        try {
+            BlockJournal(directory).use { journal ->
+                journal.record(1, 2, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, 5)
+                journal.record(3, 4, OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS, 0, 7)
+                journal.flush()
+
+                journal.record(1, 2, OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 5, 6)
+                journal.flush()
+            }
+
+            //a frame cut short by a crash
+            val segment = BlockJournal.segments(directory).single()
+            Files.write(segment, byteArrayOf(0, 0, 0, 9, 1, 2, 3), StandardOpenOption.APPEND)
+
+            val replayed = mutableListOf<String>()
+            val count = BlockJournal.replay(directory) { x, y, field, value ->
+                replayed.add("$x,$y,$field=$value")
+            }
+
+            assertEquals(3, count)
+            assertEquals(listOf("1,2,${OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE}=5",
+                                "3,4,${OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS}=7",
+                                "1,2,${OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE}=6"), replayed)
+        } finally {
+            BlockJournal.segments(directory).forEach { Files.deleteIfExists(it) }
+            Files.deleteIfExists(directory)
+        }
+    }
+
     //WorldGenerator.generateWorldAndOutputImage()
 }
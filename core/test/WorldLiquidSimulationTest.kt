@@ -22,12 +22,19 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
  */
 
+import com.artemis.World
+import com.artemis.WorldConfigurationBuilder
 import com.ore.infinium.OreBlock
+import com.ore.infinium.OreSettings
 import com.ore.infinium.OreWorld
 import com.ore.infinium.systems.server.LiquidSimulationSystem
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
 import org.junit.Before
 import org.junit.Ignore
 import org.junit.Test
+import java.util.*
+import java.util.concurrent.ForkJoinPool
 
 class WorldLiquidSimulationTest {
     internal var world = OreWorld(null, null, OreWorld.WorldInstanceType.Server, worldSize = OreWorld.WorldSize.TestTiny)
@@ -85,6 +92,55 @@ class WorldLiquidSimulationTest {
         world.printLiquidLevels(startX, startY, endX, endY)
     }
 
+    /**
+     * simulating a phase of chunks on the pool (--parallelLiquidSim) has to
+     * end up with the same blocks as simulating them one after another
+     */
+    @Test
+    fun parallelSimulationMatchesSequential() {
+        val sequential = simulateSeededWorld(parallel = false)
+        val parallel = simulateSeededWorld(parallel = true)
+
+        assertNotEquals("nothing flowed", sequential.first, sequential.second)
+        assertEquals(sequential.second, parallel.second)
+    }
+
+    /**
+     * scattered stone and water over several chunks each way, so every phase
+     * has more than one chunk
+     *
+     * @return the content hash before and after simulating
+     */
+    private fun simulateSeededWorld(parallel: Boolean): Pair<Long, Long> {
+        val pool = ForkJoinPool(4)
+        OreSettings.parallelLiquidSim = parallel
+        try {
+            val seededWorld = OreWorld(null, null, OreWorld.WorldInstanceType.Server,
+                                       worldSize = OreWorld.WorldSize.TestTiny)
+            val liquidSystem = LiquidSimulationSystem(seededWorld, pool)
+            seededWorld.artemisWorld = World(WorldConfigurationBuilder().with(liquidSystem).build())
+
+            val random = Random(1234L)
+            for (y in 0 until 256) {
+                for (x in 0 until 256) {
+                    when (random.nextInt(8)) {
+                        0 -> seededWorld.setBlockType(x, y, OreBlock.BlockType.Stone)
+                        1, 2 -> seededWorld.setLiquidLevelWaterNotEmpty(x, y, (1 + random.nextInt(16)).toByte())
+                    }
+                }
+            }
+
+            val before = seededWorld.blocks.contentHash()
+            liquidSystem.wakeRegion(left = 0, right = 255, top = 0, bottom = 255)
+            liquidSystem.simulateEverywhere(ticks = 200)
+
+            return Pair(before, seededWorld.blocks.contentHash())
+        } finally {
+            OreSettings.parallelLiquidSim = false
+            pool.shutdown()
+        }
+    }
+
     fun processLiquidRange() {
         val liquidSystem = LiquidSimulationSystem(world)
         for (y in 20 downTo 0) {
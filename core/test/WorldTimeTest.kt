@@ -0,0 +1,56 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.WorldTime
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class WorldTimeTest {
+    @Test
+    fun sunlightFadesOutAtDusk() {
+        val worldTime = WorldTime()
+
+        worldTime.setTime(12, 0, 0)
+        assertEquals(1f, worldTime.sunlightFactor(), 0.0001f)
+
+        worldTime.setTime(19, 0, 0)
+        assertEquals((1f + WorldTime.NIGHT_SUNLIGHT_FACTOR) / 2f, worldTime.sunlightFactor(), 0.0001f)
+
+        worldTime.setTime(23, 0, 0)
+        assertEquals(WorldTime.NIGHT_SUNLIGHT_FACTOR, worldTime.sunlightFactor(), 0.0001f)
+    }
+
+    @Test
+    fun tickWrapsAroundMidnight() {
+        val worldTime = WorldTime()
+        worldTime.setTime(23, 59, 0)
+
+        //two world minutes
+        worldTime.tick(120 / WorldTime.WORLD_SECONDS_PER_SECOND)
+
+        assertEquals(0, worldTime.hour)
+        assertEquals(1, worldTime.minute)
+        assertEquals("00:01", worldTime.timeString())
+    }
+}